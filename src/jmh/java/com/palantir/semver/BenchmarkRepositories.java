@@ -0,0 +1,215 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TagBuilder;
+import org.eclipse.jgit.lib.TreeFormatter;
+
+/**
+ * Generates the repositories the benchmarks run against. The same arguments always generate the same history,
+ * so results can be compared between runs and machines. Generating and packing a large history takes a while,
+ * so each repository is kept in the temp directory and reused by later runs.
+ */
+final class BenchmarkRepositories {
+
+    private static final PersonIdent COMMITTER = new PersonIdent("bench", "bench@example.com");
+    private static final int FEATURE_LENGTH = 3;
+    private static final String DISABLED_BITMAP = ".bitmap.disabled";
+    private static final String[] DEFAULT_PREFIXES = {"v", "bench-"};
+    private static final int FILES_PER_DIRECTORY = 100;
+
+    private BenchmarkRepositories() {
+        // prevents instantiation
+    }
+
+    /**
+     * Returns the git directory of a packed repository whose master branch has about the given number of
+     * commits, with a release tagged as both v0.N.0 and bench-0.N.0 every tagInterval commits. Every
+     * mergeInterval commits a short feature branch is merged; with a mergeInterval of 0 the history is linear.
+     * The pack has a bitmap index.
+     */
+    static File gitDir(int commits, int tagInterval, int mergeInterval) throws IOException {
+        return gitDir(commits, tagInterval, mergeInterval, false, DEFAULT_PREFIXES);
+    }
+
+    /**
+     * Returns the git directory of a packed repository like {@link #gitDir(int, int, int)} does, with each release
+     * tagged once for every prefix, as the prefix followed by 0.N.0. The tags are annotated or lightweight.
+     */
+    static File gitDir(int commits, int tagInterval, int mergeInterval, boolean annotated, String... prefixes)
+            throws IOException {
+        StringBuilder name = new StringBuilder("gitsemver-bench-")
+                .append(commits).append('-').append(tagInterval).append('-').append(mergeInterval);
+        // Keeps the names of the repositories generated before tags could be annotated or prefixed differently
+        if (annotated || !Arrays.equals(prefixes, DEFAULT_PREFIXES)) {
+            name.append(annotated ? "-annotated" : "-lightweight");
+            for (String prefix : prefixes) {
+                name.append('-').append(prefix.isEmpty() ? "none" : prefix);
+            }
+        }
+        File gitDir = new File(System.getProperty("java.io.tmpdir"), name + "/.git");
+        if (!new File(gitDir, "packed-refs").isFile()) {
+            generate(gitDir, commits, tagInterval, mergeInterval, annotated, prefixes);
+        }
+        return gitDir;
+    }
+
+    /**
+     * Returns the working tree of a repository with the given number of committed files, spread over
+     * directories of a hundred files each, and nothing changed since the commit.
+     */
+    static File workTree(int files) throws IOException {
+        File workTree = new File(System.getProperty("java.io.tmpdir"), "gitsemver-bench-worktree-" + files);
+        File gitDir = new File(workTree, ".git");
+        if (!new File(gitDir, "refs/heads/" + Constants.MASTER).isFile()) {
+            for (int i = 0; i < files; i++) {
+                File directory = new File(workTree, "dir" + i / FILES_PER_DIRECTORY);
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Could not create " + directory);
+                }
+                write(new File(directory, "file" + i + ".txt"), "file " + i + "\n");
+            }
+            git(workTree, "init", "--quiet");
+            git(workTree, "add", "--all");
+            git(workTree, "-c", "user.name=bench", "-c", "user.email=bench@example.com",
+                    "commit", "--quiet", "--message", "files");
+        }
+        return workTree;
+    }
+
+    static void write(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    static void setCommitGraph(File gitDir, boolean enabled) throws IOException {
+        File graph = new File(gitDir, "objects/info/commit-graph");
+        if (enabled) {
+            git(gitDir, "commit-graph", "write", "--reachable");
+        } else if (graph.exists() && !graph.delete()) {
+            throw new IOException("Could not delete " + graph);
+        }
+    }
+
+    /**
+     * Moves the pack bitmap index out of the way or back. Repositories opened afterwards see the change.
+     */
+    static void setBitmaps(File gitDir, boolean enabled) throws IOException {
+        for (File file : new File(gitDir, "objects/pack").listFiles()) {
+            String name = file.getName();
+            if (enabled && name.endsWith(DISABLED_BITMAP)) {
+                rename(file, name.substring(0, name.length() - DISABLED_BITMAP.length()) + ".bitmap");
+            } else if (!enabled && name.endsWith(".bitmap")) {
+                rename(file, name.substring(0, name.length() - ".bitmap".length()) + DISABLED_BITMAP);
+            }
+        }
+    }
+
+    private static void rename(File file, String name) throws IOException {
+        if (!file.renameTo(new File(file.getParentFile(), name))) {
+            throw new IOException("Could not rename " + file);
+        }
+    }
+
+    private static void generate(File gitDir, int commits, int tagInterval, int mergeInterval, boolean annotated,
+                                 String[] prefixes) throws IOException {
+        Repository repo = new FileRepository(gitDir);
+        repo.create();
+        ObjectInserter inserter = repo.newObjectInserter();
+        try {
+            ObjectId emptyTree = inserter.insert(new TreeFormatter());
+            ObjectId head = null;
+            int count = 0;
+            int release = 0;
+            while (count < commits) {
+                if (head != null && mergeInterval > 0 && count % mergeInterval == 0) {
+                    ObjectId feature = head;
+                    for (int i = 0; i < FEATURE_LENGTH; i++) {
+                        feature = commit(inserter, emptyTree, count++, feature);
+                    }
+                    head = commit(inserter, emptyTree, count++, head, feature);
+                } else if (head == null) {
+                    head = commit(inserter, emptyTree, count++);
+                } else {
+                    head = commit(inserter, emptyTree, count++, head);
+                }
+                // Releases sit half an interval apart from multiples of the interval, so HEAD is never tagged
+                if ((count + tagInterval / 2) / tagInterval > release) {
+                    release = (count + tagInterval / 2) / tagInterval;
+                    for (String prefix : prefixes) {
+                        tag(repo, inserter, prefix + "0." + release + ".0", head, annotated, count);
+                    }
+                }
+            }
+            inserter.flush();
+            updateRef(repo, Constants.R_HEADS + Constants.MASTER, head);
+        } finally {
+            inserter.close();
+        }
+        repo.close();
+        git(gitDir, "-c", "gc.writeCommitGraph=false", "-c", "repack.writeBitmaps=true", "gc", "--quiet");
+    }
+
+    private static ObjectId commit(ObjectInserter inserter, ObjectId tree, int number, ObjectId... parents)
+            throws IOException {
+        PersonIdent ident = new PersonIdent(COMMITTER, 1000000000000L + number * 60000L, 0);
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(tree);
+        builder.setParentIds(parents);
+        builder.setAuthor(ident);
+        builder.setCommitter(ident);
+        builder.setMessage("commit " + number);
+        return inserter.insert(builder);
+    }
+
+    private static void tag(Repository repo, ObjectInserter inserter, String name, ObjectId commit,
+                            boolean annotated, int number) throws IOException {
+        ObjectId target = commit;
+        if (annotated) {
+            TagBuilder tag = new TagBuilder();
+            tag.setObjectId(commit, Constants.OBJ_COMMIT);
+            tag.setTag(name);
+            tag.setTagger(new PersonIdent(COMMITTER, 1000000000000L + number * 60000L, 0));
+            tag.setMessage("release " + name);
+            target = inserter.insert(tag);
+        }
+        updateRef(repo, Constants.R_TAGS + name, target);
+    }
+
+    private static void updateRef(Repository repo, String name, ObjectId id) throws IOException {
+        RefUpdate update = repo.updateRef(name);
+        update.setNewObjectId(id);
+        update.forceUpdate();
+    }
+
+    private static void git(File directory, String... args) throws IOException {
+        String[] command = new String[args.length + 1];
+        command[0] = "git";
+        System.arraycopy(args, 0, command, 1, args.length);
+        Process git = new ProcessBuilder(command).directory(directory).inheritIO().start();
+        try {
+            if (git.waitFor() != 0) {
+                throw new IOException("git " + args[0] + " failed in " + directory);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Repository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolves the version of generated repositories through {@code git describe}. Releases are only tagged as
+ * v0.N.0, so that describe always lands on a version tag.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DescribedTagsBenchmark {
+
+    @Param({"1000", "10000"})
+    public int commits;
+
+    @Param({"100"})
+    public int tagInterval;
+
+    @Param({"10", "0"})
+    public int mergeInterval;
+
+    @Param({"false", "true"})
+    public boolean annotated;
+
+    private Repository repo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        File gitDir = BenchmarkRepositories.gitDir(commits, tagInterval, mergeInterval, annotated, "v");
+        repo = new FileRepository(gitDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        repo.close();
+    }
+
+    @Benchmark
+    public TagVersionAndCount describedTag() throws IOException, GitAPIException {
+        return DescribedTags.getLatestTagVersionAndCount(repo);
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Repository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Checks whether a generated working tree is dirty when it is clean, when a committed file was modified and
+ * when a file was added without being committed. A clean tree has to be compared in full.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DirtyCheckBenchmark {
+
+    @Param({"1000", "20000"})
+    public int files;
+
+    @Param({"none", "modified", "untracked"})
+    public String change;
+
+    @Param({"true", "false"})
+    public boolean includeUntracked;
+
+    private File changed;
+    private Repository repo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        File workTree = BenchmarkRepositories.workTree(files);
+        if (change.equals("modified")) {
+            changed = new File(workTree, "dir0/file0.txt");
+            BenchmarkRepositories.write(changed, "modified\n");
+        } else if (change.equals("untracked")) {
+            changed = new File(workTree, "untracked.txt");
+            BenchmarkRepositories.write(changed, "untracked\n");
+        }
+        repo = new FileRepository(new File(workTree, ".git"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repo.close();
+        if (change.equals("modified")) {
+            BenchmarkRepositories.write(changed, "file 0\n");
+        } else if (change.equals("untracked") && !changed.delete()) {
+            throw new IOException("Could not delete " + changed);
+        }
+    }
+
+    @Benchmark
+    public boolean isDirty() {
+        return GitRepos.isDirty(repo, includeUntracked);
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Repository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolves the version of generated repositories of different sizes and shapes: long or short histories, many
+ * or few tags, merges or a linear history, and annotated or lightweight tags. Every release is tagged both as
+ * v0.N.0 and as bench-0.N.0.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GeneratedRepositoryBenchmark {
+
+    @Param({"10000", "100000"})
+    public int commits;
+
+    @Param({"100", "1000"})
+    public int tagInterval;
+
+    @Param({"10", "0"})
+    public int mergeInterval;
+
+    @Param({"false", "true"})
+    public boolean annotated;
+
+    private Repository repo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        File gitDir = BenchmarkRepositories.gitDir(commits, tagInterval, mergeInterval, annotated, "v", "bench-");
+        repo = new FileRepository(gitDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        repo.close();
+    }
+
+    @Benchmark
+    public TagVersionAndCount latestTag() throws IOException {
+        return Tags.getLatestTagVersionAndCount(repo, null);
+    }
+
+    @Benchmark
+    public TagVersionAndCount latestPrefixTag() throws IOException {
+        return Tags.getLatestTagVersionAndCount(repo, "bench");
+    }
+
+    @Benchmark
+    public TagVersionAndCount topoTag() throws IOException {
+        return Tags.getTopoTagVersionAndCount(repo, "bench");
+    }
+
+}
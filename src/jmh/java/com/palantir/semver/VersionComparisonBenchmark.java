@@ -0,0 +1,67 @@
+package com.palantir.semver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares and sorts the versions of a repository with many prerelease tags, which compares versions that only
+ * differ in their release candidates most of the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VersionComparisonBenchmark {
+
+    private static final int TAGS = 40000;
+    private static final String[] RELEASE_CANDIDATES = {"rc", "beta", "alpha", "dev", "1", "x.7.z"};
+
+    private final List<SemanticVersion> versions = new ArrayList<SemanticVersion>();
+    private final SemanticVersionComparator comparator = new SemanticVersionComparator();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        for (int i = 0; i < TAGS; i++) {
+            String version = random.nextInt(3) + "." + random.nextInt(3) + "." + random.nextInt(3);
+            if (random.nextInt(8) != 0) {
+                version += "-" + RELEASE_CANDIDATES[random.nextInt(RELEASE_CANDIDATES.length)] + "."
+                        + random.nextInt(50);
+            }
+            versions.add(SemanticVersions.parse(version));
+        }
+    }
+
+    @Benchmark
+    public int compareNeighbours() {
+        int sum = 0;
+        for (int i = 1; i < versions.size(); i++) {
+            sum += comparator.compare(versions.get(i - 1), versions.get(i));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public List<SemanticVersion> sortTags() {
+        List<SemanticVersion> sorted = new ArrayList<SemanticVersion>(versions);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.palantir.semver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parses a mix of tag names the way resolving a version does, with the hand-written parser and with the
+ * regular expression it replaced, which checked each tag and then matched it again to parse it. Prefixed tag
+ * names are parsed with a literal prefix, with a prefix that needs a cached pattern, and with a pattern
+ * compiled for every check and parse as before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VersionParsingBenchmark {
+
+    private static final String VERSION_REGEX = "(\\d+)(\\.(\\d+))(\\.(\\d+))"
+            + "(-(([0-9A-Za-z-]+)(\\.[0-9A-Za-z-]+)*))?"
+            + "(\\+(([0-9A-Za-z-]+)(\\.[0-9A-Za-z-]+)*))?";
+    private static final Pattern REGEX = Pattern.compile("^" + VERSION_REGEX + "$");
+    private static final String PREFIX = "bench";
+    // Matches the same tags, but is not plain text
+    private static final String PATTERN_PREFIX = "ben.h";
+
+    private final String[] tags = {
+        "1.0.0", "2.13.7", "0.1.0-rc.1", "10.4.2-alpha.3+build.2017", "3.0.0+sha.5114f85",
+        "1.2.3-SNAPSHOT", "release-candidate", "1.2", "4.5.6-", "20170101",
+    };
+
+    private final String[] versions = {
+        "1.0.0", "2.13.7", "0.1.0-rc.1", "10.4.2-alpha.3+build.2017", "3.0.0+sha.5114f85", "1.2.3-SNAPSHOT",
+    };
+
+    private final String[] prefixedTags = {
+        "bench-1.0.0", "bench-2.13.7", "bench-v0.1.0-rc.1", "bench10.4.2-alpha.3+build.2017", "bench-3.0.0+sha.5",
+        "bench-1.2.3-SNAPSHOT", "other-1.0.0", "bench-1.2", "bench-release", "1.0.0",
+    };
+
+    private final TagVersionAndCount prefixedTag = new TagVersionAndCount("bench-1.2.0", 3);
+
+    @Benchmark
+    public void handWritten(Blackhole blackhole) {
+        for (String tag : tags) {
+            blackhole.consume(SemanticVersions.tryParse(tag));
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (String version : versions) {
+            blackhole.consume(SemanticVersions.parse(version));
+        }
+    }
+
+    @Benchmark
+    public void regex(Blackhole blackhole) {
+        for (String tag : tags) {
+            if (REGEX.matcher(tag).matches()) {
+                Matcher matcher = REGEX.matcher(tag);
+                matcher.matches();
+                blackhole.consume(new DefaultSemanticVersion(tag, Integer.parseInt(matcher.group(1)),
+                        Integer.parseInt(matcher.group(3)), Integer.parseInt(matcher.group(5)),
+                        matcher.group(7), matcher.group(11)));
+            }
+        }
+    }
+
+    @Benchmark
+    public void prefixedHandWritten(Blackhole blackhole) {
+        for (String tag : prefixedTags) {
+            blackhole.consume(SemanticVersions.tryParse(PREFIX, tag));
+        }
+    }
+
+    @Benchmark
+    public void prefixedCachedPattern(Blackhole blackhole) {
+        for (String tag : prefixedTags) {
+            blackhole.consume(SemanticVersions.tryParse(PATTERN_PREFIX, tag));
+        }
+    }
+
+    @Benchmark
+    public void prefixedPatternPerCall(Blackhole blackhole) {
+        for (String tag : prefixedTags) {
+            String regex = "^" + PREFIX + "-?v?" + VERSION_REGEX + "$";
+            if (Pattern.compile(regex).matcher(tag).matches()) {
+                Matcher matcher = Pattern.compile(regex).matcher(tag);
+                matcher.matches();
+                blackhole.consume(new PrefixSemanticVersion(tag, Integer.parseInt(matcher.group(1)),
+                        Integer.parseInt(matcher.group(3)), Integer.parseInt(matcher.group(5)),
+                        matcher.group(7), matcher.group(11)));
+            }
+        }
+    }
+
+    @Benchmark
+    public SemverVersion prefixedVersionString() {
+        return new TagBasedVersionFactory(PREFIX).generateVersion(prefixedTag, "abcdef0", null, false);
+    }
+
+}
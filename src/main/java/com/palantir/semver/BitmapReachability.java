@@ -0,0 +1,120 @@
+package com.palantir.semver;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.BitmapIndex;
+import org.eclipse.jgit.lib.BitmapIndex.Bitmap;
+import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
+import org.eclipse.jgit.lib.BitmapObject;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Answers reachability questions from the pack bitmap index of a repacked repository. The set of objects
+ * reachable from a commit is the union of the bitmaps stored for the nearest bitmapped commits, so only the
+ * commits between a start and those need to be walked.
+ */
+class BitmapReachability {
+
+    private final RevWalk walk;
+    private final BitmapIndex index;
+    private final Map<ObjectId, BitmapBuilder> reachable = new HashMap<ObjectId, BitmapBuilder>();
+
+    private BitmapReachability(RevWalk walk, BitmapIndex index) {
+        this.walk = walk;
+        this.index = index;
+    }
+
+    /**
+     * @return bitmap reachability for the repository the walk reads from, or null if it has no pack bitmaps
+     */
+    static BitmapReachability open(RevWalk walk) throws IOException {
+        BitmapIndex index = walk.getObjectReader().getBitmapIndex();
+        if (index == null) {
+            return null;
+        }
+        return new BitmapReachability(walk, index);
+    }
+
+    boolean isReachable(RevCommit from, AnyObjectId target)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        return reachableFrom(from).contains(target);
+    }
+
+    /**
+     * Counts the commits reachable from head but not from tag, if that is also the number of commits a
+     * topologically sorted walk from head produces before it reaches tag.
+     * <p>
+     * The two agree when every one of those commits is a descendant of tag, because a topological walk emits
+     * all descendants of a commit before it and all of its ancestors after it. That is certain when each of
+     * them only has parents that are among them or are tag itself, as following parents from any of them then
+     * has to end at tag. Histories where it is not, such as a merged branch that forked before the tag, are
+     * left to the caller.
+     *
+     * @return the number of commits, or -1 if it cannot be derived from the bitmaps
+     */
+    int countCommitsSince(RevCommit head, RevCommit tag)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        if (!isReachable(head, tag)) {
+            return -1;
+        }
+        BitmapBuilder ahead = index.newBitmapBuilder().or(reachableFrom(head)).andNot(reachableFrom(tag));
+        int commitCount = 0;
+        for (BitmapObject object : ahead) {
+            if (object.getType() != Constants.OBJ_COMMIT) {
+                continue;
+            }
+            RevCommit commit = walk.lookupCommit(object.getObjectId());
+            walk.parseHeaders(commit);
+            if (commit.getParentCount() == 0) {
+                return -1;
+            }
+            for (RevCommit parent : commit.getParents()) {
+                if (!parent.equals(tag) && !ahead.contains(parent)) {
+                    return -1;
+                }
+            }
+            commitCount++;
+        }
+        return commitCount;
+    }
+
+    private BitmapBuilder reachableFrom(RevCommit start)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        BitmapBuilder result = reachable.get(start);
+        if (result != null) {
+            return result;
+        }
+        result = index.newBitmapBuilder();
+        Deque<RevCommit> pending = new ArrayDeque<RevCommit>();
+        pending.push(start);
+        while (!pending.isEmpty()) {
+            RevCommit commit = pending.pop();
+            if (result.contains(commit)) {
+                continue;
+            }
+            Bitmap bitmap = index.getBitmap(commit);
+            if (bitmap != null) {
+                result.or(bitmap);
+                continue;
+            }
+            result.addObject(commit, Constants.OBJ_COMMIT);
+            walk.parseHeaders(commit);
+            for (RevCommit parent : commit.getParents()) {
+                pending.push(parent);
+            }
+        }
+        reachable.put(start.copy(), result);
+        return result;
+    }
+
+}
@@ -0,0 +1,460 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Reader for git's commit-graph file (objects/info/commit-graph), which stores the parents, commit time and
+ * generation number of every commit it covers. Walks that only need the shape of the history can read those
+ * from the graph instead of inflating each commit object.
+ * <p>
+ * Only a single graph file written with SHA-1 is understood. Split graphs (commit-graph chains), shallow
+ * repositories and anything that does not parse cleanly are treated as if there were no graph at all.
+ * <p>
+ * A graph is read into memory once and shared by every reader of the repository until its file is replaced,
+ * which is noticed from the file's size, modification time and file key. It is read rather than mapped, since
+ * on Windows a mapped file cannot be replaced by git until the daemon lets go of it.
+ */
+class CommitGraph {
+
+    private static final int SIGNATURE = 0x43475048; // "CGPH"
+    private static final int VERSION = 1;
+    private static final int HASH_VERSION_SHA1 = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int CHUNK_ENTRY_LENGTH = 12;
+
+    private static final int CHUNK_OID_FANOUT = 0x4f494446; // "OIDF"
+    private static final int CHUNK_OID_LOOKUP = 0x4f49444c; // "OIDL"
+    private static final int CHUNK_COMMIT_DATA = 0x43444154; // "CDAT"
+    private static final int CHUNK_EXTRA_EDGES = 0x45444745; // "EDGE"
+
+    private static final int HASH_LENGTH = Constants.OBJECT_ID_LENGTH;
+    private static final int COMMIT_DATA_LENGTH = HASH_LENGTH + 16;
+    private static final int PARENT_NONE = 0x70000000;
+    private static final int EXTRA_EDGES_NEEDED = 0x80000000;
+    private static final int LAST_EDGE = 0x80000000;
+    private static final int GENERATION_UNKNOWN = 0;
+    private static final int GENERATION_MAX = 0x3fffffff;
+
+    private static final int HEX_LENGTH = Constants.OBJECT_ID_STRING_LENGTH;
+    private static final byte[] HEX_DIGITS = Constants.encodeASCII("0123456789abcdef");
+    private static final byte[] TREE = Constants.encodeASCII("tree ");
+    private static final byte[] PARENT = Constants.encodeASCII("parent ");
+    private static final byte[] AUTHOR = Constants.encodeASCII("author <>");
+    private static final byte[] COMMITTER = Constants.encodeASCII("committer <>");
+
+    private static final int MAX_CACHED_GRAPHS = 16;
+    // Keyed by the canonical path of the graph file; a graph that could not be used is cached as null
+    private static final Map<File, CachedGraph> GRAPHS = new HashMap<File, CachedGraph>();
+
+    private final byte[] data;
+    private final int commitCount;
+    private final int fanoutOffset;
+    private final int lookupOffset;
+    private final int commitDataOffset;
+    private final int extraEdgesOffset;
+
+    private CommitGraph(byte[] data) throws IOException {
+        this.data = data;
+        if (data.length < HEADER_LENGTH
+                || NB.decodeInt32(data, 0) != SIGNATURE
+                || data[4] != VERSION
+                || data[5] != HASH_VERSION_SHA1
+                || data[7] != 0) {
+            throw new IOException("Unsupported commit-graph");
+        }
+        int chunkCount = data[6] & 0xff;
+        if (HEADER_LENGTH + (chunkCount + 1) * CHUNK_ENTRY_LENGTH > data.length) {
+            throw new IOException("Truncated commit-graph");
+        }
+        int fanout = -1;
+        int lookup = -1;
+        int commitData = -1;
+        int extraEdges = -1;
+        for (int i = 0; i < chunkCount; i++) {
+            int entry = HEADER_LENGTH + i * CHUNK_ENTRY_LENGTH;
+            long offset = NB.decodeInt64(data, entry + 4);
+            if (offset < 0 || offset > data.length) {
+                throw new IOException("Corrupt commit-graph chunk offset");
+            }
+            switch (NB.decodeInt32(data, entry)) {
+                case CHUNK_OID_FANOUT:
+                    fanout = (int) offset;
+                    break;
+                case CHUNK_OID_LOOKUP:
+                    lookup = (int) offset;
+                    break;
+                case CHUNK_COMMIT_DATA:
+                    commitData = (int) offset;
+                    break;
+                case CHUNK_EXTRA_EDGES:
+                    extraEdges = (int) offset;
+                    break;
+                default:
+                    // Chunks we do not need, such as bloom filters or generation data, are skipped
+                    break;
+            }
+        }
+        if (fanout < 0 || lookup < 0 || commitData < 0 || fanout + 256 * 4 > data.length) {
+            throw new IOException("Commit-graph is missing required chunks");
+        }
+        this.fanoutOffset = fanout;
+        this.lookupOffset = lookup;
+        this.commitDataOffset = commitData;
+        this.extraEdgesOffset = extraEdges;
+        this.commitCount = NB.decodeInt32(data, fanout + 255 * 4);
+        if (commitCount < 0
+                || (long) lookup + (long) commitCount * HASH_LENGTH > data.length
+                || (long) commitData + (long) commitCount * COMMIT_DATA_LENGTH > data.length) {
+            throw new IOException("Truncated commit-graph");
+        }
+    }
+
+    /**
+     * @return the repository's commit-graph, or null if it does not have one that can be used
+     */
+    static CommitGraph open(Repository repo) {
+        if (!(repo instanceof FileRepository) || new File(repo.getDirectory(), "shallow").exists()) {
+            return null;
+        }
+        File file = new File(((FileRepository) repo).getObjectsDirectory(), "info/commit-graph");
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return read(file.getCanonicalFile());
+        } catch (IOException e) {
+            // The graph is only an optimization; walks fall back to reading commit objects
+            return null;
+        }
+    }
+
+    private static CommitGraph read(File file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        List<Object> state = Arrays.<Object>asList(
+                attributes.size(), attributes.lastModifiedTime(), attributes.fileKey());
+        synchronized (GRAPHS) {
+            CachedGraph cached = GRAPHS.get(file);
+            if (cached != null && cached.state.equals(state)) {
+                return cached.graph;
+            }
+        }
+        // Read after the file was stat'ed, so a graph replaced in between is at worst read again next time
+        byte[] data = Files.readAllBytes(file.toPath());
+        CommitGraph graph;
+        try {
+            graph = new CommitGraph(data);
+        } catch (IOException e) {
+            graph = null;
+        }
+        synchronized (GRAPHS) {
+            if (GRAPHS.size() >= MAX_CACHED_GRAPHS && !GRAPHS.containsKey(file)) {
+                GRAPHS.clear();
+            }
+            GRAPHS.put(file, new CachedGraph(state, graph));
+        }
+        return graph;
+    }
+
+    /**
+     * @return a walk that reads the commits covered by the repository's commit-graph from the graph, or from the
+     *         object database if the repository has no usable graph. What it reads from the object database
+     *         counts towards the profile of the version being resolved, if any. Closing the walk closes its
+     *         reader.
+     */
+    static RevWalk newRevWalk(Repository repo) {
+        ObjectReader reader = ResolutionProfile.countInflatedBytes(repo.newObjectReader());
+        CommitGraph graph = open(repo);
+        if (graph != null) {
+            reader = new GraphObjectReader(reader, graph);
+        }
+        return new GraphRevWalk(reader);
+    }
+
+    /**
+     * @return the graph backing the given reader, or null if it reads every object from the object database
+     */
+    static CommitGraph of(ObjectReader reader) {
+        if (reader instanceof GraphObjectReader) {
+            return ((GraphObjectReader) reader).graph;
+        }
+        return null;
+    }
+
+    int getCommitCount() {
+        return commitCount;
+    }
+
+    /**
+     * @return the position of the commit in the graph, or -1 if the graph does not cover it
+     */
+    int findCommit(AnyObjectId id) {
+        int firstByte = id.getFirstByte();
+        int low = firstByte == 0 ? 0 : NB.decodeInt32(data, fanoutOffset + (firstByte - 1) * 4);
+        int high = Math.min(NB.decodeInt32(data, fanoutOffset + firstByte * 4), commitCount);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = id.compareTo(data, lookupOffset + middle * HASH_LENGTH);
+            if (comparison < 0) {
+                high = middle;
+            } else if (comparison > 0) {
+                low = middle + 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    ObjectId getCommitId(int position) {
+        return ObjectId.fromRaw(data, lookupOffset + position * HASH_LENGTH);
+    }
+
+    ObjectId getTreeId(int position) {
+        return ObjectId.fromRaw(data, commitDataOffset + position * COMMIT_DATA_LENGTH);
+    }
+
+    int[] getParents(int position) throws IOException {
+        int offset = commitDataOffset + position * COMMIT_DATA_LENGTH + HASH_LENGTH;
+        int first = NB.decodeInt32(data, offset);
+        int second = NB.decodeInt32(data, offset + 4);
+        if (first == PARENT_NONE) {
+            return new int[0];
+        } else if (second == PARENT_NONE) {
+            return new int[] {checkPosition(first)};
+        } else if ((second & EXTRA_EDGES_NEEDED) == 0) {
+            return new int[] {checkPosition(first), checkPosition(second)};
+        }
+        if (extraEdgesOffset < 0) {
+            throw new IOException("Commit-graph is missing its extra edges");
+        }
+        int[] parents = new int[8];
+        parents[0] = checkPosition(first);
+        int count = 1;
+        for (int edge = extraEdgesOffset + (second & ~EXTRA_EDGES_NEEDED) * 4; ; edge += 4) {
+            if (edge + 4 > data.length) {
+                throw new IOException("Truncated commit-graph");
+            }
+            int parent = NB.decodeInt32(data, edge);
+            if (count == parents.length) {
+                int[] grown = new int[parents.length * 2];
+                System.arraycopy(parents, 0, grown, 0, count);
+                parents = grown;
+            }
+            parents[count++] = checkPosition(parent & ~LAST_EDGE);
+            if ((parent & LAST_EDGE) != 0) {
+                break;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(parents, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * @return the commit's generation number: one more than the largest generation among its parents, or 0
+     *         if the graph was written without generation numbers
+     */
+    int getGeneration(int position) {
+        return NB.decodeInt32(data, commitDataOffset + position * COMMIT_DATA_LENGTH + HASH_LENGTH + 8) >>> 2;
+    }
+
+    long getCommitTime(int position) {
+        int offset = commitDataOffset + position * COMMIT_DATA_LENGTH + HASH_LENGTH + 8;
+        return ((NB.decodeInt32(data, offset) & 3L) << 32) | NB.decodeUInt32(data, offset + 4);
+    }
+
+    /**
+     * Answers whether the target commit is reachable from any of the start commits. Commits whose generation
+     * is lower than the target's cannot reach it, so the search never descends below the target's generation.
+     */
+    boolean isReachable(Collection<Integer> starts, int target) throws IOException {
+        int targetGeneration = getGeneration(target);
+        BitSet seen = new BitSet(commitCount);
+        Deque<Integer> pending = new ArrayDeque<Integer>();
+        for (Integer start : starts) {
+            if (!seen.get(start)) {
+                seen.set(start);
+                pending.push(start);
+            }
+        }
+        while (!pending.isEmpty()) {
+            int position = pending.pop();
+            if (position == target) {
+                return true;
+            }
+            int generation = getGeneration(position);
+            if (targetGeneration != GENERATION_UNKNOWN && generation != GENERATION_UNKNOWN
+                    && (generation < targetGeneration
+                            || (generation == targetGeneration && generation != GENERATION_MAX))) {
+                // Everything below this commit has a generation lower than the target's. Generations that
+                // hit the maximum are not strictly decreasing any more, so those are only pruned when lower.
+                continue;
+            }
+            for (int parent : getParents(position)) {
+                if (!seen.get(parent)) {
+                    seen.set(parent);
+                    pending.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Renders the commit in the canonical commit format, with everything but the tree, parents and commit time
+     * left blank. That is all {@link org.eclipse.jgit.revwalk.RevWalk} reads to order and traverse commits.
+     */
+    byte[] toCommitBytes(int position) throws IOException {
+        int[] parents = getParents(position);
+        byte[] time = Constants.encodeASCII(" " + getCommitTime(position) + " +0000\n");
+        byte[] commit = new byte[TREE.length + HEX_LENGTH + 1 + parents.length * (PARENT.length + HEX_LENGTH + 1)
+                + AUTHOR.length + COMMITTER.length + 2 * time.length + 1];
+        int offset = appendId(commit, 0, TREE, commitDataOffset + position * COMMIT_DATA_LENGTH);
+        for (int parent : parents) {
+            offset = appendId(commit, offset, PARENT, lookupOffset + parent * HASH_LENGTH);
+        }
+        offset = append(commit, offset, AUTHOR);
+        offset = append(commit, offset, time);
+        offset = append(commit, offset, COMMITTER);
+        offset = append(commit, offset, time);
+        commit[offset] = '\n';
+        return commit;
+    }
+
+    private int appendId(byte[] commit, int offset, byte[] header, int idOffset) {
+        offset = append(commit, offset, header);
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            int b = data[idOffset + i] & 0xff;
+            commit[offset++] = HEX_DIGITS[b >>> 4];
+            commit[offset++] = HEX_DIGITS[b & 0xf];
+        }
+        commit[offset++] = '\n';
+        return offset;
+    }
+
+    private static int append(byte[] commit, int offset, byte[] bytes) {
+        System.arraycopy(bytes, 0, commit, offset, bytes.length);
+        return offset + bytes.length;
+    }
+
+    private int checkPosition(int position) throws IOException {
+        if (position < 0 || position >= commitCount) {
+            throw new IOException("Corrupt commit-graph parent " + position);
+        }
+        return position;
+    }
+
+    private static class CachedGraph {
+
+        // The size, modification time and file key of the file the graph was read from
+        private final List<Object> state;
+        private final CommitGraph graph;
+
+        CachedGraph(List<Object> state, CommitGraph graph) {
+            this.state = state;
+            this.graph = graph;
+        }
+    }
+
+    /**
+     * Serves the commits covered by the graph from the graph and everything else from the object database.
+     * Commits read through this reader have the right tree, parents and commit time, but an empty author,
+     * committer and message, so it is only ever handed to a {@link GraphRevWalk}.
+     */
+    private static class GraphObjectReader extends ObjectReader.Filter {
+
+        private final ObjectReader delegate;
+        private final CommitGraph graph;
+
+        GraphObjectReader(ObjectReader delegate, CommitGraph graph) {
+            this.delegate = delegate;
+            this.graph = graph;
+        }
+
+        @Override
+        protected ObjectReader delegate() {
+            return delegate;
+        }
+
+        @Override
+        public ObjectReader newReader() {
+            return new GraphObjectReader(delegate.newReader(), graph);
+        }
+
+        @Override
+        public ObjectLoader open(AnyObjectId objectId) throws MissingObjectException, IOException {
+            return open(objectId, OBJ_ANY);
+        }
+
+        @Override
+        public ObjectLoader open(AnyObjectId objectId, int typeHint)
+                throws MissingObjectException, IncorrectObjectTypeException, IOException {
+            if (typeHint == OBJ_ANY || typeHint == Constants.OBJ_COMMIT) {
+                int position = graph.findCommit(objectId);
+                if (position >= 0) {
+                    return new ObjectLoader.SmallObject(Constants.OBJ_COMMIT, graph.toCommitBytes(position));
+                }
+            }
+            return delegate.open(objectId, typeHint);
+        }
+    }
+
+
+    /**
+     * A walk that only reads the shape of the history. It never keeps commit bodies and refuses filters that
+     * need them, since the bodies a {@link GraphObjectReader} makes up must not be mistaken for real ones.
+     */
+    private static class GraphRevWalk extends RevWalk {
+
+        GraphRevWalk(ObjectReader reader) {
+            super(reader);
+            super.setRetainBody(false);
+        }
+
+        @Override
+        public void setRetainBody(boolean retain) {
+            if (retain) {
+                throw new IllegalArgumentException("Commit bodies are not read by this walk");
+            }
+        }
+
+        @Override
+        public void setRevFilter(RevFilter filter) {
+            if (filter.requiresCommitBody()) {
+                throw new IllegalArgumentException("Commit bodies are not read by this walk");
+            }
+            super.setRevFilter(filter);
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            getObjectReader().close();
+        }
+    }
+
+}
@@ -1,22 +1,9 @@
 package com.palantir.semver;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 class DefaultSemanticVersion implements SemanticVersion {
 
-    private static final String SEMANTIC_VERSION_REGEX = createSemanticVersionRegex();
-    private static final Pattern SEMANTIC_VERSION_PATTERN = Pattern.compile("^"
-            + SEMANTIC_VERSION_REGEX + "$");
     private static final SemanticVersionComparator COMPARATOR = new SemanticVersionComparator();
 
-    private static String createSemanticVersionRegex() {
-        String majorMinorPatchPattern = "(\\d+)(\\.(\\d+))(\\.(\\d+))";
-        String releaseCandidatePattern = "(-(([0-9A-Za-z-]+)(\\.[0-9A-Za-z-]+)*))?";
-        String buildPattern = "(\\+(([0-9A-Za-z-]+)(\\.[0-9A-Za-z-]+)*))?";
-        return majorMinorPatchPattern + releaseCandidatePattern + buildPattern;
-    }
-
     private final String originalVersion;
     private final int major;
     private final int minor;
@@ -25,6 +12,7 @@ class DefaultSemanticVersion implements SemanticVersion {
     private final String releaseCandidate;
     // This can be null
     private final String metadata;
+    private final SemanticVersionComparator.Key comparisonKey;
 
     /**
      * This constructor is package private for the purposes of testing
@@ -46,24 +34,41 @@ class DefaultSemanticVersion implements SemanticVersion {
         this.patch = checkNonNegativeVersion(patch);
         this.releaseCandidate = releaseCandidate;
         this.metadata = metadata;
+        this.comparisonKey = new SemanticVersionComparator.Key(this.major, this.minor, this.patch, releaseCandidate);
     }
 
     public static SemanticVersion createFromString(String version) {
-        Matcher matcher = SEMANTIC_VERSION_PATTERN.matcher(version);
-        checkArgument(matcher.matches(), "Version string " + version
+        SemanticVersion semanticVersion = tryParse(version);
+        checkArgument(semanticVersion != null, "Version string " + version
                 + " is not a semantic version");
-        int major = Integer.parseInt(matcher.group(1));
-        int minor = Integer.parseInt(matcher.group(3));
-        int patch = Integer.parseInt(matcher.group(5));
-        String releaseCandidate = matcher.group(7);
-        String build = matcher.group(11);
+        return semanticVersion;
+    }
+
+    /**
+     * @return the version, or null if the string is not a semantic version
+     */
+    static SemanticVersion tryParse(String version) {
+        int patchEnd = SemanticVersionSyntax.endOfCore(version, 0);
+        if (patchEnd < 0) {
+            return null;
+        }
+        int releaseCandidateEnd = SemanticVersionSyntax.endOfSuffix(version, patchEnd, '-');
+        if (releaseCandidateEnd < 0) {
+            return null;
+        }
+        int buildEnd = SemanticVersionSyntax.endOfSuffix(version, releaseCandidateEnd, '+');
+        if (buildEnd != version.length()) {
+            return null;
+        }
+        int minorStart = version.indexOf('.') + 1;
+        int patchStart = version.indexOf('.', minorStart) + 1;
         return new DefaultSemanticVersion(
                 version,
-                major,
-                minor,
-                patch,
-                releaseCandidate,
-                build);
+                SemanticVersionSyntax.parseNumber(version, 0, minorStart - 1),
+                SemanticVersionSyntax.parseNumber(version, minorStart, patchStart - 1),
+                SemanticVersionSyntax.parseNumber(version, patchStart, patchEnd),
+                releaseCandidateEnd == patchEnd ? null : version.substring(patchEnd + 1, releaseCandidateEnd),
+                buildEnd == releaseCandidateEnd ? null : version.substring(releaseCandidateEnd + 1, buildEnd));
     }
 
     private static int checkNonNegativeVersion(int version) {
@@ -74,7 +79,7 @@ class DefaultSemanticVersion implements SemanticVersion {
     }
 
     public static boolean isValid(String version) {
-        return SEMANTIC_VERSION_PATTERN.matcher(version).matches();
+        return SemanticVersionSyntax.isValid(version, 0);
     }
 
     @Override
@@ -107,6 +112,10 @@ class DefaultSemanticVersion implements SemanticVersion {
         return metadata;
     }
 
+    SemanticVersionComparator.Key getComparisonKey() {
+        return comparisonKey;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
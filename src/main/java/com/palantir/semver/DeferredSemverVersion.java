@@ -0,0 +1,120 @@
+package com.palantir.semver;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A version that is only resolved once something reads it. Gradle converts a project's version to a string
+ * when a task needs it, so a build that never does, such as {@code gradle help}, does not read the repository
+ * at all. The version is resolved once, by whichever thread reads it first, unless it was {@linkplain #start
+ * started} in the background, in which case readers wait for that resolution.
+ * <p>
+ * It is a {@link SemverVersion} so that it can be returned wherever one is expected; the fields passed to the
+ * superclass are never read.
+ */
+public class DeferredSemverVersion extends SemverVersion {
+
+    private final FutureTask<SemverVersion> resolution;
+    // Set once the resolution starts, or once it is cancelled before it did
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    DeferredSemverVersion(final Callable<SemverVersion> resolve) {
+        super(null, null, null, null, null, false);
+        this.resolution = new FutureTask<SemverVersion>(new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() throws Exception {
+                if (!started.compareAndSet(false, true)) {
+                    throw new SemverGitflowPlugin.VersionApplicationException(
+                            "The version was not resolved before the build finished");
+                }
+                return resolve.call();
+            }
+        });
+    }
+
+    /**
+     * Starts resolving the version on the given executor. A reader that gets to it before the executor does
+     * resolves it on its own thread instead.
+     */
+    DeferredSemverVersion start(Executor executor) {
+        executor.execute(resolution);
+        return this;
+    }
+
+    /**
+     * Makes sure that the version is not being resolved once this returns: a resolution that has not started
+     * never will, and one that has is waited for. Its failure, if any, is left for readers, and reading a
+     * version whose resolution never started fails.
+     */
+    void cancelOrAwait() {
+        if (started.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            resolution.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Rethrown to whoever reads the version
+        }
+    }
+
+    /**
+     * @return the version, resolving it if this is the first time it is read
+     */
+    public SemverVersion get() {
+        // Does nothing if the version is already resolved or being resolved by another thread
+        resolution.run();
+        try {
+            return resolution.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SemverGitflowPlugin.VersionApplicationException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SemverGitflowPlugin.VersionApplicationException(cause);
+        }
+    }
+
+    public boolean isResolved() {
+        return resolution.isDone();
+    }
+
+    @Override
+    public String toString() {
+        return get().toString();
+    }
+
+    @Override
+    public String getTagName() {
+        return get().getTagName();
+    }
+
+    @Override
+    public String getGitHash() {
+        return get().getGitHash();
+    }
+
+    @Override
+    public Integer getCommitCount() {
+        return get().getCommitCount();
+    }
+
+    @Override
+    public Integer getBuildNumber() {
+        return get().getBuildNumber();
+    }
+
+    @Override
+    public boolean getDirty() {
+        return get().getDirty();
+    }
+}
@@ -1,13 +1,17 @@
 package com.palantir.semver;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.LogCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -15,39 +19,124 @@ import org.eclipse.jgit.revwalk.RevWalk;
 
 public class DescribedTags {
 
+    // Marks a commit whose parents lead to no tag, which no tag name can be mistaken for
+    private static final String NO_TAG = "";
+
     private DescribedTags() {
         // prevents instantiation
     }
 
+    /**
+     * Describes the target and, when the tag git describe lands on is not a semantic version, looks for one
+     * through the parents of that tag's commit, trying them in order and taking the first that leads to one.
+     * The search works through a stack of its own rather than recursing, and remembers what it found for every
+     * commit it describes or searches from, so that a commit shared by many merged branches is only looked at
+     * once.
+     *
+     * @param recur 0 for the tag and count of the target, otherwise just the tag with a count of -1
+     * @return the tag and count, or null if no semantic version tag can be found
+     */
     public static TagVersionAndCount resolveLatestTagVersionAndCount(
             Repository repo, TagVersionAndCount curTag, int recur) throws IOException,
             RefNotFoundException, GitAPIException {
         Git git = new Git(repo);
-        String described = git.describe().setTarget(curTag.getVersion()).call();
-        if (described == null)
+        RevWalk revWalk = new RevWalk(repo);
+        try {
+            return resolveLatestTagVersionAndCount(git, revWalk, curTag, recur);
+        } finally {
+            revWalk.close();
+            git.close();
+        }
+    }
+
+    private static TagVersionAndCount resolveLatestTagVersionAndCount(
+            Git git, RevWalk revWalk, TagVersionAndCount curTag, int recur) throws IOException, GitAPIException {
+        TagVersionAndCount describedTag = describe(git, curTag.getVersion());
+        if (describedTag == null)
+            return null;
+        if (isSemanticVersion(describedTag)) {
+            if (recur != 0)
+                return new TagVersionAndCount(describedTag.getVersion(), -1);
+            return describedTag;
+        }
+        String parentTag = findTagThroughParents(git, revWalk,
+                parseTaggedCommit(git.getRepository(), revWalk, describedTag));
+        if (parentTag == null)
             return null;
-        TagVersionAndCount describedTag = parseDescribeOutput(described);
-        if (!SemanticVersions.isValid(GitRepos.stripVFromVersionString(describedTag.getVersion()))) {
-            RevWalk revWalk = new RevWalk(repo);
-            RevCommit describedRev = revWalk.parseCommit(repo.resolve(describedTag.getVersion()));
-            TagVersionAndCount mostRecentParentTag = new TagVersionAndCount("", Integer.MAX_VALUE);
-            for (RevCommit parent : describedRev.getParents()) {
-                TagVersionAndCount parentTag = new TagVersionAndCount(parent.name(), -1);
-                TagVersionAndCount resolvedParentTag = resolveLatestTagVersionAndCount(repo, parentTag, recur + 1);
-                if (resolvedParentTag == null)
+        return new TagVersionAndCount(parentTag, -1);
+    }
+
+    /**
+     * @return the first semantic version tag found through the parents of the commit, depth first in the order
+     *         of the parents, or null if there is none
+     */
+    private static String findTagThroughParents(Git git, RevWalk revWalk, RevCommit start)
+            throws IOException, GitAPIException {
+        Repository repo = git.getRepository();
+        // The tag found through the parents of each commit searched from, or NO_TAG
+        Map<ObjectId, String> searched = new HashMap<ObjectId, String>();
+        // What each commit that was a parent describes to
+        Map<ObjectId, TagVersionAndCount> described = new HashMap<ObjectId, TagVersionAndCount>();
+        Deque<Search> searches = new ArrayDeque<Search>();
+        searches.push(new Search(start));
+        while (!searches.isEmpty()) {
+            Search search = searches.peek();
+            if (search.nextParent == search.commit.getParentCount()) {
+                searches.pop();
+                searched.put(search.commit, NO_TAG);
+                continue;
+            }
+            RevCommit parent = search.commit.getParent(search.nextParent++);
+            if (!described.containsKey(parent)) {
+                described.put(parent.copy(), describe(git, parent.name()));
+            }
+            TagVersionAndCount parentTag = described.get(parent);
+            String found;
+            if (parentTag == null) {
+                found = NO_TAG;
+            } else if (isSemanticVersion(parentTag)) {
+                found = parentTag.getVersion();
+            } else {
+                RevCommit taggedCommit = parseTaggedCommit(repo, revWalk, parentTag);
+                found = searched.get(taggedCommit);
+                if (found == null) {
+                    searches.push(new Search(taggedCommit));
                     continue;
-                if (resolvedParentTag.getCount() < mostRecentParentTag.getCount()) {
-                    mostRecentParentTag = resolvedParentTag;
                 }
             }
-            if (mostRecentParentTag.getCount() == Integer.MAX_VALUE) {
-                return null;
+            if (!found.isEmpty()) {
+                // Every search still open took the path that led here, having found nothing on the earlier ones
+                return found;
             }
-            return mostRecentParentTag;
-        } else {
-        	if (recur != 0)
-        		return new TagVersionAndCount(describedTag.getVersion(), -1);
-            return describedTag;
+        }
+        return null;
+    }
+
+    private static TagVersionAndCount describe(Git git, String target) throws IOException, GitAPIException {
+        String described = git.describe().setTarget(target).call();
+        if (described == null)
+            return null;
+        return parseDescribeOutput(described);
+    }
+
+    private static boolean isSemanticVersion(TagVersionAndCount describedTag) {
+        return SemanticVersions.isValid(GitRepos.stripVFromVersionString(describedTag.getVersion()));
+    }
+
+    private static RevCommit parseTaggedCommit(Repository repo, RevWalk revWalk, TagVersionAndCount describedTag)
+            throws IOException {
+        return revWalk.parseCommit(repo.resolve(describedTag.getVersion()));
+    }
+
+    /**
+     * A commit whose parents are being searched for a tag, and which of them to try next.
+     */
+    private static class Search {
+        final RevCommit commit;
+        int nextParent = 0;
+
+        Search(RevCommit commit) {
+            this.commit = commit;
         }
     }
 
@@ -64,30 +153,38 @@ public class DescribedTags {
         return new TagVersionAndCount(describe, 0);
     }
 
-    private static TagVersionAndCount fixCommitCount(TagVersionAndCount resolved, Repository repo) throws RefNotFoundException, GitAPIException {
-        Git git = new Git(repo);
-        ObjectId target, head;
-        LogCommand logCommand;
-        try {
-            target = repo.getRef(resolved.getVersion()).getPeeledObjectId();
-            logCommand = git.log();
-            logCommand.add(target);
-        } catch (IOException e) {
-            throw new SemverGitflowPlugin.VersionApplicationException(e);
-        }
+    /**
+     * Counts the commits since the resolved tag the way git describe does: those reachable from HEAD but not
+     * from the tag. The walk is the one the tag was found with, so commits it already parsed are not parsed
+     * again, and it stops as soon as only commits reachable from the tag are left.
+     */
+    private static TagVersionAndCount fixCommitCount(TagVersionAndCount resolved, Repository repo, RevWalk walk)
+            throws IOException {
+        walk.reset();
+        walk.markStart(walk.parseCommit(repo.resolve(Constants.HEAD)));
+        walk.markUninteresting(parseTaggedCommit(repo, walk, resolved));
         int count = 0;
-        for (RevCommit commit : logCommand.call()) {
-            count ++;
+        while (walk.next() != null) {
+            count++;
         }
+        ResolutionProfile.count(ResolutionProfile.Counter.COMMITS_VISITED, count);
         return new TagVersionAndCount(resolved.getVersion(), count);
     }
 
     public static TagVersionAndCount getLatestTagVersionAndCount(Repository repo)
             throws IOException, RefNotFoundException, GitAPIException {
-    	TagVersionAndCount tac = resolveLatestTagVersionAndCount(repo, new TagVersionAndCount("HEAD", 0), 0);
-    	if (tac.getCount() == -1)
-    		return fixCommitCount(tac, repo);
-    	return tac;
+        Git git = new Git(repo);
+        RevWalk revWalk = new RevWalk(repo);
+        try {
+            TagVersionAndCount tac =
+                    resolveLatestTagVersionAndCount(git, revWalk, new TagVersionAndCount("HEAD", 0), 0);
+            if (tac.getCount() == -1)
+                return fixCommitCount(tac, repo, revWalk);
+            return tac;
+        } finally {
+            revWalk.close();
+            git.close();
+        }
     }
 
 }
@@ -0,0 +1,437 @@
+package com.palantir.semver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.IndexDiffFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.SkipWorkTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Answers whether a working tree is clean the way {@code git status} would, either stopping at the first
+ * difference or sorting every difference into the same categories as JGit's {@code Status}. Files whose size
+ * and modification time match the index are trusted to be unchanged, and only the others have their content
+ * hashed.
+ * <p>
+ * Large indexes are split into directory subtrees of roughly equal size that are compared on a fork-join
+ * pool, with one more task for whatever lies outside of them, such as files at the root and untracked
+ * directories. A check that stops at the first difference stops all of them.
+ */
+class DirtyCheck {
+
+    private static final int HEAD_TREE = 0;
+    private static final int INDEX = 1;
+    private static final int WORKING_TREE = 2;
+
+    private static final int MIN_ENTRIES_TO_SPLIT = 4096;
+    private static final int TASKS_PER_THREAD = 4;
+    private static final int MAX_SPLIT_DEPTH = 4;
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    private final Set<String> added = new TreeSet<String>();
+    private final Set<String> changed = new TreeSet<String>();
+    private final Set<String> removed = new TreeSet<String>();
+    private final Set<String> missing = new TreeSet<String>();
+    private final Set<String> modified = new TreeSet<String>();
+    private final Set<String> untracked = new TreeSet<String>();
+    private final Set<String> conflicting = new TreeSet<String>();
+    private final Set<String> ignoredNotInIndex = new TreeSet<String>();
+    private int filesStated = 0;
+
+    private DirtyCheck() {
+    }
+
+    /**
+     * @param includeUntracked whether untracked files that are not ignored make the working tree dirty; if
+     *                         not, directories that are neither tracked nor in HEAD are not even listed
+     */
+    static boolean isDirty(Repository repo, boolean includeUntracked) throws IOException {
+        return !scan(repo, includeUntracked, true).isClean();
+    }
+
+    /**
+     * @param stopAtFirstDifference whether to stop once the working tree is known to be dirty, in which case
+     *                              the status only holds the differences found until then
+     */
+    static DirtyCheck scan(Repository repo, boolean includeUntracked, boolean stopAtFirstDifference)
+            throws IOException {
+        DirCache dirCache = repo.readDirCache();
+        int taskCount = 1;
+        if (dirCache.getEntryCount() >= MIN_ENTRIES_TO_SPLIT) {
+            taskCount = POOL.getParallelism() * TASKS_PER_THREAD;
+        }
+        return scan(repo, dirCache, includeUntracked, stopAtFirstDifference, taskCount);
+    }
+
+    /**
+     * @param taskCount roughly how many tasks to split the comparison into
+     */
+    static DirtyCheck scan(Repository repo, DirCache dirCache, boolean includeUntracked,
+                               boolean stopAtFirstDifference, int taskCount) throws IOException {
+        ObjectId headTree = repo.resolve(Constants.HEAD + "^{tree}");
+        AtomicBoolean stop = new AtomicBoolean();
+        List<String> subtrees = taskCount > 1 ? splitIntoSubtrees(dirCache, taskCount)
+                : Collections.<String>emptyList();
+        if (subtrees.isEmpty()) {
+            DirtyCheck status = new DirtyCheck();
+            status.compare(repo, dirCache, headTree, TreeFilter.ALL, includeUntracked, stopAtFirstDifference,
+                    stop);
+            ResolutionProfile.count(ResolutionProfile.Counter.FILES_STATED, status.filesStated);
+            return status;
+        }
+
+        // Builds the cached trees of the index before it is shared by the tasks
+        dirCache.getCacheTree(true);
+        List<Callable<DirtyCheck>> tasks = new ArrayList<Callable<DirtyCheck>>();
+        for (String subtree : subtrees) {
+            tasks.add(new Comparison(repo, dirCache, headTree, PathFilter.create(subtree), includeUntracked,
+                    stopAtFirstDifference, stop));
+        }
+        tasks.add(new Comparison(repo, dirCache, headTree, new ExcludedSubtreesFilter(subtrees),
+                includeUntracked, stopAtFirstDifference, stop));
+        DirtyCheck status = new DirtyCheck();
+        for (Future<DirtyCheck> result : POOL.invokeAll(tasks)) {
+            status.addAll(getResult(result));
+        }
+        // The tasks run on the pool's threads, which have no profile to count towards
+        ResolutionProfile.count(ResolutionProfile.Counter.FILES_STATED, status.filesStated);
+        return status;
+    }
+
+    Set<String> getAdded() {
+        return added;
+    }
+
+    Set<String> getChanged() {
+        return changed;
+    }
+
+    Set<String> getRemoved() {
+        return removed;
+    }
+
+    Set<String> getMissing() {
+        return missing;
+    }
+
+    Set<String> getModified() {
+        return modified;
+    }
+
+    Set<String> getUntracked() {
+        return untracked;
+    }
+
+    Set<String> getConflicting() {
+        return conflicting;
+    }
+
+    Set<String> getIgnoredNotInIndex() {
+        return ignoredNotInIndex;
+    }
+
+    int getFilesStated() {
+        return filesStated;
+    }
+
+    boolean isClean() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty() && missing.isEmpty()
+                && modified.isEmpty() && untracked.isEmpty() && conflicting.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "DirtyCheck[added=" + added.size() + ", changed=" + changed.size()
+                + ", removed=" + removed.size() + ", missing=" + missing.size()
+                + ", modified=" + modified.size() + ", untracked=" + untracked.size()
+                + ", conflicting=" + conflicting.size() + "]";
+    }
+
+    /**
+     * Picks directories of the index to compare separately, splitting those that hold more than their share
+     * of its entries into their subdirectories.
+     */
+    private static List<String> splitIntoSubtrees(DirCache dirCache, int taskCount) {
+        Map<String, Integer> sizes = new HashMap<String, Integer>();
+        for (int i = 0; i < dirCache.getEntryCount(); i++) {
+            String path = dirCache.getEntry(i).getPathString();
+            int end = path.indexOf('/');
+            for (int depth = 0; end >= 0 && depth < MAX_SPLIT_DEPTH; depth++) {
+                String directory = path.substring(0, end);
+                Integer size = sizes.get(directory);
+                sizes.put(directory, size == null ? 1 : size + 1);
+                end = path.indexOf('/', end + 1);
+            }
+        }
+        Map<String, List<String>> children = new HashMap<String, List<String>>();
+        for (String directory : sizes.keySet()) {
+            int end = directory.lastIndexOf('/');
+            String parent = end < 0 ? "" : directory.substring(0, end);
+            List<String> siblings = children.get(parent);
+            if (siblings == null) {
+                siblings = new ArrayList<String>();
+                children.put(parent, siblings);
+            }
+            siblings.add(directory);
+        }
+        int share = Math.max(1, dirCache.getEntryCount() / taskCount);
+        List<String> subtrees = new ArrayList<String>();
+        addSubtrees("", sizes, children, share, subtrees);
+        return subtrees;
+    }
+
+    private static void addSubtrees(String directory, Map<String, Integer> sizes,
+                                    Map<String, List<String>> children, int share, List<String> subtrees) {
+        List<String> subdirectories = children.get(directory);
+        if (subdirectories == null) {
+            return;
+        }
+        for (String subdirectory : subdirectories) {
+            if (sizes.get(subdirectory) > share && children.containsKey(subdirectory)) {
+                addSubtrees(subdirectory, sizes, children, share, subtrees);
+            } else {
+                subtrees.add(subdirectory);
+            }
+        }
+    }
+
+    private static DirtyCheck getResult(Future<DirtyCheck> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SemverGitflowPlugin.VersionApplicationException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SemverGitflowPlugin.VersionApplicationException(cause);
+        }
+    }
+
+    private void addAll(DirtyCheck other) {
+        added.addAll(other.added);
+        changed.addAll(other.changed);
+        removed.addAll(other.removed);
+        missing.addAll(other.missing);
+        modified.addAll(other.modified);
+        untracked.addAll(other.untracked);
+        conflicting.addAll(other.conflicting);
+        ignoredNotInIndex.addAll(other.ignoredNotInIndex);
+        filesStated += other.filesStated;
+    }
+
+    private void compare(Repository repo, DirCache dirCache, ObjectId headTree, TreeFilter pathFilter,
+                         boolean includeUntracked, boolean stopAtFirstDifference, AtomicBoolean stop)
+            throws IOException {
+        TreeWalk walk = new TreeWalk(repo);
+        try {
+            walk.addTree(getHeadTree(walk, headTree));
+            walk.addTree(new DirCacheIterator(dirCache));
+            FileTreeIterator workingTree = new FileTreeIterator(repo);
+            walk.addTree(workingTree);
+            workingTree.setDirCacheIterator(walk, INDEX);
+            walk.setRecursive(true);
+            List<TreeFilter> filters = new ArrayList<TreeFilter>();
+            filters.add(pathFilter);
+            // Counts after the path filter, so that each file is counted by the one task that compares it
+            WorkingTreeFileCounter fileCounter = new WorkingTreeFileCounter();
+            filters.add(fileCounter);
+            if (!includeUntracked) {
+                filters.add(new TrackedFilter());
+            }
+            filters.add(new SkipWorkTreeFilter(INDEX));
+            IndexDiffFilter indexDiffFilter = new IndexDiffFilter(INDEX, WORKING_TREE);
+            filters.add(indexDiffFilter);
+            walk.setFilter(AndTreeFilter.create(filters));
+            while (!stop.get() && walk.next()) {
+                addDifferences(walk, includeUntracked);
+                if (stopAtFirstDifference && !isClean()) {
+                    stop.set(true);
+                }
+            }
+            ignoredNotInIndex.addAll(indexDiffFilter.getIgnoredPaths());
+            filesStated += fileCounter.files;
+        } finally {
+            walk.close();
+        }
+    }
+
+    private static AbstractTreeIterator getHeadTree(TreeWalk walk, ObjectId headTree) throws IOException {
+        if (headTree == null) {
+            return new EmptyTreeIterator();
+        }
+        CanonicalTreeParser parser = new CanonicalTreeParser();
+        parser.reset(walk.getObjectReader(), headTree);
+        return parser;
+    }
+
+    private void addDifferences(TreeWalk walk, boolean includeUntracked) throws IOException {
+        AbstractTreeIterator headTree = walk.getTree(HEAD_TREE, AbstractTreeIterator.class);
+        DirCacheIterator index = walk.getTree(INDEX, DirCacheIterator.class);
+        WorkingTreeIterator workingTree = walk.getTree(WORKING_TREE, WorkingTreeIterator.class);
+        String path = walk.getPathString();
+        if (index != null && index.getDirCacheEntry().getStage() != 0) {
+            conflicting.add(path);
+            return;
+        }
+        if (headTree != null) {
+            if (index == null) {
+                removed.add(path);
+                if (workingTree != null && includeUntracked) {
+                    untracked.add(path);
+                }
+            } else if (headTree.getEntryRawMode() != index.getEntryRawMode() || !headTree.idEqual(index)) {
+                changed.add(path);
+            }
+        } else if (index != null) {
+            added.add(path);
+        } else if (includeUntracked && !workingTree.isEntryIgnored()) {
+            untracked.add(path);
+        }
+        if (index != null) {
+            if (workingTree == null) {
+                missing.add(path);
+            } else if (workingTree.isModified(index.getDirCacheEntry(), true, walk.getObjectReader())) {
+                modified.add(path);
+            }
+        }
+    }
+
+    private static class Comparison implements Callable<DirtyCheck> {
+        private final Repository repo;
+        private final DirCache dirCache;
+        private final ObjectId headTree;
+        private final TreeFilter pathFilter;
+        private final boolean includeUntracked;
+        private final boolean stopAtFirstDifference;
+        private final AtomicBoolean stop;
+
+        Comparison(Repository repo, DirCache dirCache, ObjectId headTree, TreeFilter pathFilter,
+                   boolean includeUntracked, boolean stopAtFirstDifference, AtomicBoolean stop) {
+            this.repo = repo;
+            this.dirCache = dirCache;
+            this.headTree = headTree;
+            this.pathFilter = pathFilter;
+            this.includeUntracked = includeUntracked;
+            this.stopAtFirstDifference = stopAtFirstDifference;
+            this.stop = stop;
+        }
+
+        @Override
+        public DirtyCheck call() throws IOException {
+            DirtyCheck status = new DirtyCheck();
+            status.compare(repo, dirCache, headTree, pathFilter, includeUntracked, stopAtFirstDifference, stop);
+            return status;
+        }
+    }
+
+    /**
+     * Includes every path, counting the files the walk found in the working tree, all of which were stat'ed
+     * when their directory was listed.
+     */
+    private static class WorkingTreeFileCounter extends TreeFilter {
+        int files = 0;
+
+        @Override
+        public boolean include(TreeWalk walk)
+                throws MissingObjectException, IncorrectObjectTypeException, IOException {
+            if (!walk.isSubtree() && walk.getRawMode(WORKING_TREE) != 0) {
+                files++;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean shouldBeRecursive() {
+            return false;
+        }
+
+        @Override
+        public TreeFilter clone() {
+            return this;
+        }
+    }
+
+    /**
+     * Only includes paths that are in HEAD or in the index, which keeps the walk out of untracked directories.
+     */
+    private static class TrackedFilter extends TreeFilter {
+        @Override
+        public boolean include(TreeWalk walk)
+                throws MissingObjectException, IncorrectObjectTypeException, IOException {
+            return walk.getRawMode(HEAD_TREE) != 0 || walk.getRawMode(INDEX) != 0;
+        }
+
+        @Override
+        public boolean shouldBeRecursive() {
+            return false;
+        }
+
+        @Override
+        public TreeFilter clone() {
+            return this;
+        }
+    }
+
+    /**
+     * Leaves out the subtrees that are compared by other tasks.
+     */
+    private static class ExcludedSubtreesFilter extends TreeFilter {
+        private final Set<String> subtrees;
+
+        ExcludedSubtreesFilter(Collection<String> subtrees) {
+            this.subtrees = new HashSet<String>(subtrees);
+        }
+
+        @Override
+        public boolean include(TreeWalk walk)
+                throws MissingObjectException, IncorrectObjectTypeException, IOException {
+            return !walk.isSubtree() || !subtrees.contains(walk.getPathString());
+        }
+
+        @Override
+        public boolean shouldBeRecursive() {
+            return false;
+        }
+
+        @Override
+        public TreeFilter clone() {
+            return this;
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.palantir.semver;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emits version resolutions and their phases as Flight Recorder events. The events are defined at runtime
+ * through the {@code jdk.jfr} API, which is looked up reflectively so that the plugin still builds and runs on
+ * JVMs that do not have it; there, and whenever emitting fails, nothing is emitted.
+ * <p>
+ * A phase event has the repository and the phase, and lasts as long as the phase. A resolution event lasts for
+ * the whole resolution and carries its counters, in the order of {@link ResolutionProfile.Counter}.
+ */
+final class FlightRecorderEvents {
+
+    static final String PHASE_EVENT = "com.palantir.semver.ResolutionPhase";
+    static final String RESOLUTION_EVENT = "com.palantir.semver.VersionResolution";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FlightRecorderEvents.class);
+
+    private static final Object PHASE_FACTORY;
+    private static final Object RESOLUTION_FACTORY;
+    private static final Method NEW_EVENT;
+    private static final Method SET;
+    private static final Method BEGIN;
+    private static final Method END;
+    private static final Method COMMIT;
+
+    private static volatile boolean failed = false;
+
+    static {
+        Object phaseFactory = null;
+        Object resolutionFactory = null;
+        Method newEvent = null;
+        Method set = null;
+        Method begin = null;
+        Method end = null;
+        Method commit = null;
+        try {
+            Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            Constructor<?> field = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class);
+            Method create = eventFactory.getMethod("create", List.class, List.class);
+
+            List<Object> phaseFields = new ArrayList<Object>();
+            phaseFields.add(field.newInstance(String.class, "repository"));
+            phaseFields.add(field.newInstance(String.class, "phase"));
+            phaseFactory = create.invoke(null,
+                    annotations(PHASE_EVENT, "Version Resolution Phase"), phaseFields);
+
+            List<Object> resolutionFields = new ArrayList<Object>();
+            resolutionFields.add(field.newInstance(String.class, "repository"));
+            for (ResolutionProfile.Counter counter : ResolutionProfile.Counter.values()) {
+                resolutionFields.add(field.newInstance(long.class, counter.getKey()));
+            }
+            resolutionFactory = create.invoke(null,
+                    annotations(RESOLUTION_EVENT, "Version Resolution"), resolutionFields);
+
+            newEvent = eventFactory.getMethod("newEvent");
+            set = event.getMethod("set", int.class, Object.class);
+            begin = event.getMethod("begin");
+            end = event.getMethod("end");
+            commit = event.getMethod("commit");
+        } catch (ClassNotFoundException e) {
+            // No Flight Recorder API on this JVM
+            phaseFactory = null;
+            resolutionFactory = null;
+        } catch (Exception e) {
+            LOGGER.debug("Could not define Flight Recorder events for version resolution", e);
+            phaseFactory = null;
+            resolutionFactory = null;
+        }
+        PHASE_FACTORY = phaseFactory;
+        RESOLUTION_FACTORY = resolutionFactory;
+        NEW_EVENT = newEvent;
+        SET = set;
+        BEGIN = begin;
+        END = end;
+        COMMIT = commit;
+    }
+
+    private FlightRecorderEvents() {
+        // prevents instantiation
+    }
+
+    /**
+     * @return whether events are emitted
+     */
+    static boolean isAvailable() {
+        return PHASE_FACTORY != null && !failed;
+    }
+
+    /**
+     * @return the begun event for the phase, or null if events are not emitted
+     */
+    static Object beginPhase(String repository, String phase) {
+        return begin(PHASE_FACTORY, repository, phase);
+    }
+
+    /**
+     * @return the begun event for a resolution, or null if events are not emitted
+     */
+    static Object beginResolution(String repository) {
+        return begin(RESOLUTION_FACTORY, repository);
+    }
+
+    static void commitPhase(Object event) {
+        commit(event);
+    }
+
+    /**
+     * @param counters the value of each counter, in the order of {@link ResolutionProfile.Counter}
+     */
+    static void commitResolution(Object event, long[] counters) {
+        if (event == null || failed) {
+            return;
+        }
+        try {
+            // The repository comes first
+            for (int i = 0; i < counters.length; i++) {
+                SET.invoke(event, i + 1, counters[i]);
+            }
+        } catch (Exception e) {
+            disable(e);
+            return;
+        }
+        commit(event);
+    }
+
+    private static void commit(Object event) {
+        if (event == null || failed) {
+            return;
+        }
+        try {
+            END.invoke(event);
+            COMMIT.invoke(event);
+        } catch (Exception e) {
+            disable(e);
+        }
+    }
+
+    private static Object begin(Object factory, Object... values) {
+        if (factory == null || failed) {
+            return null;
+        }
+        try {
+            Object event = NEW_EVENT.invoke(factory);
+            for (int i = 0; i < values.length; i++) {
+                SET.invoke(event, i, values[i]);
+            }
+            BEGIN.invoke(event);
+            return event;
+        } catch (Exception e) {
+            disable(e);
+            return null;
+        }
+    }
+
+    private static List<Object> annotations(String name, String label) throws Exception {
+        Constructor<?> annotation =
+                Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+        return Arrays.asList(
+                annotation.newInstance(Class.forName("jdk.jfr.Name"), name),
+                annotation.newInstance(Class.forName("jdk.jfr.Label"), label),
+                annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] {"Gradle", "gitsemver"}));
+    }
+
+    private static void disable(Exception e) {
+        if (!failed) {
+            failed = true;
+            LOGGER.debug("Stopped emitting Flight Recorder events for version resolution", e);
+        }
+    }
+
+}
@@ -1,7 +1,7 @@
 package com.palantir.semver;
 
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.Status;
+import java.io.IOException;
+
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.errors.NoWorkTreeException;
 import org.eclipse.jgit.lib.ObjectId;
@@ -17,9 +17,21 @@ public class GitRepos {
 
         public static boolean isDirty(Repository repo) throws NoWorkTreeException,
                 GitAPIException {
-            Git git = new Git(repo);
-        Status status = git.status().call();
-        return !status.isClean();
+        return isDirty(repo, true);
+    }
+
+    /**
+     * Checks whether the working tree differs from HEAD, stopping at the first difference rather than
+     * computing a full status.
+     *
+     * @param includeUntracked whether untracked files that are not ignored count as a difference
+     */
+    public static boolean isDirty(Repository repo, boolean includeUntracked) throws NoWorkTreeException {
+        try {
+            return DirtyCheck.isDirty(repo, includeUntracked);
+        } catch (IOException e) {
+            throw new SemverGitflowPlugin.VersionApplicationException(e);
+        }
     }
 
     public static String stripVFromVersionString(String lastTag) {
@@ -31,15 +43,13 @@ public class GitRepos {
     }
 
     public static void printJgitStatus(Repository repo){
-        Git git;
-        Status status;
+        DirtyCheck status;
         try {
-            git = new Git(repo);
-            status = git.status().call();
+            status = DirtyCheck.scan(repo, true, false);
         } catch (NoWorkTreeException e) {
             throw new GradleException("Git exception - No Work Tree", e);
-        } catch (GitAPIException e) {
-            throw new GradleException("Git API Exception", e);
+        } catch (IOException e) {
+            throw new GradleException("Git exception", e);
         }
         System.out.println("--------------------------------");
         System.out.println("GIT STATUS: " + (status.isClean() ? "Clean" : "Dirty"));
@@ -23,6 +23,7 @@ public class PrefixSemanticVersion implements SemanticVersion {
     private final String releaseCandidate;
     // This can be null
     private final String metadata;
+    private final SemanticVersionComparator.Key comparisonKey;
 
     /**
      * This constructor is package private for the purposes of testing
@@ -44,14 +45,58 @@ public class PrefixSemanticVersion implements SemanticVersion {
         this.patch = checkNonNegativeVersion(patch);
         this.releaseCandidate = releaseCandidate;
         this.metadata = metadata;
+        this.comparisonKey = new SemanticVersionComparator.Key(this.major, this.minor, this.patch, releaseCandidate);
     }
 
     public static SemanticVersion createFromString(String prefix, String version) {
-        String prefixPatternString = "^" + prefix + "-?" + SEMANTIC_VERSION_REGEX + "$";
-        Pattern prefixPattern = Pattern.compile(prefixPatternString);
-        Matcher matcher = prefixPattern.matcher(version);
-        checkArgument(matcher.matches(), "Version string " + version
+        SemanticVersion semanticVersion = tryParse(prefix, version);
+        checkArgument(semanticVersion != null, "Version string " + version
                 + " is not a semantic version");
+        return semanticVersion;
+    }
+
+    /**
+     * @return the version, or null if the string is not the prefix followed by a semantic version
+     */
+    static SemanticVersion tryParse(String prefix, String version) {
+        if (!VersionPrefixes.isLiteral(prefix)) {
+            return tryParseWithPattern(prefix, version);
+        }
+        int start = VersionPrefixes.endOfPrefix(version, prefix);
+        if (start < 0) {
+            return null;
+        }
+        if (start < version.length() && version.charAt(start) == 'v') {
+            start++;
+        }
+        int patchEnd = SemanticVersionSyntax.endOfCore(version, start);
+        if (patchEnd < 0) {
+            return null;
+        }
+        int releaseCandidateEnd = SemanticVersionSyntax.endOfSuffix(version, patchEnd, '-');
+        if (releaseCandidateEnd < 0) {
+            return null;
+        }
+        int buildEnd = SemanticVersionSyntax.endOfSuffix(version, releaseCandidateEnd, '+');
+        if (buildEnd != version.length()) {
+            return null;
+        }
+        int minorStart = version.indexOf('.', start) + 1;
+        int patchStart = version.indexOf('.', minorStart) + 1;
+        return new PrefixSemanticVersion(
+                version,
+                SemanticVersionSyntax.parseNumber(version, start, minorStart - 1),
+                SemanticVersionSyntax.parseNumber(version, minorStart, patchStart - 1),
+                SemanticVersionSyntax.parseNumber(version, patchStart, patchEnd),
+                releaseCandidateEnd == patchEnd ? null : version.substring(patchEnd + 1, releaseCandidateEnd),
+                buildEnd == releaseCandidateEnd ? null : version.substring(releaseCandidateEnd + 1, buildEnd));
+    }
+
+    private static SemanticVersion tryParseWithPattern(String prefix, String version) {
+        Matcher matcher = getPattern(prefix).matcher(version);
+        if (!matcher.matches()) {
+            return null;
+        }
         int major = Integer.parseInt(matcher.group(1));
         int minor = Integer.parseInt(matcher.group(3));
         int patch = Integer.parseInt(matcher.group(5));
@@ -66,6 +111,10 @@ public class PrefixSemanticVersion implements SemanticVersion {
                 build);
     }
 
+    private static Pattern getPattern(String prefix) {
+        return VersionPrefixes.compile("^" + prefix + "-?" + SEMANTIC_VERSION_REGEX + "$");
+    }
+
     private static int checkNonNegativeVersion(int version) {
         checkArgument(
                 version >= 0,
@@ -74,9 +123,17 @@ public class PrefixSemanticVersion implements SemanticVersion {
     }
 
     public static boolean isValid(String prefix, String version) {
-        String prefixPatternString = "^" + prefix + "-?" + SEMANTIC_VERSION_REGEX + "$";
-        Pattern prefixPattern = Pattern.compile(prefixPatternString);
-        return prefixPattern.matcher(version).matches();
+        if (!VersionPrefixes.isLiteral(prefix)) {
+            return getPattern(prefix).matcher(version).matches();
+        }
+        int start = VersionPrefixes.endOfPrefix(version, prefix);
+        if (start < 0) {
+            return false;
+        }
+        if (start < version.length() && version.charAt(start) == 'v') {
+            start++;
+        }
+        return SemanticVersionSyntax.isValid(version, start);
     }
 
     @Override
@@ -109,6 +166,10 @@ public class PrefixSemanticVersion implements SemanticVersion {
         return metadata;
     }
 
+    SemanticVersionComparator.Key getComparisonKey() {
+        return comparisonKey;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -26,8 +26,12 @@ public class PrintGitStatusTask extends DefaultTask {
     public void printStatus() throws NoWorkTreeException, IOException,
             GitAPIException {
         String repoLocation = project.getProjectDir().getAbsolutePath() + "/.git";
-        Repository repo = RepoSemanticVersions.getRepo(repoLocation);
-        GitRepos.printJgitStatus(repo);
+        Repository repo = RepositoryPool.acquire(repoLocation);
+        try {
+            GitRepos.printJgitStatus(repo);
+        } finally {
+            RepositoryPool.release(repo);
+        }
     }
 
 }
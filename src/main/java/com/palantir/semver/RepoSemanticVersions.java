@@ -14,6 +14,9 @@ public class RepoSemanticVersions {
         // prevents instantiation
     }
 
+    /**
+     * @return a newly opened repository that contains the given location, which the caller has to close
+     */
     public static Repository getRepo(String repoLocation)
            throws NoWorkTreeException, IOException, GitAPIException {
         Repository repo;
@@ -42,7 +45,11 @@ public class RepoSemanticVersions {
             versionFactory = new TagBasedVersionFactory();
         else
             versionFactory = new TagBasedVersionFactory(prefix);
-        return versionFactory.createVersion(repo, buildNumber);
+        try {
+            return versionFactory.createVersion(repo, buildNumber);
+        } finally {
+            repo.close();
+        }
     }
 
     public static SemverVersion getRepoTopoVersion(String repoLocation, Integer buildNumber)
@@ -60,6 +67,10 @@ public class RepoSemanticVersions {
         } else {
             versionFactory = new TagBasedVersionFactory(prefix);
         }
-        return versionFactory.createTopoVersion(repo, buildNumber);
+        try {
+            return versionFactory.createTopoVersion(repo, buildNumber);
+        } finally {
+            repo.close();
+        }
     }
 }
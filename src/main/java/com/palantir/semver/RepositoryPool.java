@@ -0,0 +1,124 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.gradle.BuildAdapter;
+import org.gradle.BuildResult;
+import org.gradle.api.invocation.Gradle;
+
+/**
+ * Shares one open repository per git directory between the projects of a build, so that its pack file
+ * handles and cached windows are opened once and released when the build finishes rather than left for the
+ * daemon to collect.
+ * <p>
+ * Repositories are reference counted: the pool holds one reference to each until {@link #closeAll()} drops
+ * it, and {@link #acquire(String)} takes another that the caller gives back with {@link #release}. A
+ * repository is only closed once both are gone, so a project still reading one when the build finishes can
+ * do so safely.
+ */
+class RepositoryPool {
+
+    private static final Map<File, Repository> REPOSITORIES = new HashMap<File, Repository>();
+    private static final Set<Gradle> REGISTERED_BUILDS =
+            Collections.newSetFromMap(new WeakHashMap<Gradle, Boolean>());
+    private static final Map<Gradle, List<DeferredSemverVersion>> BACKGROUND_RESOLUTIONS =
+            new WeakHashMap<Gradle, List<DeferredSemverVersion>>();
+
+    private RepositoryPool() {
+        // prevents instantiation
+    }
+
+    /**
+     * Closes the repositories of the pool when the given build finishes, once its background resolutions are
+     * settled.
+     */
+    static void closeAllWhenFinished(final Gradle gradle) {
+        synchronized (REGISTERED_BUILDS) {
+            if (!REGISTERED_BUILDS.add(gradle)) {
+                return;
+            }
+        }
+        gradle.addBuildListener(new BuildAdapter() {
+            @Override
+            public void buildFinished(BuildResult result) {
+                List<DeferredSemverVersion> versions;
+                synchronized (BACKGROUND_RESOLUTIONS) {
+                    versions = BACKGROUND_RESOLUTIONS.remove(gradle);
+                }
+                if (versions != null) {
+                    for (DeferredSemverVersion version : versions) {
+                        version.cancelOrAwait();
+                    }
+                }
+                closeAll();
+            }
+        });
+    }
+
+    /**
+     * Makes the given build, when it finishes, cancel the resolution of the version if it has not started yet
+     * and wait for it if it has, so that it cannot acquire a repository after the pool was closed.
+     */
+    static void settleWhenFinished(Gradle gradle, DeferredSemverVersion version) {
+        synchronized (BACKGROUND_RESOLUTIONS) {
+            List<DeferredSemverVersion> versions = BACKGROUND_RESOLUTIONS.get(gradle);
+            if (versions == null) {
+                versions = new ArrayList<DeferredSemverVersion>();
+                BACKGROUND_RESOLUTIONS.put(gradle, versions);
+            }
+            versions.add(version);
+        }
+    }
+
+    /**
+     * @return the pooled repository that contains the given location, which must be given back with
+     *         {@link #release(Repository)}
+     */
+    static Repository acquire(String repoLocation) throws IOException {
+        FileRepositoryBuilder builder = new FileRepositoryBuilder().readEnvironment()
+                .findGitDir(new File(repoLocation));
+        if (builder.getGitDir() == null) {
+            throw new SemverGitflowPlugin.VersionApplicationException(
+                    "Project is not in a Git repository. Cannot use semver versioning in a non repository.");
+        }
+        File gitDir = builder.getGitDir().getCanonicalFile();
+        synchronized (REPOSITORIES) {
+            Repository repo = REPOSITORIES.get(gitDir);
+            if (repo == null) {
+                repo = builder.build();
+                REPOSITORIES.put(gitDir, repo);
+            }
+            repo.incrementOpen();
+            return repo;
+        }
+    }
+
+    static void release(Repository repo) {
+        repo.close();
+    }
+
+    /**
+     * Drops the pool's reference to every repository, closing those that are not in use.
+     */
+    static void closeAll() {
+        List<Repository> repositories;
+        synchronized (REPOSITORIES) {
+            repositories = new ArrayList<Repository>(REPOSITORIES.values());
+            REPOSITORIES.clear();
+        }
+        for (Repository repo : repositories) {
+            repo.close();
+        }
+    }
+
+}
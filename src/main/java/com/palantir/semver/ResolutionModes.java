@@ -0,0 +1,327 @@
+package com.palantir.semver;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Runs the ways the plugin can resolve a version side by side and measures what each costs, so that the
+ * cheapest one that still gives a repository's version can be picked for it.
+ * <p>
+ * Each mode runs once before it is measured, so that every measured run finds the tag index written and the
+ * classes loaded. The modes are then measured a few times each, taking turns, and the run with the median time
+ * stands for the mode. Memory is measured as the bytes the resolving thread allocated, where the JVM can tell.
+ * <p>
+ * Times that are within noise of each other do not decide between two modes; the one that visits fewer commits
+ * is then taken as the cheaper, since that is what grows with the history.
+ */
+final class ResolutionModes {
+
+    enum Mode {
+        DEFAULT("default", "semverVersion()", false, true),
+        TOPO("topo", "semverVersionTopo()", false, true),
+        // The walk is JGit's own, so the commits and tags it looks at are not counted
+        DESCRIBE("describe", "DescribedTags.getLatestTagVersionAndCount()", false, false),
+        HIGHEST("highest", "semverVersionHighest()", false, true),
+        PREFIX("prefix", "semverVersionPrefix(prefix)", true, true),
+        TOPO_PREFIX("topo prefix", "semverVersionTopoPrefix(prefix)", true, true),
+        HIGHEST_PREFIX("highest prefix", "semverVersionHighestPrefix(prefix)", true, true);
+
+        private final String name;
+        private final String method;
+        private final boolean prefixed;
+        private final boolean counted;
+
+        private Mode(String name, String method, boolean prefixed, boolean counted) {
+            this.name = name;
+            this.method = method;
+            this.prefixed = prefixed;
+            this.counted = counted;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return what a build script calls to resolve its version this way
+         */
+        String getMethod() {
+            return method;
+        }
+
+        TagVersionAndCount resolve(Repository repo, String prefix) throws IOException, GitAPIException {
+            switch (this) {
+                case DEFAULT:
+                    return Tags.getLatestTagVersionAndCount(repo, null);
+                case TOPO:
+                    return Tags.getTopoTagVersionAndCount(repo, null);
+                case HIGHEST:
+                    return Tags.getHighestReachableTagVersionAndCount(repo, null);
+                case DESCRIBE:
+                    return DescribedTags.getLatestTagVersionAndCount(repo);
+                case PREFIX:
+                    return Tags.getLatestTagVersionAndCount(repo, prefix);
+                case TOPO_PREFIX:
+                    return Tags.getTopoTagVersionAndCount(repo, prefix);
+                case HIGHEST_PREFIX:
+                    return Tags.getHighestReachableTagVersionAndCount(repo, prefix);
+                default:
+                    throw new IllegalStateException("Unknown mode " + this);
+            }
+        }
+    }
+
+    static final class Measurement {
+
+        private final Mode mode;
+        // Null if the mode failed
+        private final TagVersionAndCount answer;
+        private final String failure;
+        private final long nanos;
+        private final long commitsVisited;
+        private final long tagsConsidered;
+        // Negative if the JVM does not tell
+        private final long allocatedBytes;
+
+        Measurement(Mode mode, TagVersionAndCount answer, String failure, long nanos, long commitsVisited,
+                    long tagsConsidered, long allocatedBytes) {
+            this.mode = mode;
+            this.answer = answer;
+            this.failure = failure;
+            this.nanos = nanos;
+            this.commitsVisited = commitsVisited;
+            this.tagsConsidered = tagsConsidered;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        Mode getMode() {
+            return mode;
+        }
+
+        TagVersionAndCount getAnswer() {
+            return answer;
+        }
+
+        long getNanos() {
+            return nanos;
+        }
+
+        long getCommitsVisited() {
+            return commitsVisited;
+        }
+
+        long getTagsConsidered() {
+            return tagsConsidered;
+        }
+
+        long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * @return whether both modes resolved the same tag, however they spell it, and the same count
+         */
+        boolean agreesWith(Measurement other) {
+            return answer != null && other.answer != null
+                    && GitRepos.stripVFromVersionString(answer.getVersion())
+                            .equals(GitRepos.stripVFromVersionString(other.answer.getVersion()))
+                    && answer.getCount() == other.answer.getCount();
+        }
+    }
+
+    private static final int MEASURED_RUNS = 5;
+    // Differences in time below both of these are taken as noise
+    private static final long NOISE_NANOS = 1000000;
+    private static final int NOISE_PERCENT = 10;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final Method ALLOCATED_BYTES = getAllocatedBytesMethod();
+
+    private ResolutionModes() {
+        // prevents instantiation
+    }
+
+    /**
+     * Measures every mode without a prefix, and with the prefix if one is given. Fails if called while a
+     * version is being resolved on the same thread, whose profile would swallow the counts.
+     */
+    static List<Measurement> measure(Repository repo, String prefix) {
+        List<Mode> modes = new ArrayList<Mode>();
+        for (Mode mode : Mode.values()) {
+            if (!mode.prefixed || prefix != null) {
+                modes.add(mode);
+            }
+        }
+        List<List<Measurement>> runs = new ArrayList<List<Measurement>>();
+        for (Mode mode : modes) {
+            measure(repo, prefix, mode);
+            runs.add(new ArrayList<Measurement>());
+        }
+        for (int run = 0; run < MEASURED_RUNS; run++) {
+            for (int i = 0; i < modes.size(); i++) {
+                runs.get(i).add(measure(repo, prefix, modes.get(i)));
+            }
+        }
+        List<Measurement> measurements = new ArrayList<Measurement>();
+        for (List<Measurement> modeRuns : runs) {
+            measurements.add(getMedian(modeRuns));
+        }
+        return measurements;
+    }
+
+    /**
+     * @return the cheapest of the measurements that gives the same answer as the reference mode, or null if
+     *         the reference mode was not measured or failed
+     */
+    static Measurement recommend(List<Measurement> measurements, Mode reference) {
+        Measurement referenceMeasurement = null;
+        for (Measurement measurement : measurements) {
+            if (measurement.mode == reference) {
+                referenceMeasurement = measurement;
+            }
+        }
+        if (referenceMeasurement == null || referenceMeasurement.answer == null) {
+            return null;
+        }
+        Measurement cheapest = referenceMeasurement;
+        for (Measurement measurement : measurements) {
+            if (measurement.mode.prefixed == reference.prefixed && measurement.agreesWith(referenceMeasurement)
+                    && isCheaper(measurement, cheapest)) {
+                cheapest = measurement;
+            }
+        }
+        return cheapest;
+    }
+
+    /**
+     * @return whether the first measurement is clearly faster than the second, or, if their times are within
+     *         noise of each other, visits fewer commits
+     */
+    private static boolean isCheaper(Measurement measurement, Measurement other) {
+        long noise = Math.max(NOISE_NANOS, Math.min(measurement.nanos, other.nanos) * NOISE_PERCENT / 100);
+        if (Math.abs(measurement.nanos - other.nanos) > noise) {
+            return measurement.nanos < other.nanos;
+        }
+        return measurement.mode.counted && other.mode.counted && measurement.commitsVisited < other.commitsVisited;
+    }
+
+    /**
+     * @return a table of the measurements, followed by the mode to use for each kind of version measured
+     */
+    static String format(List<Measurement> measurements) {
+        StringBuilder table = new StringBuilder();
+        String row = "%-12s %10s %10s %8s %12s  %s%n";
+        table.append(String.format(Locale.ROOT, row, "Mode", "Time (ms)", "Commits", "Tags", "Allocated", "Answer"));
+        for (Measurement measurement : measurements) {
+            boolean counted = measurement.mode.counted;
+            table.append(String.format(Locale.ROOT, row,
+                    measurement.mode.name,
+                    String.format(Locale.ROOT, "%.1f", measurement.nanos / 1e6),
+                    counted ? String.valueOf(measurement.commitsVisited) : "n/a",
+                    counted ? String.valueOf(measurement.tagsConsidered) : "n/a",
+                    measurement.allocatedBytes < 0 ? "n/a" : (measurement.allocatedBytes / 1024) + " KB",
+                    measurement.answer == null ? "failed: " + measurement.failure
+                            : measurement.answer.getVersion() + ", " + measurement.answer.getCount()
+                                    + " commits since"));
+        }
+        appendRecommendation(table, measurements, Mode.DEFAULT);
+        appendRecommendation(table, measurements, Mode.PREFIX);
+        return table.toString();
+    }
+
+    private static void appendRecommendation(StringBuilder table, List<Measurement> measurements, Mode reference) {
+        Measurement cheapest = recommend(measurements, reference);
+        if (cheapest != null) {
+            table.append(String.format(Locale.ROOT, "Cheapest mode that gives the %s version: %s, using %s%n",
+                    reference.name, cheapest.mode.name, cheapest.mode.method));
+        }
+    }
+
+    private static Measurement measure(Repository repo, String prefix, Mode mode) {
+        long allocatedBefore = getAllocatedBytes();
+        ResolutionProfile profile = ResolutionProfile.start(String.valueOf(repo.getDirectory()),
+                "mode " + mode.name, null, null);
+        if (profile == null) {
+            throw new IllegalStateException("Cannot measure the resolution modes while a version is resolved");
+        }
+        long start = System.nanoTime();
+        TagVersionAndCount answer = null;
+        String failure = null;
+        try {
+            answer = mode.resolve(repo, prefix);
+        } catch (IOException e) {
+            failure = describe(e);
+        } catch (GitAPIException e) {
+            failure = describe(e);
+        } catch (RuntimeException e) {
+            failure = describe(e);
+        } finally {
+            ResolutionProfile.finish(profile);
+        }
+        long nanos = System.nanoTime() - start;
+        long allocatedAfter = getAllocatedBytes();
+        if (answer == null && failure == null) {
+            failure = "no tag found";
+        }
+        return new Measurement(mode, answer, failure, nanos,
+                profile.getCount(ResolutionProfile.Counter.COMMITS_VISITED),
+                profile.getCount(ResolutionProfile.Counter.TAGS_CONSIDERED),
+                allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore);
+    }
+
+    private static Measurement getMedian(List<Measurement> runs) {
+        List<Measurement> sorted = new ArrayList<Measurement>(runs);
+        Collections.sort(sorted, new Comparator<Measurement>() {
+            @Override
+            public int compare(Measurement first, Measurement second) {
+                return Long.compare(first.nanos, second.nanos);
+            }
+        });
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private static String describe(Exception e) {
+        return e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+    }
+
+    /**
+     * @return the bytes the current thread has allocated so far, or -1 if the JVM does not tell
+     */
+    private static long getAllocatedBytes() {
+        if (ALLOCATED_BYTES == null) {
+            return -1;
+        }
+        try {
+            return (Long) ALLOCATED_BYTES.invoke(THREADS, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Allocation is counted by an extension of HotSpot's thread bean, so it is looked up rather than linked.
+     */
+    private static Method getAllocatedBytesMethod() {
+        try {
+            Class<?> extension = Class.forName("com.sun.management.ThreadMXBean");
+            if (!extension.isInstance(THREADS)) {
+                return null;
+            }
+            Method method = extension.getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) method.invoke(THREADS, Thread.currentThread().getId()) < 0 ? null : method;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+}
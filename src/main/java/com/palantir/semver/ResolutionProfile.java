@@ -0,0 +1,345 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Times the phases of resolving a version and counts the work done in them, to tell where a slow resolution
+ * spends its time. A profile belongs to the thread that resolves the version: the code that does the work reports
+ * to the profile of the current thread, if there is one, so it needs no profile passed to it.
+ * <p>
+ * When the resolution finishes, the profile is logged at info level, emitted as Flight Recorder events when the
+ * JVM supports them, and appended to a report file if one was asked for. The report has one JSON object per
+ * line, one line for each resolution of the build.
+ */
+final class ResolutionProfile {
+
+    enum Phase {
+        OPEN("open"), READ_REFS("readRefs"), PEEL("peel"), WALK("walk"), COUNT("count"), STATUS("status");
+
+        private final String key;
+
+        private Phase(String key) {
+            this.key = key;
+        }
+
+        String getKey() {
+            return key;
+        }
+    }
+
+    enum Counter {
+        REFS_READ("refsRead"), TAGS_PEELED("tagsPeeled"), TAGS_CONSIDERED("tagsConsidered"),
+        COMMITS_VISITED("commitsVisited"), FILES_STATED("filesStated"), BYTES_INFLATED("bytesInflated");
+
+        private final String key;
+
+        private Counter(String key) {
+            this.key = key;
+        }
+
+        String getKey() {
+            return key;
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResolutionProfile.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final ThreadLocal<ResolutionProfile> CURRENT = new ThreadLocal<ResolutionProfile>();
+    private static final Timer NOT_TIMED = new Timer(null, null);
+
+    private static WeakReference<Object> reportsBuild = new WeakReference<Object>(null);
+    private static Set<File> reportsStarted = new HashSet<File>();
+
+    private final String repository;
+    private final String request;
+    private final File report;
+    private final Object build;
+    private final long start = System.nanoTime();
+    private final Object event;
+    // Phases only run on the profile's own thread, but counters can be added from any thread
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+    private long totalNanos = -1;
+
+    private ResolutionProfile(String repository, String request, File report, Object build) {
+        this.repository = repository;
+        this.request = request;
+        this.report = report;
+        this.build = build;
+        this.event = FlightRecorderEvents.beginResolution(repository);
+    }
+
+    /**
+     * Starts profiling a resolution on the current thread, unless one is already being profiled there, in which
+     * case the work is counted towards that one.
+     *
+     * @param request describes what is resolved, such as the prefix and mode
+     * @param report the file to append the profile to, or null for none
+     * @param build identifies the build, so that the report is started over by the first resolution of each
+     * @return the profile, or null if an enclosing resolution is already being profiled
+     */
+    static ResolutionProfile start(String repository, String request, File report, Object build) {
+        if (CURRENT.get() != null) {
+            return null;
+        }
+        ResolutionProfile profile = new ResolutionProfile(repository, request, report, build);
+        CURRENT.set(profile);
+        return profile;
+    }
+
+    /**
+     * @return the profile of the current thread, or null if it is not resolving a version
+     */
+    static ResolutionProfile current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Starts timing a phase of the current thread's resolution. Time spent in the phase adds up over all the
+     * times it is timed.
+     *
+     * @return the timer to stop when the phase ends
+     */
+    static Timer time(Phase phase) {
+        ResolutionProfile profile = CURRENT.get();
+        if (profile == null) {
+            return NOT_TIMED;
+        }
+        return new Timer(profile, phase);
+    }
+
+    /**
+     * Adds to a counter of the current thread's resolution, if there is one.
+     */
+    static void count(Counter counter, long amount) {
+        ResolutionProfile profile = CURRENT.get();
+        if (profile != null) {
+            profile.add(counter, amount);
+        }
+    }
+
+    /**
+     * @return a reader that counts the bytes of the objects it reads towards the current thread's resolution,
+     *         or the reader itself if there is no resolution to count them towards
+     */
+    static ObjectReader countInflatedBytes(ObjectReader reader) {
+        ResolutionProfile profile = CURRENT.get();
+        if (profile == null) {
+            return reader;
+        }
+        return new CountingObjectReader(reader, profile);
+    }
+
+    void add(Counter counter, long amount) {
+        counters.addAndGet(counter.ordinal(), amount);
+    }
+
+    long getCount(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    long getNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return how long the resolution took, or -1 if it has not finished
+     */
+    long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Ends the profile and reports it. Reporting never fails the resolution.
+     *
+     * @param profile the profile returned by {@link #start}, which may be null
+     */
+    static void finish(ResolutionProfile profile) {
+        if (profile == null) {
+            return;
+        }
+        CURRENT.remove();
+        profile.totalNanos = System.nanoTime() - profile.start;
+        long[] counterValues = new long[Counter.values().length];
+        for (Counter counter : Counter.values()) {
+            counterValues[counter.ordinal()] = profile.getCount(counter);
+        }
+        FlightRecorderEvents.commitResolution(profile.event, counterValues);
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info(profile.toString());
+        }
+        if (profile.report != null) {
+            try {
+                profile.appendTo(profile.report);
+            } catch (IOException e) {
+                LOGGER.warn("Could not write the version resolution profile to " + profile.report, e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder("Resolved version of ").append(repository)
+                .append(" (").append(request).append(") in ").append(millis(totalNanos)).append(" ms:");
+        for (Phase phase : Phase.values()) {
+            description.append(' ').append(phase.getKey()).append(' ').append(millis(getNanos(phase)))
+                    .append(" ms,");
+        }
+        for (Counter counter : Counter.values()) {
+            description.append(' ').append(counter.getKey()).append(' ').append(getCount(counter)).append(',');
+        }
+        description.setLength(description.length() - 1);
+        return description.toString();
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder("{\"repository\":");
+        appendJsonString(json, repository);
+        json.append(",\"request\":");
+        appendJsonString(json, request);
+        json.append(",\"totalMillis\":").append(millis(totalNanos)).append(",\"phaseMillis\":{");
+        for (Phase phase : Phase.values()) {
+            json.append(phase.ordinal() == 0 ? "" : ",").append('"').append(phase.getKey()).append("\":")
+                    .append(millis(getNanos(phase)));
+        }
+        json.append("},\"counters\":{");
+        for (Counter counter : Counter.values()) {
+            json.append(counter.ordinal() == 0 ? "" : ",").append('"').append(counter.getKey()).append("\":")
+                    .append(getCount(counter));
+        }
+        return json.append("}}").toString();
+    }
+
+    private void appendTo(File file) throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file, !startsReport(build, file)), UTF_8);
+        try {
+            writer.write(toJson());
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return whether this is the first time the build writes to the report, which replaces what earlier
+     *         builds wrote there
+     */
+    private static synchronized boolean startsReport(Object build, File report) {
+        if (build == null) {
+            return false;
+        }
+        if (reportsBuild.get() != build) {
+            reportsBuild = new WeakReference<Object>(build);
+            reportsStarted = new HashSet<File>();
+        }
+        return reportsStarted.add(report.getAbsoluteFile());
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static void appendJsonString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Times one run of a phase, for the phase's Flight Recorder event as well as for the profile.
+     */
+    static final class Timer {
+
+        private final ResolutionProfile profile;
+        private final Phase phase;
+        private final long start;
+        private final Object event;
+
+        private Timer(ResolutionProfile profile, Phase phase) {
+            this.profile = profile;
+            this.phase = phase;
+            this.start = profile == null ? 0 : System.nanoTime();
+            this.event = profile == null ? null : FlightRecorderEvents.beginPhase(profile.repository, phase.getKey());
+        }
+
+        void stop() {
+            if (profile == null) {
+                return;
+            }
+            profile.phaseNanos[phase.ordinal()] += System.nanoTime() - start;
+            FlightRecorderEvents.commitPhase(event);
+        }
+    }
+
+    /**
+     * Counts the size of every object read from the object database as inflated bytes.
+     */
+    private static class CountingObjectReader extends ObjectReader.Filter {
+
+        private final ObjectReader delegate;
+        private final ResolutionProfile profile;
+
+        CountingObjectReader(ObjectReader delegate, ResolutionProfile profile) {
+            this.delegate = delegate;
+            this.profile = profile;
+        }
+
+        @Override
+        protected ObjectReader delegate() {
+            return delegate;
+        }
+
+        @Override
+        public ObjectReader newReader() {
+            return new CountingObjectReader(delegate.newReader(), profile);
+        }
+
+        @Override
+        public ObjectLoader open(AnyObjectId objectId) throws MissingObjectException, IOException {
+            return counted(delegate.open(objectId));
+        }
+
+        @Override
+        public ObjectLoader open(AnyObjectId objectId, int typeHint)
+                throws MissingObjectException, IncorrectObjectTypeException, IOException {
+            return counted(delegate.open(objectId, typeHint));
+        }
+
+        private ObjectLoader counted(ObjectLoader loader) {
+            profile.add(Counter.BYTES_INFLATED, loader.getSize());
+            return loader;
+        }
+    }
+
+}
@@ -19,17 +19,6 @@ class SemanticVersionComparator implements Comparator<SemanticVersion> {
             return word;
         }
 
-        public static boolean isKeyword(String identifier) {
-            return getKeywordForString(identifier) != null;
-        }
-
-        public static int compareKeywords(String oneIdentifier,
-                                          String twoIdentifier) {
-            Keyword oneKeyword = getKeywordForString(oneIdentifier);
-            Keyword twoKeyword = getKeywordForString(twoIdentifier);
-            return compareInts(oneKeyword.precedence, twoKeyword.precedence);
-        }
-
         private static Keyword getKeywordForString(String string) {
             for (Keyword keyword : values()) {
                 if (keyword.getWord().equals(string)) {
@@ -41,47 +30,153 @@ class SemanticVersionComparator implements Comparator<SemanticVersion> {
 
     }
 
+    /**
+     * Everything comparing a version looks at, worked out once when the version is created so that comparing two
+     * versions neither splits nor matches strings. The release candidate is split into identifiers exactly as
+     * {@link String#split} splits it on dots.
+     */
+    static final class Key {
+
+        private static final int NO_KEYWORD = -1;
+
+        private final int major;
+        private final int minor;
+        private final int patch;
+        // This can be null
+        private final String releaseCandidate;
+        // These are null when there is no release candidate
+        private final String[] identifiers;
+        private final boolean[] numeric;
+        // Only meaningful for numeric identifiers that fit in an int
+        private final int[] values;
+        private final boolean[] overflows;
+        private final int firstKeywordPrecedence;
+
+        Key(int major, int minor, int patch, String releaseCandidate) {
+            this.major = major;
+            this.minor = minor;
+            this.patch = patch;
+            this.releaseCandidate = releaseCandidate;
+            if (releaseCandidate == null) {
+                this.identifiers = null;
+                this.numeric = null;
+                this.values = null;
+                this.overflows = null;
+                this.firstKeywordPrecedence = NO_KEYWORD;
+                return;
+            }
+            this.identifiers = releaseCandidate.split("\\.");
+            this.numeric = new boolean[identifiers.length];
+            this.values = new int[identifiers.length];
+            this.overflows = new boolean[identifiers.length];
+            for (int i = 0; i < identifiers.length; i++) {
+                String identifier = identifiers[i];
+                numeric[i] = isNumeric(identifier);
+                if (numeric[i]) {
+                    long value = parseDigits(identifier);
+                    overflows[i] = value > Integer.MAX_VALUE;
+                    values[i] = (int) value;
+                }
+            }
+            Keyword keyword = identifiers.length == 0 ? null : Keyword.getKeywordForString(identifiers[0]);
+            this.firstKeywordPrecedence = keyword == null ? NO_KEYWORD : keyword.precedence;
+        }
+
+        static Key of(SemanticVersion version) {
+            return new Key(
+                    version.getMajorVersion(),
+                    version.getMinorVersion(),
+                    version.getPatchVersion(),
+                    version.getReleaseCandidate());
+        }
+
+        private boolean isKeyword() {
+            return firstKeywordPrecedence != NO_KEYWORD;
+        }
+
+        /**
+         * @return the value of a numeric identifier, rejecting one too large for an int with the same
+         *         {@link NumberFormatException} as {@link Integer#parseInt}
+         */
+        private int valueAt(int index) {
+            return overflows[index] ? Integer.parseInt(identifiers[index]) : values[index];
+        }
+
+        private static boolean isNumeric(String identifier) {
+            if (identifier.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < identifier.length(); i++) {
+                char c = identifier.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the value of the digits, or any value above {@link Integer#MAX_VALUE} if they do not fit in an
+         *         int
+         */
+        private static long parseDigits(String digits) {
+            long value = 0;
+            for (int i = 0; i < digits.length(); i++) {
+                value = value * 10 + (digits.charAt(i) - '0');
+                if (value > Integer.MAX_VALUE) {
+                    return value;
+                }
+            }
+            return value;
+        }
+
+    }
+
     /**
      * Implementation of the semver.org 2.0.0-rc.2 comparison rules
      */
     @Override
     public int compare(SemanticVersion first, SemanticVersion other) {
-        if (first.getMajorVersion() != other.getMajorVersion()) {
-            return compareInts(first.getMajorVersion(), other.getMajorVersion());
-        } else if (first.getMinorVersion() != other.getMinorVersion()) {
-            return compareInts(first.getMinorVersion(), other.getMinorVersion());
-        } else if (first.getPatchVersion() != other.getPatchVersion()) {
-            return compareInts(first.getPatchVersion(), other.getPatchVersion());
-        } else if (!objectsEqual(
-                first.getReleaseCandidate(),
-                other.getReleaseCandidate())) {
-            return compareRcValues(
-                    first.getReleaseCandidate(),
-                    other.getReleaseCandidate());
+        return compare(keyOf(first), keyOf(other));
+    }
+
+    private static Key keyOf(SemanticVersion version) {
+        if (version instanceof DefaultSemanticVersion) {
+            return ((DefaultSemanticVersion) version).getComparisonKey();
+        } else if (version instanceof PrefixSemanticVersion) {
+            return ((PrefixSemanticVersion) version).getComparisonKey();
+        }
+        return Key.of(version);
+    }
+
+    static int compare(Key first, Key other) {
+        if (first.major != other.major) {
+            return compareInts(first.major, other.major);
+        } else if (first.minor != other.minor) {
+            return compareInts(first.minor, other.minor);
+        } else if (first.patch != other.patch) {
+            return compareInts(first.patch, other.patch);
+        } else if (!objectsEqual(first.releaseCandidate, other.releaseCandidate)) {
+            return compareRcValues(first, other);
         }
         return 0;
     }
 
-    private static int compareRcValues(String one, String two) {
-        if (one != null && two == null) {
+    private static int compareRcValues(Key one, Key two) {
+        if (one.releaseCandidate != null && two.releaseCandidate == null) {
             return -1;
-        } else if (one == null && two != null) {
+        } else if (one.releaseCandidate == null && two.releaseCandidate != null) {
             return 1;
         } else {
             return compareNonNullRcValues(one, two);
         }
     }
 
-    private static int compareNonNullRcValues(String one, String two) {
-        String[] oneIdentifiers = one.split("\\.");
-        String[] twoIdentifiers = two.split("\\.");
-        int oneLength = oneIdentifiers.length;
-        int twoLength = twoIdentifiers.length;
+    private static int compareNonNullRcValues(Key one, Key two) {
+        int oneLength = one.identifiers.length;
+        int twoLength = two.identifiers.length;
         int minLength = Math.min(oneLength, twoLength);
-        int comparisonResult = compareUpToMinLength(
-                oneIdentifiers,
-                twoIdentifiers,
-                minLength);
+        int comparisonResult = compareUpToMinLength(one, two, minLength);
         if (comparisonResult != 0) {
             return comparisonResult;
         } else if (oneLength != twoLength) {
@@ -91,59 +186,47 @@ class SemanticVersionComparator implements Comparator<SemanticVersion> {
         }
     }
 
-    private static int compareUpToMinLength(String[] oneIdentifiers,
-                                            String[] twoIdentifiers,
-                                            int minLength) {
+    private static int compareUpToMinLength(Key one, Key two, int minLength) {
         for (int i = 0; i < minLength; i++) {
-            String oneIdentifier = oneIdentifiers[i];
-            String twoIdentifier = twoIdentifiers[i];
-            if (!oneIdentifier.equals(twoIdentifier)) {
+            if (!one.identifiers[i].equals(two.identifiers[i])) {
                 if (i == 0) {
-                    return compareIdentifiersCheckingForKeywords(
-                            oneIdentifier,
-                            twoIdentifier);
+                    return compareFirstIdentifiers(one, two);
                 } else {
-                    return compareIdentifiers(oneIdentifier, twoIdentifier);
+                    return compareIdentifiers(one, two, i);
                 }
             }
         }
         return 0;
     }
 
-    private static int compareIdentifiersCheckingForKeywords(String oneIdentifier,
-                                                             String twoIdentifier) {
-        boolean oneKeyword = Keyword.isKeyword(oneIdentifier);
-        boolean twoKeyword = Keyword.isKeyword(twoIdentifier);
+    private static int compareFirstIdentifiers(Key one, Key two) {
+        boolean oneKeyword = one.isKeyword();
+        boolean twoKeyword = two.isKeyword();
         if (oneKeyword && twoKeyword) {
-            return Keyword.compareKeywords(oneIdentifier, twoIdentifier);
+            return compareInts(one.firstKeywordPrecedence, two.firstKeywordPrecedence);
         } else if (!oneKeyword && !twoKeyword) {
-            return compareIdentifiers(oneIdentifier, twoIdentifier);
+            return compareIdentifiers(one, two, 0);
         } else {
             return oneKeyword ? 1 : -1;
         }
     }
 
-    private static int compareIdentifiers(String oneIdentifier,
-                                          String twoIdentifier) {
-        boolean oneNumeric = isNumeric(oneIdentifier);
-        boolean twoNumeric = isNumeric(twoIdentifier);
+    private static int compareIdentifiers(Key one, Key two, int index) {
+        boolean oneNumeric = one.numeric[index];
+        boolean twoNumeric = two.numeric[index];
         if (oneNumeric && twoNumeric) {
-            int oneInt = Integer.parseInt(oneIdentifier);
-            int twoInt = Integer.parseInt(twoIdentifier);
+            int oneInt = one.valueAt(index);
+            int twoInt = two.valueAt(index);
             return compareInts(oneInt, twoInt);
         } else if (!oneNumeric && !twoNumeric) {
-            return oneIdentifier.compareTo(twoIdentifier);
+            return one.identifiers[index].compareTo(two.identifiers[index]);
         } else {
             return oneNumeric ? -1 : 1;
         }
     }
 
-    private static boolean isNumeric(String oneIdentifier) {
-        return oneIdentifier.matches("\\d+");
-    }
-
     private static int compareInts(int a, int b) {
-        return Integer.valueOf(a).compareTo(Integer.valueOf(b));
+        return a < b ? -1 : (a == b ? 0 : 1);
     }
 
     private static boolean objectsEqual(Object a, Object b) {
@@ -0,0 +1,109 @@
+package com.palantir.semver;
+
+/**
+ * Scans the syntax of semantic versions one character at a time, accepting exactly what the pattern
+ * {@code (\d+)(\.(\d+))(\.(\d+))(-(([0-9A-Za-z-]+)(\.[0-9A-Za-z-]+)*))?(\+(([0-9A-Za-z-]+)(\.[0-9A-Za-z-]+)*))?}
+ * matches. Each method takes the position to start scanning at and returns the position scanning ended at, or
+ * -1 if the text there does not have the expected syntax, so that checking a version allocates nothing.
+ */
+final class SemanticVersionSyntax {
+
+    private SemanticVersionSyntax() {
+        // prevents instantiation
+    }
+
+    /**
+     * @return whether the text from start to the end is a semantic version
+     */
+    static boolean isValid(String text, int start) {
+        return endOfVersion(text, start) == text.length();
+    }
+
+    /**
+     * @return the end of the version that starts at start, or -1 if there is none
+     */
+    static int endOfVersion(String text, int start) {
+        int patchEnd = endOfCore(text, start);
+        if (patchEnd < 0) {
+            return -1;
+        }
+        int releaseCandidateEnd = endOfSuffix(text, patchEnd, '-');
+        if (releaseCandidateEnd < 0) {
+            return -1;
+        }
+        return endOfSuffix(text, releaseCandidateEnd, '+');
+    }
+
+    /**
+     * @return the end of the major, minor and patch versions that start at start, or -1 if there are none
+     */
+    static int endOfCore(String text, int start) {
+        int majorEnd = endOfNumber(text, start);
+        if (majorEnd < 0 || majorEnd == text.length() || text.charAt(majorEnd) != '.') {
+            return -1;
+        }
+        int minorEnd = endOfNumber(text, majorEnd + 1);
+        if (minorEnd < 0 || minorEnd == text.length() || text.charAt(minorEnd) != '.') {
+            return -1;
+        }
+        return endOfNumber(text, minorEnd + 1);
+    }
+
+    /**
+     * Scans an optional suffix that starts with the marker and continues with dot-separated identifiers.
+     *
+     * @return the end of the suffix, start if there is no suffix, or -1 if the suffix is malformed
+     */
+    static int endOfSuffix(String text, int start, char marker) {
+        if (start == text.length() || text.charAt(start) != marker) {
+            return start;
+        }
+        int position = start + 1;
+        while (true) {
+            int identifierStart = position;
+            while (position < text.length() && isIdentifierChar(text.charAt(position))) {
+                position++;
+            }
+            if (position == identifierStart) {
+                return -1;
+            }
+            if (position == text.length() || text.charAt(position) != '.') {
+                return position;
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Parses the digits between start and end, which must have been scanned as a number. Numbers too large for
+     * an int are rejected by {@link Integer#parseInt} just as before they were scanned by hand.
+     */
+    static int parseNumber(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (value > (Integer.MAX_VALUE - digit) / 10) {
+                return Integer.parseInt(text.substring(start, end));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int endOfNumber(String text, int start) {
+        int position = start;
+        while (position < text.length() && isDigit(text.charAt(position))) {
+            position++;
+        }
+        return position == start ? -1 : position;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return isDigit(c) || (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '-';
+    }
+
+}
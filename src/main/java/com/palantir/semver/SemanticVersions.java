@@ -14,6 +14,16 @@ public class SemanticVersions {
         return DefaultSemanticVersion.isValid(versionString);
     }
 
+    /**
+     * Parses the version if it is valid, which is cheaper than checking it with {@link #isValid(String)} and
+     * then parsing it.
+     *
+     * @return the version, or null if the string is not a semantic version
+     */
+    public static SemanticVersion tryParse(String versionString) {
+        return DefaultSemanticVersion.tryParse(versionString);
+    }
+
     public static SemanticVersion parse(String prefix, String versionString) {
         return PrefixSemanticVersion.createFromString(prefix, versionString);
     }
@@ -21,4 +31,11 @@ public class SemanticVersions {
     public static boolean isValid(String prefix, String versionString) {
         return PrefixSemanticVersion.isValid(prefix, versionString);
     }
+
+    /**
+     * @return the version, or null if the string is not the prefix followed by a semantic version
+     */
+    public static SemanticVersion tryParse(String prefix, String versionString) {
+        return PrefixSemanticVersion.tryParse(prefix, versionString);
+    }
 }
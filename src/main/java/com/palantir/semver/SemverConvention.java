@@ -3,6 +3,12 @@ package com.palantir.semver;
 import groovy.lang.Closure;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.errors.NoWorkTreeException;
@@ -10,12 +16,33 @@ import org.gradle.api.Project;
 
 public class SemverConvention {
 
+    private static final ExecutorService PRECOMPUTE_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "gitsemver precompute");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     private Project project;
+    private DeferredSemverVersion precomputed;
 
     public SemverConvention(Project project) {
         this.project = project;
     }
 
+    /**
+     * Starts resolving {@link #semverVersion} in the background while the rest of the build script is
+     * evaluated. The project properties that affect the version are read now rather than when it is used. A
+     * resolution that has not started when the build finishes is cancelled, and one that has is waited for.
+     */
+    void precompute() {
+        precomputed = new DeferredSemverVersion(SemverGitflowPlugin.versionResolution(project, null, false));
+        RepositoryPool.settleWhenFinished(project.getGradle(), precomputed);
+        precomputed.start(PRECOMPUTE_EXECUTOR);
+    }
+
     public void addPrintVersionTask() {
         this.project.getTasks().create("printVersion", PrintVersionTask.class);
     }
@@ -25,7 +52,18 @@ public class SemverConvention {
         printStatusTask.setProject(this.project);
     }
 
+    /**
+     * Adds a semverProfile task that measures every way of resolving the version of this repository and
+     * recommends the cheapest one that gives the same version.
+     */
+    public void addSemverProfileTask() {
+        this.project.getTasks().create("semverProfile", SemverProfileTask.class);
+    }
+
     public SemverVersion semverVersion(Closure configureClosure) {
+        if (precomputed != null) {
+            return precomputed;
+        }
         try {
             return SemverGitflowPlugin.getRepoVersion(project);
         } catch (NoWorkTreeException e) {
@@ -64,6 +102,28 @@ public class SemverConvention {
         }
     }
 
+    /**
+     * Resolves the versions of many prefixes at once, which for a repository with many prefixes is much
+     * cheaper than resolving them one by one. Projects that then ask for one of these prefixes with
+     * {@link #semverVersionPrefix} get the version resolved here.
+     */
+    public Map<String, SemverVersion> semverVersionPrefixes(Collection<String> prefixes) {
+        for (String prefix : prefixes) {
+            if (prefix == null || prefix.length() == 0) {
+                throw new IllegalArgumentException("Empty prefix specified for semverVersionPrefixes");
+            }
+        }
+        try {
+            return SemverGitflowPlugin.getRepoVersions(project, prefixes);
+        } catch (NoWorkTreeException e) {
+            throw new SemverGitflowPlugin.VersionApplicationException(e);
+        } catch (IOException e) {
+            throw new SemverGitflowPlugin.VersionApplicationException(e);
+        } catch (GitAPIException e) {
+            throw new SemverGitflowPlugin.VersionApplicationException(e);
+        }
+    }
+
     public SemverVersion semverVersionTopoPrefix(String prefix) {
         if (prefix == null || prefix.length() == 0) {
             throw new IllegalArgumentException("No prefix specified for semverVersionTopoPrefix");
@@ -78,4 +138,102 @@ public class SemverConvention {
             throw new SemverGitflowPlugin.VersionApplicationException(e);
         }
     }
+
+    /**
+     * Resolves the same version as {@link #semverVersion}, but tries the tags from the highest version down and
+     * stops at the first one reachable from HEAD. That is cheaper than walking the whole history when the
+     * highest tags are recent, and more expensive when many higher tags are on branches that were not merged.
+     */
+    public SemverVersion semverVersionHighest(Closure configureClosure) {
+        try {
+            return SemverGitflowPlugin.getRepoHighestVersion(project);
+        } catch (NoWorkTreeException e) {
+            throw new SemverGitflowPlugin.VersionApplicationException(e);
+        } catch (IOException e) {
+            throw new SemverGitflowPlugin.VersionApplicationException(e);
+        } catch (GitAPIException e) {
+            throw new SemverGitflowPlugin.VersionApplicationException(e);
+        }
+    }
+
+    public SemverVersion semverVersionHighestPrefix(String prefix) {
+        if (prefix == null || prefix.length() == 0) {
+            throw new IllegalArgumentException("No prefix specified for semverVersionHighestPrefix");
+        }
+        try {
+            return SemverGitflowPlugin.getRepoHighestVersion(project, prefix);
+        } catch (NoWorkTreeException e) {
+            throw new SemverGitflowPlugin.VersionApplicationException(e);
+        } catch (IOException e) {
+            throw new SemverGitflowPlugin.VersionApplicationException(e);
+        } catch (GitAPIException e) {
+            throw new SemverGitflowPlugin.VersionApplicationException(e);
+        }
+    }
+
+    public DeferredSemverVersion semverVersionDeferred() {
+        if (precomputed != null) {
+            return precomputed;
+        }
+        return new DeferredSemverVersion(new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() {
+                return semverVersion(null);
+            }
+        });
+    }
+
+    public DeferredSemverVersion semverVersionTopoDeferred() {
+        return new DeferredSemverVersion(new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() {
+                return semverVersionTopo(null);
+            }
+        });
+    }
+
+    public DeferredSemverVersion semverVersionPrefixDeferred(final String prefix) {
+        if (prefix == null || prefix.length() == 0) {
+            throw new IllegalArgumentException("No prefix specified for semverVersionPrefixDeferred");
+        }
+        return new DeferredSemverVersion(new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() {
+                return semverVersionPrefix(prefix);
+            }
+        });
+    }
+
+    public DeferredSemverVersion semverVersionHighestDeferred() {
+        return new DeferredSemverVersion(new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() {
+                return semverVersionHighest(null);
+            }
+        });
+    }
+
+    public DeferredSemverVersion semverVersionHighestPrefixDeferred(final String prefix) {
+        if (prefix == null || prefix.length() == 0) {
+            throw new IllegalArgumentException("No prefix specified for semverVersionHighestPrefixDeferred");
+        }
+        return new DeferredSemverVersion(new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() {
+                return semverVersionHighestPrefix(prefix);
+            }
+        });
+    }
+
+    public DeferredSemverVersion semverVersionTopoPrefixDeferred(final String prefix) {
+        if (prefix == null || prefix.length() == 0) {
+            throw new IllegalArgumentException("No prefix specified for semverVersionTopoPrefixDeferred");
+        }
+        return new DeferredSemverVersion(new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() {
+                return semverVersionTopoPrefix(prefix);
+            }
+        });
+    }
 }
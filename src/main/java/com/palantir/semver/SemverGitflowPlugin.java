@@ -1,6 +1,10 @@
 package com.palantir.semver;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.errors.NoWorkTreeException;
@@ -11,6 +15,15 @@ public class SemverGitflowPlugin implements Plugin<Project> {
 
     public static final String GROUP = "Semantic Versioning";
     private static final String BUILD_NUMBER_PROPERTY = "BUILD_NUMBER";
+    private static final String IGNORE_UNTRACKED_PROPERTY = "gitsemver.ignoreUntracked";
+    /**
+     * With this project property set to true, a daemon watches the working tree for changes instead of
+     * scanning it for every build.
+     */
+    private static final String WATCH_WORKTREE_PROPERTY = "gitsemver.watchWorktree";
+    private static final String PRECOMPUTE_PROPERTY = "gitsemver.precompute";
+    private static final String PROFILE_PROPERTY = "gitsemver.profile";
+    private static final String PROFILE_REPORT = "gitsemver/resolution-profile.jsonl";
     private String prefix;
 
     @Override
@@ -18,6 +31,10 @@ public class SemverGitflowPlugin implements Plugin<Project> {
         try {
             SemverConvention convention = new SemverConvention(project);
             project.getConvention().getPlugins().put("semver", convention);
+            RepositoryPool.closeAllWhenFinished(project.getGradle());
+            if (isEnabled(project, PRECOMPUTE_PROPERTY)) {
+                convention.precompute();
+            }
         } catch (NoWorkTreeException e) {
             throw new VersionApplicationException(e);
         }
@@ -28,7 +45,9 @@ public class SemverGitflowPlugin implements Plugin<Project> {
         String repoLocation = project.getProjectDir().getAbsolutePath()
                 + "/.git";
         Integer buildNumber = getBuildNumber();
-        return RepoSemanticVersions.getRepoVersion(repoLocation, buildNumber, prefix);
+        return VersionCache.getVersion(repoLocation, buildNumber, prefix, false,
+                includeUntracked(project), isEnabled(project, WATCH_WORKTREE_PROPERTY),
+                project.getGradle(), getProfileReport(project));
     }
 
     public static SemverVersion getRepoVersion(Project project)
@@ -36,7 +55,19 @@ public class SemverGitflowPlugin implements Plugin<Project> {
         String repoLocation = project.getProjectDir().getAbsolutePath()
                 + "/.git";
         Integer buildNumber = getBuildNumber();
-        return RepoSemanticVersions.getRepoVersion(repoLocation, buildNumber);
+        return VersionCache.getVersion(repoLocation, buildNumber, null, false,
+                includeUntracked(project), isEnabled(project, WATCH_WORKTREE_PROPERTY),
+                project.getGradle(), getProfileReport(project));
+    }
+
+    public static Map<String, SemverVersion> getRepoVersions(Project project, Collection<String> prefixes)
+            throws NoWorkTreeException, IOException, GitAPIException {
+        String repoLocation = project.getProjectDir().getAbsolutePath()
+                + "/.git";
+        Integer buildNumber = getBuildNumber();
+        return VersionCache.getVersions(repoLocation, buildNumber, prefixes,
+                includeUntracked(project), isEnabled(project, WATCH_WORKTREE_PROPERTY),
+                project.getGradle(), getProfileReport(project));
     }
 
     public static SemverVersion getRepoTopoVersion(Project project)
@@ -44,7 +75,9 @@ public class SemverGitflowPlugin implements Plugin<Project> {
         String repoLocation = project.getProjectDir().getAbsolutePath()
                 + "/.git";
         Integer buildNumber = getBuildNumber();
-        return RepoSemanticVersions.getRepoTopoVersion(repoLocation, buildNumber);
+        return VersionCache.getVersion(repoLocation, buildNumber, null, true,
+                includeUntracked(project), isEnabled(project, WATCH_WORKTREE_PROPERTY),
+                project.getGradle(), getProfileReport(project));
     }
 
     public static SemverVersion getRepoTopoVersion(Project project, String prefix)
@@ -52,7 +85,49 @@ public class SemverGitflowPlugin implements Plugin<Project> {
         String repoLocation = project.getProjectDir().getAbsolutePath()
                 + "/.git";
         Integer buildNumber = getBuildNumber();
-        return RepoSemanticVersions.getRepoTopoVersion(repoLocation, buildNumber, prefix);
+        return VersionCache.getVersion(repoLocation, buildNumber, prefix, true,
+                includeUntracked(project), isEnabled(project, WATCH_WORKTREE_PROPERTY),
+                project.getGradle(), getProfileReport(project));
+    }
+
+    /**
+     * Resolves the same version as {@link #getRepoVersion(Project)}, by trying the tags from the highest version
+     * down and stopping at the first one reachable from HEAD rather than by walking the whole history.
+     */
+    public static SemverVersion getRepoHighestVersion(Project project)
+            throws NoWorkTreeException, IOException, GitAPIException {
+        return getRepoHighestVersion(project, null);
+    }
+
+    public static SemverVersion getRepoHighestVersion(Project project, String prefix)
+            throws NoWorkTreeException, IOException, GitAPIException {
+        String repoLocation = project.getProjectDir().getAbsolutePath()
+                + "/.git";
+        Integer buildNumber = getBuildNumber();
+        return VersionCache.getVersion(repoLocation, buildNumber, prefix, VersionCache.Mode.HIGHEST_REACHABLE,
+                includeUntracked(project), isEnabled(project, WATCH_WORKTREE_PROPERTY),
+                project.getGradle(), getProfileReport(project));
+    }
+
+    /**
+     * Reads the project's settings now, so that the returned resolution can run on another thread without
+     * touching the project.
+     */
+    static Callable<SemverVersion> versionResolution(Project project, final String prefix, final boolean topo) {
+        final String repoLocation = project.getProjectDir().getAbsolutePath()
+                + "/.git";
+        final Integer buildNumber = getBuildNumber();
+        final boolean includeUntracked = includeUntracked(project);
+        final boolean watchWorktree = isEnabled(project, WATCH_WORKTREE_PROPERTY);
+        final Object build = project.getGradle();
+        final File profileReport = getProfileReport(project);
+        return new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() throws IOException, GitAPIException {
+                return VersionCache.getVersion(repoLocation, buildNumber, prefix, topo,
+                        includeUntracked, watchWorktree, build, profileReport);
+            }
+        };
     }
 
     private static Integer getBuildNumber() {
@@ -64,6 +139,29 @@ public class SemverGitflowPlugin implements Plugin<Project> {
         }
     }
 
+    /**
+     * Untracked files make the version dirty unless the gitsemver.ignoreUntracked project property is true,
+     * which also saves listing untracked directories.
+     */
+    private static boolean includeUntracked(Project project) {
+        return !isEnabled(project, IGNORE_UNTRACKED_PROPERTY);
+    }
+
+    /**
+     * With the gitsemver.profile project property set to true, the profile of every version resolution is
+     * written to a report in the build directory, one JSON object per line, besides being logged at info level.
+     */
+    private static File getProfileReport(Project project) {
+        return isEnabled(project, PROFILE_PROPERTY) ? new File(project.getBuildDir(), PROFILE_REPORT) : null;
+    }
+
+    /**
+     * Parses a boolean project property, which is false unless it is set to true.
+     */
+    private static boolean isEnabled(Project project, String property) {
+        return project.hasProperty(property) && Boolean.parseBoolean(String.valueOf(project.property(property)));
+    }
+
     public static class VersionApplicationException extends RuntimeException {
         private static final long serialVersionUID = 1L;
 
@@ -0,0 +1,40 @@
+package com.palantir.semver;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.Repository;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.TaskAction;
+
+public class SemverProfileTask extends DefaultTask {
+
+    private String prefix;
+
+    public SemverProfileTask() {
+        setGroup(SemverGitflowPlugin.GROUP);
+        setDescription("Resolves the version of this gitflow repo in every mode and prints what each costs");
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @param prefix a tag prefix to also measure the prefix modes with, or null to only measure the others
+     */
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @TaskAction
+    public void profile() throws IOException {
+        String repoLocation = getProject().getProjectDir().getAbsolutePath() + "/.git";
+        Repository repo = RepositoryPool.acquire(repoLocation);
+        try {
+            System.out.print(ResolutionModes.format(ResolutionModes.measure(repo, prefix)));
+        } finally {
+            RepositoryPool.release(repo);
+        }
+    }
+
+}
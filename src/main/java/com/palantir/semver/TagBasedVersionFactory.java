@@ -2,6 +2,9 @@ package com.palantir.semver;
 
 import java.io.IOException;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -9,11 +12,11 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.NoWorkTreeException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 
 public class TagBasedVersionFactory {
 
-    private static final String STABLE_VERSION_REGEX = "^[0-9]+\\.[0-9]+\\.[0-9]+$";
     private String prefix;
 
     public TagBasedVersionFactory() {
@@ -54,21 +57,64 @@ public class TagBasedVersionFactory {
             return generateVersion(latestTagAndCount, headCommitAbbreviation, buildNumber, isDirty);
     }
 
-    private SemverVersion generateVersion(TagVersionAndCount latestTagAndCount,
-                                   String headCommitAbbreviation,
-                                   Integer buildNumber,
-                                   boolean isDirty) {
+    /**
+     * Computes the version each of the given commits would have if it were checked out with a clean working
+     * tree. All of them are resolved together, so the history they share is only read once.
+     *
+     * @param revisions commit ids, or anything else git can resolve to a commit, such as branch and tag names
+     * @return the version for each revision, in the order given
+     */
+    public Map<String, SemverVersion> createVersions(Repository repo, List<String> revisions, Integer buildNumber,
+                                                     boolean topo)
+        throws MissingObjectException, IncorrectObjectTypeException, IOException {
+            if (repo == null) {
+                throw new SemverGitflowPlugin.VersionApplicationException(
+                        "Project is not in a Git repository. Cannot use semver versioning in a non repository.");
+            }
+            Map<String, ObjectId> commits = new LinkedHashMap<String, ObjectId>();
+            for (String revision : revisions) {
+                ObjectId commit = repo.resolve(revision + "^{commit}");
+                if (commit == null) {
+                    throw new SemverGitflowPlugin.VersionApplicationException(
+                            "Cannot resolve " + revision + " to a commit");
+                }
+                commits.put(revision, commit);
+            }
+            Map<ObjectId, TagVersionAndCount> tagsAndCounts;
+            if (topo) {
+                tagsAndCounts = Tags.getTopoTagVersionsAndCounts(repo, prefix, commits.values());
+            } else {
+                tagsAndCounts = Tags.getLatestTagVersionsAndCounts(repo, prefix, commits.values());
+            }
+            Map<String, SemverVersion> versions = new LinkedHashMap<String, SemverVersion>();
+            for (Map.Entry<String, ObjectId> entry : commits.entrySet()) {
+                TagVersionAndCount latestTagAndCount = tagsAndCounts.get(entry.getValue());
+                if (latestTagAndCount == null) {
+                    throw new SemverGitflowPlugin.VersionApplicationException("Cannot find any matching tags in "
+                            + "the history of " + entry.getKey() + ". You must have tags of form v0.1.2 in order "
+                            + "to use semver");
+                }
+                versions.put(entry.getKey(), generateVersion(latestTagAndCount,
+                        entry.getValue().abbreviate(7).name(), buildNumber, false));
+            }
+            return versions;
+    }
+
+    SemverVersion generateVersion(TagVersionAndCount latestTagAndCount,
+                           String headCommitAbbreviation,
+                           Integer buildNumber,
+                           boolean isDirty) {
         StringBuilder versionString = new StringBuilder();
 
         String version = getVersionInTag(latestTagAndCount);
         versionString.append(version);
 
-        if (isVersionStableRelease(latestTagAndCount)) {
+        if (isVersionStableRelease(version, latestTagAndCount)) {
             if (isDirty) {
                 versionString.append("+dirty");
             }
         } else {
-            String firstSeparator = getFirstSeparator(latestTagAndCount);
+            String firstSeparator = getFirstSeparator(version, latestTagAndCount);
             versionString.append(firstSeparator + latestTagAndCount.getCount());
             versionString.append("+g");
             versionString.append(headCommitAbbreviation);
@@ -88,37 +134,71 @@ public class TagBasedVersionFactory {
         String matchingTag = latestTagAndCount.getVersion();
         String version;
         if (prefix != null) {
-            String versionRegex = "^" + prefix + "-?v?(.*)$";
-            Pattern versionPattern = Pattern.compile(versionRegex);
-            Matcher matcher = versionPattern.matcher(matchingTag);
-            if (!matcher.matches()) {
+            if (!VersionPrefixes.isLiteral(prefix)) {
+                return getVersionInTagWithPattern(matchingTag);
+            }
+            int start = VersionPrefixes.endOfPrefix(matchingTag, prefix);
+            if (start < 0) {
+                return "0.0.0";
+            }
+            if (start < matchingTag.length() && matchingTag.charAt(start) == 'v') {
+                start++;
+            }
+            version = matchingTag.substring(start);
+            if (containsLineTerminator(version)) {
+                // Not matched by the "." of the pattern this replaces
                 return "0.0.0";
             }
-            version = matcher.group(1);
         } else {
             version = matchingTag;
         }
         return version;        
     }
 
-    private String getFirstSeparator(TagVersionAndCount latestTag) {
-        if (isAboveStable(latestTag)) {
+    private String getVersionInTagWithPattern(String matchingTag) {
+        Pattern versionPattern = VersionPrefixes.compile("^" + prefix + "-?v?(.*)$");
+        Matcher matcher = versionPattern.matcher(matchingTag);
+        if (!matcher.matches()) {
+            return "0.0.0";
+        }
+        return matcher.group(1);
+    }
+
+    private static boolean containsLineTerminator(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getFirstSeparator(String version, TagVersionAndCount latestTag) {
+        if (isAboveStable(version, latestTag)) {
             return "-";
         } else {
             return ".";
         }
     }
 
-    private boolean isAboveStable(TagVersionAndCount latestTagAndCount) {
-        return getVersionInTag(latestTagAndCount).matches(STABLE_VERSION_REGEX)
+    private static boolean isAboveStable(String version, TagVersionAndCount latestTagAndCount) {
+        return isStableVersion(version)
                 && (latestTagAndCount.getCount() > 1);
     }
 
-    private boolean isVersionStableRelease(TagVersionAndCount latestTagAndCount) {
-        return getVersionInTag(latestTagAndCount).matches(STABLE_VERSION_REGEX)
+    private static boolean isVersionStableRelease(String version, TagVersionAndCount latestTagAndCount) {
+        return isStableVersion(version)
                 && isTagCountStable(latestTagAndCount.getCount());
     }
 
+    /**
+     * @return whether the version is only a major, minor and patch version
+     */
+    private static boolean isStableVersion(String version) {
+        return SemanticVersionSyntax.endOfCore(version, 0) == version.length();
+    }
+
     private static boolean isTagCountStable(int count) {
         return count == 0;
     }
@@ -0,0 +1,530 @@
+package com.palantir.semver;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of every tag in a repository and the commit it peels to, persisted in the git directory so that
+ * builds do not have to re-read and peel every tag. The index is keyed by a fingerprint of packed-refs and
+ * refs/tags; when that changes, only tags that were added or moved since the index was written get peeled.
+ * <p>
+ * Like git's own index, the index cannot tell a ref that was changed in the same tick of the file system's
+ * clock as the index was written from one that was not. Such racy refs make the index be refreshed.
+ * <p>
+ * An index can also be scoped to the tags of one version prefix. A scoped index only ever reads and peels the
+ * tags whose names start with the prefix, and is persisted separately from the index of all tags.
+ */
+class TagIndex {
+
+    static final String FILE_NAME = "gitsemver-tags";
+    private static final String HEADER = "gitsemver-tags 1";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TagIndex.class);
+
+    private final String fingerprint;
+    // Sorted by tag name so that the index file is stable
+    private final Map<String, Entry> entries;
+    // How the tags were resolved when the index was last refreshed
+    private int unchangedTags = 0;
+    private int tagsPeeledByRefs = 0;
+    private int tagsReadFromObjects = 0;
+
+    private TagIndex(String fingerprint, Map<String, Entry> entries) {
+        this.fingerprint = fingerprint;
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the tags of the repository, reusing the persisted index when the refs have not changed and
+     * refreshing it when they have. Problems with the index file itself are never fatal: the tags are then
+     * read directly from the repository.
+     */
+    static TagIndex read(Repository repo) {
+        return read(repo, null);
+    }
+
+    /**
+     * Reads the tags that a version with the given prefix can come from: those whose names start with the
+     * prefix, optionally preceded by a "v". Prefixes that are regular expressions rather than plain text can
+     * match anything, so for those, as for a null prefix, every tag is read.
+     */
+    static TagIndex read(Repository repo, String prefix) {
+        return read(repo, prefix, null);
+    }
+
+    /**
+     * @param fingerprint the fingerprint of the refs the prefix can match, as {@link #fingerprint} gives it, or
+     *                    null to compute it now
+     */
+    static TagIndex read(Repository repo, String prefix, Fingerprint fingerprint) {
+        String[] namePrefixes = getNamePrefixes(prefix);
+        File gitDir = repo.getDirectory();
+        if (gitDir == null) {
+            return fromRefs(repo, namePrefixes, null, null);
+        }
+        if (fingerprint == null) {
+            ResolutionProfile.Timer reading = ResolutionProfile.time(ResolutionProfile.Phase.READ_REFS);
+            try {
+                fingerprint = new Fingerprint(gitDir, namePrefixes);
+            } catch (IOException e) {
+                return fromRefs(repo, namePrefixes, null, null);
+            } finally {
+                reading.stop();
+            }
+        }
+        File indexFile = new File(gitDir, getFileName(namePrefixes));
+        ResolutionProfile.Timer reading = ResolutionProfile.time(ResolutionProfile.Phase.READ_REFS);
+        TagIndex stored = load(indexFile);
+        boolean racy = stored != null && fingerprint.isRacy(indexFile);
+        reading.stop();
+        if (stored != null && fingerprint.value.equals(stored.fingerprint) && !racy) {
+            return stored;
+        }
+        TagIndex refreshed = fromRefs(repo, namePrefixes, fingerprint.value, stored);
+        refreshed.save(indexFile);
+        return refreshed;
+    }
+
+    /**
+     * @return the prefixes of the names of tags that can match the version prefix, or null if any tag can
+     */
+    static String[] getNamePrefixes(String prefix) {
+        if (prefix == null || prefix.isEmpty() || !VersionPrefixes.isLiteral(prefix)) {
+            return null;
+        }
+        return new String[] {prefix, "v" + prefix};
+    }
+
+    private static String getFileName(String[] namePrefixes) {
+        if (namePrefixes == null) {
+            return FILE_NAME;
+        }
+        MessageDigest digest = newDigest();
+        digest.update(namePrefixes[0].getBytes(UTF_8));
+        return FILE_NAME + "-" + ObjectId.fromRaw(digest.digest()).abbreviate(12).name();
+    }
+
+    int getUnchangedTags() {
+        return unchangedTags;
+    }
+
+    int getTagsPeeledByRefs() {
+        return tagsPeeledByRefs;
+    }
+
+    int getTagsReadFromObjects() {
+        return tagsReadFromObjects;
+    }
+
+    /**
+     * @return the names of all tags, grouped by the commit they point at
+     */
+    Map<ObjectId, Set<String>> getTagsByCommit() {
+        return getTagsByCommit(null);
+    }
+
+    /**
+     * @return the names of the tags that start with one of the prefixes, or of all tags if the prefixes are
+     *         null, grouped by the commit they point at; the same as an index scoped to those prefixes gives
+     */
+    Map<ObjectId, Set<String>> getTagsByCommit(String[] namePrefixes) {
+        Map<ObjectId, Set<String>> map = new HashMap<ObjectId, Set<String>>();
+        for (Map.Entry<String, Entry> tag : entries.entrySet()) {
+            if (!matches(tag.getKey(), namePrefixes)) {
+                continue;
+            }
+            ObjectId idForTag = tag.getValue().peeledId;
+            if (map.containsKey(idForTag)) {
+                map.get(idForTag).add(tag.getKey());
+            } else {
+                Set<String> tags = new HashSet<String>();
+                tags.add(tag.getKey());
+                map.put(idForTag, tags);
+            }
+        }
+        return map;
+    }
+
+    private static TagIndex fromRefs(Repository repo, String[] namePrefixes, String fingerprint,
+                                     TagIndex previous) {
+        Map<String, Entry> entries = new TreeMap<String, Entry>();
+        ResolutionProfile.Timer reading = ResolutionProfile.time(ResolutionProfile.Phase.READ_REFS);
+        Map<String, Ref> refs = getTagRefs(repo, namePrefixes);
+        reading.stop();
+        ResolutionProfile.count(ResolutionProfile.Counter.REFS_READ, refs.size());
+        int unchanged = 0;
+        Peeler peeler = new Peeler(repo);
+        ResolutionProfile.Timer peeling = ResolutionProfile.time(ResolutionProfile.Phase.PEEL);
+        try {
+            for (Map.Entry<String, Ref> tag : refs.entrySet()) {
+                ObjectId refId = tag.getValue().getObjectId();
+                if (refId == null) {
+                    continue;
+                }
+                Entry previousEntry = previous == null ? null : previous.entries.get(tag.getKey());
+                if (previousEntry != null && previousEntry.refId.equals(refId)) {
+                    entries.put(tag.getKey(), previousEntry);
+                    unchanged++;
+                } else {
+                    entries.put(tag.getKey(), new Entry(refId, peeler.peel(tag.getValue())));
+                }
+            }
+        } finally {
+            peeler.close();
+            peeling.stop();
+        }
+        ResolutionProfile.count(ResolutionProfile.Counter.TAGS_PEELED, peeler.peeledByRefs + peeler.readFromObjects);
+        LOGGER.info("Resolved {} tags: {} unchanged since they were last indexed, {} peeled by packed-refs, "
+                + "{} read from the object database",
+                entries.size(), unchanged, peeler.peeledByRefs, peeler.readFromObjects);
+        TagIndex index = new TagIndex(fingerprint, entries);
+        index.unchangedTags = unchanged;
+        index.tagsPeeledByRefs = peeler.peeledByRefs;
+        index.tagsReadFromObjects = peeler.readFromObjects;
+        return index;
+    }
+
+    /**
+     * @return the tag refs whose names start with one of the prefixes, keyed by their names within refs/tags
+     */
+    private static Map<String, Ref> getTagRefs(Repository repo, String[] namePrefixes) {
+        File gitDir = repo.getDirectory();
+        if (namePrefixes == null || gitDir == null) {
+            return repo.getTags();
+        }
+        Set<String> names = new TreeSet<String>();
+        addLooseRefNames(names, namePrefixes, "", new File(gitDir, Constants.R_TAGS));
+        Map<String, Ref> refs = new HashMap<String, Ref>();
+        try {
+            addPackedRefNames(names, namePrefixes, new File(gitDir, Constants.PACKED_REFS));
+            for (String name : names) {
+                Ref ref = repo.getRefDatabase().exactRef(Constants.R_TAGS + name);
+                if (ref != null) {
+                    refs.put(name, ref);
+                }
+            }
+        } catch (IOException e) {
+            refs.clear();
+            for (Map.Entry<String, Ref> tag : repo.getTags().entrySet()) {
+                if (matches(tag.getKey(), namePrefixes)) {
+                    refs.put(tag.getKey(), tag.getValue());
+                }
+            }
+        }
+        return refs;
+    }
+
+    private static void addLooseRefNames(Set<String> names, String[] namePrefixes, String path, File dir) {
+        String[] entries = dir.list();
+        if (entries == null) {
+            return;
+        }
+        for (String entry : entries) {
+            String name = path + entry;
+            File file = new File(dir, entry);
+            if (file.isDirectory()) {
+                if (mayContainMatches(name + "/", namePrefixes)) {
+                    addLooseRefNames(names, namePrefixes, name + "/", file);
+                }
+            } else if (matches(name, namePrefixes) && !entry.endsWith(".lock")) {
+                names.add(name);
+            }
+        }
+    }
+
+    private static void addPackedRefNames(Set<String> names, String[] namePrefixes, File packedRefs)
+            throws IOException {
+        if (!packedRefs.isFile()) {
+            return;
+        }
+        BufferedReader reader = new BufferedReader(newReader(packedRefs));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                // Lines are "<id> <ref name>", with comments starting with # and peeled ids with ^
+                int space = line.indexOf(' ');
+                if (space < 0 || line.startsWith("#") || line.startsWith("^")) {
+                    continue;
+                }
+                String refName = line.substring(space + 1);
+                if (refName.startsWith(Constants.R_TAGS)) {
+                    String name = refName.substring(Constants.R_TAGS.length());
+                    if (matches(name, namePrefixes)) {
+                        names.add(name);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static boolean matches(String name, String[] namePrefixes) {
+        if (namePrefixes == null) {
+            return true;
+        }
+        for (String namePrefix : namePrefixes) {
+            if (name.startsWith(namePrefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean mayContainMatches(String directory, String[] namePrefixes) {
+        if (namePrefixes == null) {
+            return true;
+        }
+        for (String namePrefix : namePrefixes) {
+            if (namePrefix.startsWith(directory) || directory.startsWith(namePrefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fingerprints the state of the tag refs whose names start with one of the prefixes, or of all tag refs
+     * if the prefixes are null, from the contents of every matching loose ref under refs/tags, and from the
+     * size, modification time and file key of those refs and of packed-refs.
+     */
+    static Fingerprint fingerprint(File gitDir, String[] namePrefixes) throws IOException {
+        return new Fingerprint(gitDir, namePrefixes);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static TagIndex load(File indexFile) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(newReader(indexFile));
+            try {
+                if (!HEADER.equals(reader.readLine())) {
+                    return null;
+                }
+                String fingerprint = reader.readLine();
+                Map<String, Entry> entries = new TreeMap<String, Entry>();
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    String[] fields = line.split(" ", 3);
+                    if (fields.length != 3) {
+                        return null;
+                    }
+                    entries.put(fields[2], new Entry(ObjectId.fromString(fields[0]), ObjectId.fromString(fields[1])));
+                }
+                TagIndex index = new TagIndex(fingerprint, entries);
+                index.unchangedTags = entries.size();
+                return index;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            // Malformed object id
+            return null;
+        }
+    }
+
+    private void save(File indexFile) {
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(FILE_NAME, ".tmp", indexFile.getParentFile());
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), UTF_8));
+            try {
+                writer.write(HEADER + "\n");
+                writer.write(fingerprint + "\n");
+                for (Map.Entry<String, Entry> tag : entries.entrySet()) {
+                    writer.write(tag.getValue().refId.name() + " " + tag.getValue().peeledId.name()
+                            + " " + tag.getKey() + "\n");
+                }
+            } finally {
+                writer.close();
+            }
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // The index is only an optimization; a read-only git directory just means no caching
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static Reader newReader(File file) throws IOException {
+        return new InputStreamReader(new FileInputStream(file), UTF_8);
+    }
+
+    /**
+     * Resolves tags to the commits they point at. Refs read from a peeled packed-refs file already carry that
+     * commit; only the rest are read from the object database, all through one shared walk.
+     */
+    private static class Peeler {
+
+        private final Repository repo;
+        private RevWalk walk = null;
+        int peeledByRefs = 0;
+        int readFromObjects = 0;
+
+        Peeler(Repository repo) {
+            this.repo = repo;
+        }
+
+        ObjectId peel(Ref tag) {
+            if (tag.isPeeled()) {
+                peeledByRefs++;
+                return tag.getPeeledObjectId() == null ? tag.getObjectId() : tag.getPeeledObjectId();
+            }
+            readFromObjects++;
+            if (walk == null) {
+                // Lightweight tags on commits covered by the commit-graph can be resolved without any reads
+                walk = CommitGraph.newRevWalk(repo);
+            }
+            try {
+                RevObject object = walk.parseAny(tag.getObjectId());
+                while (object instanceof RevTag) {
+                    object = ((RevTag) object).getObject();
+                    if (object instanceof RevTag) {
+                        walk.parseHeaders(object);
+                    }
+                }
+                return object.copy();
+            } catch (IOException e) {
+                // Like Repository.peel, leave tags that cannot be read unpeeled
+                return tag.getObjectId();
+            }
+        }
+
+        void close() {
+            if (walk != null) {
+                walk.close();
+            }
+        }
+    }
+
+    /**
+     * The fingerprint of the tag refs, along with when the newest of them was modified.
+     */
+    static class Fingerprint {
+
+        private final String value;
+        private final MessageDigest digest = newDigest();
+        private long newestModified = Long.MIN_VALUE;
+
+        Fingerprint(File gitDir, String[] namePrefixes) throws IOException {
+            if (namePrefixes != null) {
+                for (String namePrefix : namePrefixes) {
+                    digest.update((namePrefix + "\n").getBytes(UTF_8));
+                }
+            }
+            // packed-refs can be large, and is always replaced rather than written in place
+            add(Constants.PACKED_REFS, new File(gitDir, Constants.PACKED_REFS), false);
+            addLooseRefs(namePrefixes, "", new File(gitDir, Constants.R_TAGS));
+            value = ObjectId.fromRaw(digest.digest()).name();
+        }
+
+        String getValue() {
+            return value;
+        }
+
+        /**
+         * @return whether a ref was modified no earlier than the index file was written, and so may have
+         *         changed after the index was computed without changing its size or modification time
+         */
+        boolean isRacy(File indexFile) {
+            try {
+                return newestModified >= Files.getLastModifiedTime(indexFile.toPath()).to(TimeUnit.NANOSECONDS);
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        private void addLooseRefs(String[] namePrefixes, String path, File dir) throws IOException {
+            String[] names = dir.list();
+            if (names == null) {
+                return;
+            }
+            Arrays.sort(names);
+            for (String name : names) {
+                File file = new File(dir, name);
+                if (file.isDirectory()) {
+                    if (mayContainMatches(path + name + "/", namePrefixes)) {
+                        addLooseRefs(namePrefixes, path + name + "/", file);
+                    }
+                } else if (matches(path + name, namePrefixes)) {
+                    add(Constants.R_TAGS + path + name, file, true);
+                }
+            }
+        }
+
+        private void add(String name, File file, boolean withContents) throws IOException {
+            digest.update(name.getBytes(UTF_8));
+            if (file.exists()) {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                long modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+                newestModified = Math.max(newestModified, modified);
+                digest.update((" " + attributes.size() + " " + modified + " " + attributes.fileKey())
+                        .getBytes(UTF_8));
+                if (withContents) {
+                    // A loose ref is a few dozen bytes, and rewriting it seldom changes its size
+                    digest.update((byte) ' ');
+                    digest.update(Files.readAllBytes(file.toPath()));
+                }
+            }
+            digest.update((byte) '\n');
+        }
+    }
+
+    private static class Entry {
+
+        // What the tag ref points at, which for annotated tags is the tag object
+        final ObjectId refId;
+        // The commit the tag ultimately points at
+        final ObjectId peeledId;
+
+        Entry(ObjectId refId, ObjectId peeledId) {
+            this.refId = refId;
+            this.peeledId = peeledId;
+        }
+    }
+
+}
@@ -1,19 +1,24 @@
 package com.palantir.semver;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevSort;
@@ -30,42 +35,437 @@ public class Tags {
 
     public static TagVersionAndCount getLatestTagVersionAndCount(Repository repo, String prefix)
             throws MissingObjectException, IncorrectObjectTypeException, IOException {
-        TagAndVersion latestTag = getLatestTag(repo, prefix);
-        if (latestTag == null) {
-            throw new SemverGitflowPlugin.VersionApplicationException(
-                    "Cannot find any matching tags in history. You must have tags of form v0.1.2 in order to use semver");
-        } else {
-            int count = getNumberOfCommitsSinceTag(repo, latestTag.tag);
+        return getLatestTagVersionAndCount(repo, prefix, TagIndex.read(repo, prefix));
+    }
+
+    /**
+     * @param tagIndex the tags a version with the prefix can come from, as {@link TagIndex#read} reads them
+     */
+    static TagVersionAndCount getLatestTagVersionAndCount(Repository repo, String prefix, TagIndex tagIndex)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        Map<ObjectId, Set<String>> allTags = tagIndex.getTagsByCommit();
+        RevWalk walk = CommitGraph.newRevWalk(repo);
+        try {
+            RevCommit head = parseHead(repo, walk);
+            if (head == null) {
+                return new TagVersionAndCount("0.0.0", 0);
+            }
+            walk.markStart(head);
+            List<RevCommit> commits = new ArrayList<RevCommit>();
+            ResolutionProfile.Timer walking = ResolutionProfile.time(ResolutionProfile.Phase.WALK);
+            TagAndVersion latestTag = getLatestTagFromWalk(walk, allTags, prefix, commits);
+            walking.stop();
+            if (latestTag == null) {
+                throw noMatchingTags();
+            }
+            ResolutionProfile.Timer counting = ResolutionProfile.time(ResolutionProfile.Phase.COUNT);
+            int count = countCommitsBeforeInTopoOrder(commits, latestTag.commitId);
+            counting.stop();
             return new TagVersionAndCount(latestTag.version.getOriginalVersion(), count);
+        } finally {
+            walk.close();
         }
     }
 
     public static TagVersionAndCount getTopoTagVersionAndCount(Repository repo, String prefix)
             throws MissingObjectException, IncorrectObjectTypeException, IOException {
-        TagAndVersion latestTag = getLatestTopoTag(repo, prefix);
-        if (latestTag == null) {
-            throw new SemverGitflowPlugin.VersionApplicationException(
-                    "Cannot find any matching tags in history. You must have tags of form v0.1.2 in order to use semver");
-        } else {
-            int count = getNumberOfCommitsSinceTag(repo, latestTag.tag);
+        return getTopoTagVersionAndCount(repo, prefix, TagIndex.read(repo, prefix));
+    }
+
+    /**
+     * @param tagIndex the tags a version with the prefix can come from, as {@link TagIndex#read} reads them
+     */
+    static TagVersionAndCount getTopoTagVersionAndCount(Repository repo, String prefix, TagIndex tagIndex)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        Map<ObjectId, Set<String>> allTags = getTagsWithPrefix(tagIndex.getTagsByCommit(), prefix);
+        RevWalk walk = CommitGraph.newRevWalk(repo);
+        try {
+            RevCommit head = parseHead(repo, walk);
+            if (head == null) {
+                return new TagVersionAndCount("0.0.0", 0);
+            }
+            walk.markStart(head);
+            ResolutionProfile.Timer walking = ResolutionProfile.time(ResolutionProfile.Phase.WALK);
+            TagAndVersion latestTag = findLatestTopoTag(walk, allTags, prefix);
+            walking.stop();
+            if (latestTag == null) {
+                throw noMatchingTags();
+            }
+            ResolutionProfile.Timer counting = ResolutionProfile.time(ResolutionProfile.Phase.COUNT);
+            int count = getCountBetweenCommits(walk, BitmapReachability.open(walk), head, latestTag.commitId);
+            counting.stop();
+            return new TagVersionAndCount(latestTag.version.getOriginalVersion(), count);
+        } finally {
+            walk.close();
+        }
+    }
+
+    /**
+     * Resolves the same tag and count as {@link #getLatestTagVersionAndCount(Repository, String)}, but instead of
+     * walking the entire history reachable from HEAD it tries the tags in descending version order and stops at
+     * the first one that is reachable. The cost depends on how deep the winning tag sits rather than on the size
+     * of the history.
+     */
+    public static TagVersionAndCount getHighestReachableTagVersionAndCount(Repository repo, String prefix)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        return getHighestReachableTagVersionAndCount(repo, prefix, TagIndex.read(repo, prefix));
+    }
+
+    /**
+     * @param tagIndex the tags a version with the prefix can come from, as {@link TagIndex#read} reads them
+     */
+    static TagVersionAndCount getHighestReachableTagVersionAndCount(Repository repo, String prefix,
+                                                                    TagIndex tagIndex)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        Map<ObjectId, Set<String>> allTags = tagIndex.getTagsByCommit();
+        RevWalk walk = CommitGraph.newRevWalk(repo);
+        try {
+            RevCommit head = parseHead(repo, walk);
+            if (head == null) {
+                return new TagVersionAndCount("0.0.0", 0);
+            }
+            walk.markStart(head);
+            BitmapReachability bitmaps = BitmapReachability.open(walk);
+            TagAndVersion latestTag = findHighestReachableTag(
+                    new ReachableTaggedCommits(walk, head, allTags, bitmaps), allTags, prefix);
+            if (latestTag == null) {
+                throw noMatchingTags();
+            }
+            int count = getCountBetweenCommits(walk, bitmaps, head, latestTag.commitId);
             return new TagVersionAndCount(latestTag.version.getOriginalVersion(), count);
+        } finally {
+            walk.close();
+        }
+    }
+
+    /**
+     * Finds the highest versions tagged in the history reachable from HEAD, such as the latest few releases, each
+     * with the number of commits since it counted as {@link #getLatestTagVersionAndCount(Repository, String)}
+     * counts them. Only the given number of tags is held while walking, however many are reachable.
+     *
+     * @return up to limit tags and counts, highest version first, the first being the one
+     *         {@link #getLatestTagVersionAndCount(Repository, String)} resolves
+     */
+    public static List<TagVersionAndCount> getTopTagVersionsAndCounts(Repository repo, String prefix, int limit)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("At least one tag must be asked for, not " + limit);
+        }
+        Map<ObjectId, Set<String>> allTags = getAllTags(repo, prefix);
+        RevWalk walk = CommitGraph.newRevWalk(repo);
+        try {
+            RevCommit head = parseHead(repo, walk);
+            if (head == null) {
+                return Collections.singletonList(new TagVersionAndCount("0.0.0", 0));
+            }
+            walk.markStart(head);
+            List<RevCommit> commits = new ArrayList<RevCommit>();
+            HighestTags highestTags = new HighestTags(limit);
+            for (RevCommit commit : walk) {
+                commits.add(commit);
+                if (allTags.containsKey(commit)) {
+                    offerTagsOfCommit(highestTags, allTags, commit.copy(), prefix);
+                }
+            }
+            ResolutionProfile.count(ResolutionProfile.Counter.COMMITS_VISITED, commits.size());
+            List<TagAndVersion> topTags = highestTags.highestFirst();
+            if (topTags.isEmpty()) {
+                throw noMatchingTags();
+            }
+            Set<ObjectId> topCommits = new HashSet<ObjectId>();
+            for (TagAndVersion tag : topTags) {
+                topCommits.add(tag.commitId);
+            }
+            Map<ObjectId, Integer> counts = countCommitsBeforeEachInTopoOrder(commits, topCommits);
+            List<TagVersionAndCount> result = new ArrayList<TagVersionAndCount>();
+            for (TagAndVersion tag : topTags) {
+                result.add(new TagVersionAndCount(tag.version.getOriginalVersion(), counts.get(tag.commitId)));
+            }
+            return result;
+        } finally {
+            walk.close();
         }
     }
 
-    private static int getNumberOfCommitsSinceTag(Repository repo, String lastTag)
+    /**
+     * Resolves what {@link #getLatestTagVersionAndCount(Repository, String)} would for each of the given commits if
+     * it were checked out, sharing one walk, and the commits it parses, between all of them. The latest tag
+     * reachable from every commit is found in a single topologically sorted pass over their combined history.
+     * Counting the commits since that tag then only walks the commits in between, unless the history between
+     * them is one the count cannot be derived from.
+     *
+     * @return the tag and count for each distinct commit, in the order given, leaving out commits from which no
+     *         matching tag is reachable
+     */
+    public static Map<ObjectId, TagVersionAndCount> getLatestTagVersionsAndCounts(Repository repo, String prefix,
+                                                                                Collection<? extends ObjectId> commits)
             throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        Map<ObjectId, Set<String>> allTags = getAllTags(repo, prefix);
+        RevWalk walk = CommitGraph.newRevWalk(repo);
         try {
-            ObjectId lastTagObjectId = getObjectIdForTag(repo, lastTag);
-            ObjectId headObjectId = GitRepos.getHeadObjectId(repo);
-            return getCountBetweenCommits(repo, headObjectId, lastTagObjectId);
-        } catch (NullPointerException e) {
-            return 0;
+            List<RevCommit> targets = parseCommits(walk, commits);
+            Map<RevCommit, List<TagAndVersion>> latestTags = findLatestTagsOfAll(walk, targets, allTags, prefix);
+            BitmapReachability bitmaps = BitmapReachability.open(walk);
+            Map<ObjectId, TagVersionAndCount> result = new LinkedHashMap<ObjectId, TagVersionAndCount>();
+            for (RevCommit target : targets) {
+                List<TagAndVersion> candidates = latestTags.get(target);
+                if (candidates == null || result.containsKey(target)) {
+                    continue;
+                }
+                TagVersionAndCount tagVersionAndCount;
+                if (candidates.size() == 1) {
+                    TagAndVersion latestTag = candidates.get(0);
+                    int count = countCommitsSince(walk, bitmaps, target, walk.parseCommit(latestTag.commitId));
+                    tagVersionAndCount = new TagVersionAndCount(latestTag.version.getOriginalVersion(), count);
+                } else {
+                    // Which of several equal versions wins depends on the order of a walk from this commit
+                    walk.reset();
+                    walk.sort(RevSort.NONE);
+                    walk.markStart(target);
+                    List<RevCommit> walked = new ArrayList<RevCommit>();
+                    TagAndVersion latestTag = getLatestTagFromWalk(walk, allTags, prefix, walked);
+                    int count = countCommitsBeforeInTopoOrder(walked, latestTag.commitId);
+                    tagVersionAndCount = new TagVersionAndCount(latestTag.version.getOriginalVersion(), count);
+                }
+                result.put(target.copy(), tagVersionAndCount);
+            }
+            return result;
+        } finally {
+            walk.close();
         }
     }
 
-    private static TagAndVersion getLatestTopoTag(Repository repo, String prefix) throws MissingObjectException,
-            IncorrectObjectTypeException, IOException {
-        Map<ObjectId, Set<String>> allTags = getAllTags(repo);
+    /**
+     * Resolves what {@link #getTopoTagVersionAndCount(Repository, String)} would for each of the given commits if
+     * it were checked out, sharing one walk, and the commits it parses, between all of them.
+     *
+     * @return the tag and count for each distinct commit, in the order given, leaving out commits from which no
+     *         matching tag is reachable
+     */
+    public static Map<ObjectId, TagVersionAndCount> getTopoTagVersionsAndCounts(Repository repo, String prefix,
+                                                                              Collection<? extends ObjectId> commits)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        Map<ObjectId, Set<String>> allTags = getTagsWithPrefix(getAllTags(repo, prefix), prefix);
+        RevWalk walk = CommitGraph.newRevWalk(repo);
+        try {
+            List<RevCommit> targets = parseCommits(walk, commits);
+            BitmapReachability bitmaps = BitmapReachability.open(walk);
+            Map<ObjectId, TagVersionAndCount> result = new LinkedHashMap<ObjectId, TagVersionAndCount>();
+            for (RevCommit target : targets) {
+                if (result.containsKey(target)) {
+                    continue;
+                }
+                walk.reset();
+                walk.sort(RevSort.NONE);
+                walk.markStart(target);
+                TagAndVersion latestTag = findLatestTopoTag(walk, allTags, prefix);
+                if (latestTag == null) {
+                    continue;
+                }
+                int count = countCommitsSince(walk, bitmaps, target, walk.parseCommit(latestTag.commitId));
+                result.put(target.copy(), new TagVersionAndCount(latestTag.version.getOriginalVersion(), count));
+            }
+            return result;
+        } finally {
+            walk.close();
+        }
+    }
+
+    /**
+     * Resolves what {@link #getLatestTagVersionAndCount(Repository, String)} would for each of the given prefixes
+     * from a single walk from HEAD. The tags are read once for all prefixes, the walk collects the tags of every
+     * prefix as it goes, and the commit counts for all of them come from one pass over the walked commits.
+     *
+     * @return the tag and count for each prefix, in the order given, leaving out prefixes for which no matching
+     *         tag is reachable
+     */
+    public static Map<String, TagVersionAndCount> getLatestTagVersionsAndCountsByPrefix(Repository repo,
+                                                                                      Collection<String> prefixes)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        return getLatestTagVersionsAndCountsByPrefix(repo, prefixes, TagIndex.read(repo));
+    }
+
+    /**
+     * @param tagIndex every tag of the repository, as {@link TagIndex#read(Repository)} reads them
+     */
+    static Map<String, TagVersionAndCount> getLatestTagVersionsAndCountsByPrefix(Repository repo,
+                                                                               Collection<String> prefixes,
+                                                                               TagIndex tagIndex)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        Map<ObjectId, Set<String>> allTags = tagIndex.getTagsByCommit();
+        Map<String, Map<ObjectId, Set<String>>> tagsByPrefix = new LinkedHashMap<String, Map<ObjectId, Set<String>>>();
+        for (String prefix : prefixes) {
+            tagsByPrefix.put(prefix, tagIndex.getTagsByCommit(TagIndex.getNamePrefixes(prefix)));
+        }
+        RevWalk walk = CommitGraph.newRevWalk(repo);
+        try {
+            Map<String, TagVersionAndCount> result = new LinkedHashMap<String, TagVersionAndCount>();
+            RevCommit head = parseHead(repo, walk);
+            if (head == null) {
+                for (String prefix : tagsByPrefix.keySet()) {
+                    result.put(prefix, new TagVersionAndCount("0.0.0", 0));
+                }
+                return result;
+            }
+            walk.markStart(head);
+            Map<String, HighestTags> foundTags = new HashMap<String, HighestTags>();
+            for (String prefix : tagsByPrefix.keySet()) {
+                foundTags.put(prefix, new HighestTags(1));
+            }
+            List<RevCommit> commits = new ArrayList<RevCommit>();
+            ResolutionProfile.Timer walking = ResolutionProfile.time(ResolutionProfile.Phase.WALK);
+            for (RevCommit commit : walk) {
+                commits.add(commit);
+                if (!allTags.containsKey(commit)) {
+                    continue;
+                }
+                for (Map.Entry<String, Map<ObjectId, Set<String>>> entry : tagsByPrefix.entrySet()) {
+                    if (entry.getValue().containsKey(commit)) {
+                        offerTagsOfCommit(foundTags.get(entry.getKey()), entry.getValue(), commit, entry.getKey());
+                    }
+                }
+            }
+            walking.stop();
+            ResolutionProfile.count(ResolutionProfile.Counter.COMMITS_VISITED, commits.size());
+            Map<String, TagAndVersion> latestTags = new LinkedHashMap<String, TagAndVersion>();
+            Set<ObjectId> latestCommits = new HashSet<ObjectId>();
+            for (String prefix : tagsByPrefix.keySet()) {
+                TagAndVersion latestTag = foundTags.get(prefix).highest();
+                if (latestTag != null) {
+                    latestTags.put(prefix, latestTag);
+                    latestCommits.add(latestTag.commitId);
+                }
+            }
+            ResolutionProfile.Timer counting = ResolutionProfile.time(ResolutionProfile.Phase.COUNT);
+            Map<ObjectId, Integer> counts = countCommitsBeforeEachInTopoOrder(commits, latestCommits);
+            counting.stop();
+            for (Map.Entry<String, TagAndVersion> entry : latestTags.entrySet()) {
+                TagAndVersion latestTag = entry.getValue();
+                result.put(entry.getKey(), new TagVersionAndCount(latestTag.version.getOriginalVersion(),
+                        counts.get(latestTag.commitId)));
+            }
+            return result;
+        } finally {
+            walk.close();
+        }
+    }
+
+    /**
+     * @return the HEAD commit, or null if HEAD does not point at a commit yet
+     */
+    private static RevCommit parseHead(Repository repo, RevWalk walk)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        ObjectId headObjectId = GitRepos.getHeadObjectId(repo);
+        if (headObjectId == null) {
+            return null;
+        }
+        return walk.parseCommit(headObjectId);
+    }
+
+    private static List<RevCommit> parseCommits(RevWalk walk, Collection<? extends ObjectId> commits)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        List<RevCommit> parsed = new ArrayList<RevCommit>(commits.size());
+        for (ObjectId commit : commits) {
+            parsed.add(walk.parseCommit(commit));
+        }
+        return parsed;
+    }
+
+    /**
+     * Finds, for every commit reachable from the given ones, the tags of the highest version reachable from it.
+     * Walking parents before their children, a commit's tags are the highest among its own and those of its
+     * parents, so each commit is only visited once. A commit's list has more than one tag when several reachable
+     * tags have the same version.
+     *
+     * @return the tags for each commit, which is missing for commits from which no matching tag is reachable
+     */
+    private static Map<RevCommit, List<TagAndVersion>> findLatestTagsOfAll(RevWalk walk, List<RevCommit> starts,
+                                                                           Map<ObjectId, Set<String>> tags,
+                                                                           String prefix)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        Map<RevCommit, List<TagAndVersion>> latestTags = new IdentityHashMap<RevCommit, List<TagAndVersion>>();
+        walk.reset();
+        walk.markStart(starts);
+        walk.sort(RevSort.TOPO);
+        walk.sort(RevSort.REVERSE, true);
+        for (RevCommit commit : walk) {
+            List<TagAndVersion> latest = null;
+            if (tags.containsKey(commit)) {
+                List<TagAndVersion> ownTags = new ArrayList<TagAndVersion>();
+                addTagsToListForCommitId(ownTags, tags, commit.copy(), prefix);
+                for (TagAndVersion tag : ownTags) {
+                    latest = highest(latest, Collections.singletonList(tag));
+                }
+            }
+            for (RevCommit parent : commit.getParents()) {
+                latest = highest(latest, latestTags.get(parent));
+            }
+            if (latest != null) {
+                latestTags.put(commit, latest);
+            }
+        }
+        return latestTags;
+    }
+
+    /**
+     * @return the list with the higher version, or both lists' tags if their versions are equal
+     */
+    private static List<TagAndVersion> highest(List<TagAndVersion> first, List<TagAndVersion> second) {
+        if (first == null || first == second) {
+            return second;
+        } else if (second == null) {
+            return first;
+        }
+        int comparison = first.get(0).compareTo(second.get(0));
+        if (comparison > 0) {
+            return first;
+        } else if (comparison < 0) {
+            return second;
+        }
+        // The same tag reaches a commit through each of its parents, so merge by identity
+        Set<TagAndVersion> merged = Collections.newSetFromMap(new IdentityHashMap<TagAndVersion, Boolean>());
+        merged.addAll(first);
+        merged.addAll(second);
+        return merged.size() == first.size() ? first : new ArrayList<TagAndVersion>(merged);
+    }
+
+    /**
+     * Counts the commits a topologically sorted walk from start produces before it reaches tag, which must be
+     * reachable from start. When every commit reachable from start but not from tag is a descendant of tag, those
+     * are exactly the commits such a walk produces first, so only they are walked. That is certain when each of
+     * them only has parents that are among them or are tag itself. Otherwise the count is left to
+     * {@link #getCountBetweenCommits}.
+     */
+    private static int countCommitsSince(RevWalk walk, BitmapReachability bitmaps, RevCommit start, RevCommit tag)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        walk.reset();
+        walk.sort(RevSort.NONE);
+        walk.markStart(start);
+        walk.markUninteresting(tag);
+        Set<RevCommit> ahead = Collections.newSetFromMap(new IdentityHashMap<RevCommit, Boolean>());
+        for (RevCommit commit : walk) {
+            ahead.add(commit);
+        }
+        ResolutionProfile.count(ResolutionProfile.Counter.COMMITS_VISITED, ahead.size());
+        for (RevCommit commit : ahead) {
+            if (commit.getParentCount() == 0) {
+                return getCountBetweenCommits(walk, bitmaps, start, tag);
+            }
+            for (RevCommit parent : commit.getParents()) {
+                if (parent != tag && !ahead.contains(parent)) {
+                    return getCountBetweenCommits(walk, bitmaps, start, tag);
+                }
+            }
+        }
+        return ahead.size();
+    }
+
+    private static SemverGitflowPlugin.VersionApplicationException noMatchingTags() {
+        return new SemverGitflowPlugin.VersionApplicationException(
+                "Cannot find any matching tags in history. You must have tags of form v0.1.2 in order to use semver");
+    }
+
+    private static Map<ObjectId, Set<String>> getTagsWithPrefix(Map<ObjectId, Set<String>> allTags, String prefix) {
         Map<ObjectId, Set<String>> allTagsPrefixed = Maps.newHashMap();
         if (prefix != null) {
             for (Entry<ObjectId, Set<String>> entry : allTags.entrySet()) {
@@ -80,172 +480,231 @@ public class Tags {
                 }
             }
         }
-        return findLatestTopoTag(repo, allTagsPrefixed, prefix);
+        return allTagsPrefixed;
     }
 
-    private static TagAndVersion getLatestTag(Repository repo, String prefix) throws MissingObjectException,
-            IncorrectObjectTypeException, IOException {
-        Map<ObjectId, Set<String>> allTags = getAllTags(repo);
-        return findLatestTag(repo, allTags, prefix);
+    private static TagAndVersion findHighestReachableTag(ReachableTaggedCommits reachable,
+                                                         Map<ObjectId, Set<String>> allTags,
+                                                         String prefix)
+            throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        List<TagAndVersion> candidates = new ArrayList<TagAndVersion>();
+        for (Map.Entry<ObjectId, Set<String>> entry : allTags.entrySet()) {
+            addTagsToListForCommitId(candidates, allTags, entry.getKey(), prefix);
+        }
+        Collections.sort(candidates, Collections.reverseOrder());
+
+        // Among equal versions the full walk keeps whichever it found last, so every reachable candidate
+        // of the winning version has to be probed to pick the same one.
+        TagAndVersion latest = null;
+        int latestPosition = -1;
+        for (TagAndVersion candidate : candidates) {
+            if (latest != null && candidate.compareTo(latest) < 0) {
+                break;
+            }
+            int position = reachable.positionOf(candidate.commitId);
+            if (position < 0) {
+                continue;
+            }
+            if (latest == null
+                    || position > latestPosition
+                    || (position == latestPosition && candidate.indexInCommit > latest.indexInCommit)) {
+                latest = candidate;
+                latestPosition = position;
+            }
+        }
+        return latest;
     }
 
-    private static int getCountBetweenCommits(Repository repo,
-                                              ObjectId headObjectId,
-                                              ObjectId lastTagObjectId)
+    /**
+     * Counts the commits a topologically sorted walk from the given start produces before it reaches the end
+     * commit. The pack bitmaps answer this directly when they can; otherwise the walk is reset and reused, so
+     * commits it already parsed are not parsed again.
+     */
+    private static int getCountBetweenCommits(RevWalk walk,
+                                              BitmapReachability bitmaps,
+                                              RevCommit startingPoint,
+                                              ObjectId end)
             throws MissingObjectException, IncorrectObjectTypeException, IOException {
-        RevWalk walk = new RevWalk(repo);
-        RevCommit startingPoint = walk.parseCommit(headObjectId);
+        if (bitmaps != null) {
+            int commitCount = bitmaps.countCommitsSince(startingPoint, walk.parseCommit(end));
+            if (commitCount >= 0) {
+                return commitCount;
+            }
+        }
+        walk.reset();
         walk.markStart(startingPoint);
-        RevCommit end = walk.lookupCommit(lastTagObjectId);
         walk.sort(RevSort.TOPO);
         int commitCount = 0;
         for (RevCommit c = walk.next(); nonNullOrEnd(end, c); c = walk.next()) {
             commitCount++;
         }
+        ResolutionProfile.count(ResolutionProfile.Counter.COMMITS_VISITED, commitCount);
         return commitCount;
     }
 
-    private static boolean nonNullOrEnd(RevCommit end, RevCommit c) {
+    private static boolean nonNullOrEnd(ObjectId end, RevCommit c) {
         return (c != null) && !c.equals(end);
     }
 
-    private static ObjectId getObjectIdForTag(Repository repo, String tag) {
-        Ref ref = repo.getTags().get(tag);
-        repo.peel(ref);
-        if (ref.getPeeledObjectId() == null) {
-            return ref.getObjectId();
-        } else {
-            return ref.getPeeledObjectId();
-        }
+    /**
+     * Gives the same count as {@link #getCountBetweenCommits} without walking the history again, from the
+     * commits in the order a default walk from the same start produced them. A topological walk emits commits
+     * in that same order, except that a commit is held back until all of its children have been emitted and
+     * then goes right behind its last child.
+     */
+    private static int countCommitsBeforeInTopoOrder(List<RevCommit> commits, ObjectId end) {
+        return countCommitsBeforeEachInTopoOrder(commits, Collections.singleton(end)).get(end);
     }
 
-    private static TagAndVersion findLatestTopoTag(Repository repo, Map<ObjectId, Set<String>> allTags, String prefix)
-            throws MissingObjectException, IncorrectObjectTypeException, IOException {
-
-        try {
-            RevWalk walk = new RevWalk(repo);
-            walk.markStart(walk.parseCommit(GitRepos.getHeadObjectId(repo)));
-            for (RevCommit commit : walk) {
-                ObjectId commitId = commit.getId();
-                // Find the very first tag in history
-                if (allTags.containsKey(commitId)) {
-                    List<TagAndVersion> foundTags = new LinkedList<TagAndVersion>();
-                    // If there are more than one tag for this commit, choose the lexographically superior one
-                    for (String tagName : allTags.get(commitId)) {
-                        String tagVersion = GitRepos.stripVFromVersionString(tagName);
-                        if (prefix == null) {
-                            foundTags.add(new TagAndVersion(tagName, SemanticVersions.parse(tagVersion)));
-                        } else {
-                            foundTags.add(new TagAndVersion(tagName, SemanticVersions.parse(prefix, tagVersion)));
-                        }
-                    }
-                    Collections.sort(foundTags);
-                    return foundTags.get(foundTags.size() - 1);
+    /**
+     * Gives {@link #countCommitsBeforeInTopoOrder} for each of the end commits from one pass over the commits.
+     */
+    private static Map<ObjectId, Integer> countCommitsBeforeEachInTopoOrder(List<RevCommit> commits,
+                                                                            Set<? extends ObjectId> ends) {
+        Map<RevCommit, int[]> inDegrees = new IdentityHashMap<RevCommit, int[]>();
+        for (RevCommit commit : commits) {
+            for (RevCommit parent : commit.getParents()) {
+                int[] inDegree = inDegrees.get(parent);
+                if (inDegree == null) {
+                    inDegrees.put(parent, new int[] {1});
+                } else {
+                    inDegree[0]++;
                 }
             }
-            // No tags found - return null
-            return null;
-        } catch (NullPointerException e) {
-            return new TagAndVersion("0.0.0", new DefaultSemanticVersion(
-                    "0.0.0",
-                    0,
-                    0,
-                    0,
-                    null,
-                    null));
         }
+        Map<ObjectId, Integer> commitCounts = new HashMap<ObjectId, Integer>();
+        Set<RevCommit> delayed = Collections.newSetFromMap(new IdentityHashMap<RevCommit, Boolean>());
+        Deque<RevCommit> pending = new ArrayDeque<RevCommit>(commits);
+        int commitCount = 0;
+        for (RevCommit c = pending.poll(); c != null && commitCounts.size() < ends.size(); c = pending.poll()) {
+            int[] inDegree = inDegrees.get(c);
+            if (inDegree != null && inDegree[0] > 0) {
+                delayed.add(c);
+                continue;
+            }
+            if (ends.contains(c)) {
+                commitCounts.put(c.copy(), commitCount);
+            }
+            for (RevCommit parent : c.getParents()) {
+                if (--inDegrees.get(parent)[0] == 0 && delayed.remove(parent)) {
+                    pending.addFirst(parent);
+                }
+            }
+            commitCount++;
+        }
+        return commitCounts;
     }
 
-    private static TagAndVersion findLatestTag(Repository repo, Map<ObjectId, Set<String>> allTags, String prefix)
+    private static TagAndVersion findLatestTopoTag(RevWalk walk, Map<ObjectId, Set<String>> allTags, String prefix)
             throws MissingObjectException, IncorrectObjectTypeException, IOException {
-
-        try {
-            RevWalk walk = new RevWalk(repo);
-            walk.markStart(walk.parseCommit(GitRepos.getHeadObjectId(repo)));
-            return getLatestTagFromWalk(walk, allTags, prefix);
-        } catch (NullPointerException e) {
-            return new TagAndVersion("0.0.0", new DefaultSemanticVersion(
-                    "0.0.0",
-                    0,
-                    0,
-                    0,
-                    null,
-                    null));
-        }
-    }
-
-    private static TagAndVersion getLatestTagFromWalk(RevWalk walk, Map<ObjectId, Set<String>> tags, String prefix) {
-        List<TagAndVersion> foundTags = findAllTagsOnWalk(walk, tags, prefix);
-        if (foundTags.isEmpty()) {
-            return null;
-        } else {
-            Collections.sort(foundTags);
-            return foundTags.get(foundTags.size() - 1);
+        int visited = 0;
+        for (RevCommit commit : walk) {
+            visited++;
+            ObjectId commitId = commit.getId();
+            // Find the very first tag in history
+            if (allTags.containsKey(commitId)) {
+                ResolutionProfile.count(ResolutionProfile.Counter.COMMITS_VISITED, visited);
+                ResolutionProfile.count(ResolutionProfile.Counter.TAGS_CONSIDERED, allTags.get(commitId).size());
+                HighestTags foundTags = new HighestTags(1);
+                // If there are more than one tag for this commit, choose the lexographically superior one
+                for (String tagName : allTags.get(commitId)) {
+                    String tagVersion = GitRepos.stripVFromVersionString(tagName);
+                    if (prefix == null) {
+                        foundTags.offer(new TagAndVersion(tagName, SemanticVersions.parse(tagVersion), commitId, 0));
+                    } else {
+                        foundTags.offer(new TagAndVersion(tagName, SemanticVersions.parse(prefix, tagVersion),
+                                commitId, 0));
+                    }
+                }
+                return foundTags.highest();
+            }
         }
+        ResolutionProfile.count(ResolutionProfile.Counter.COMMITS_VISITED, visited);
+        // No tags found - return null
+        return null;
     }
 
-    private static List<TagAndVersion> findAllTagsOnWalk(RevWalk walk,
-                                                         Map<ObjectId, Set<String>> tags, String prefix) {
-        List<TagAndVersion> foundTags = new LinkedList<TagAndVersion>();
+    /**
+     * Finds the latest tag reachable from the walk's start commits, adding every commit walked to the given
+     * list in the order the walk produced it.
+     */
+    private static TagAndVersion getLatestTagFromWalk(RevWalk walk, Map<ObjectId, Set<String>> tags, String prefix,
+                                                      List<RevCommit> commits) {
+        HighestTags foundTags = new HighestTags(1);
+        int visited = 0;
         for (RevCommit commit : walk) {
+            visited++;
+            commits.add(commit);
             ObjectId commitId = commit.getId();
             if (tags.containsKey(commitId)) {
-                addTagsToListForCommitId(foundTags, tags, commitId, prefix);
+                offerTagsOfCommit(foundTags, tags, commitId, prefix);
             }
         }
-        return foundTags;
+        ResolutionProfile.count(ResolutionProfile.Counter.COMMITS_VISITED, visited);
+        return foundTags.highest();
     }
 
     private static void addTagsToListForCommitId(List<TagAndVersion> foundTags,
                                                  Map<ObjectId, Set<String>> tags,
                                                  ObjectId commitId, String prefix) {
+        int indexInCommit = 0;
         for (String tagName : tags.get(commitId)) {
-            String tagVersion = GitRepos.stripVFromVersionString(tagName);
-            if (prefix == null) {
-                if (SemanticVersions.isValid(tagVersion)) {
-                    foundTags.add(new TagAndVersion(tagName, SemanticVersions.parse(tagVersion)));
-                }
-            } else {
-                if (SemanticVersions.isValid(prefix, tagVersion)) {
-                    foundTags.add(new TagAndVersion(tagName, SemanticVersions.parse(prefix, tagVersion)));
-                }
+            TagAndVersion tag = parseTag(tagName, commitId, indexInCommit, prefix);
+            if (tag != null) {
+                foundTags.add(tag);
             }
+            indexInCommit++;
         }
     }
 
-    private static Map<ObjectId, Set<String>> getAllTags(Repository repo) {
-        Map<ObjectId, Set<String>> map = new HashMap<ObjectId, Set<String>>();
-        Map<String, Ref> refs = repo.getTags();
-        for (Map.Entry<String, Ref> tag : refs.entrySet()) {
-            ObjectId idForTag = getIdForTag(repo, tag);
-            if (map.containsKey(idForTag)) {
-                map.get(idForTag).add(tag.getKey());
-            } else {
-                Set<String> tags = new HashSet<String>();
-                tags.add(tag.getKey());
-                map.put(idForTag, tags);
+    private static void offerTagsOfCommit(HighestTags foundTags,
+                                          Map<ObjectId, Set<String>> tags,
+                                          ObjectId commitId, String prefix) {
+        int indexInCommit = 0;
+        for (String tagName : tags.get(commitId)) {
+            TagAndVersion tag = parseTag(tagName, commitId, indexInCommit, prefix);
+            if (tag != null) {
+                foundTags.offer(tag);
             }
+            indexInCommit++;
         }
-        return map;
+        ResolutionProfile.count(ResolutionProfile.Counter.TAGS_CONSIDERED, indexInCommit);
     }
 
-    private static ObjectId getIdForTag(Repository repo, Map.Entry<String, Ref> tag) {
-        Ref ref = repo.peel(tag.getValue());
-        if (ref.getPeeledObjectId() == null) {
-            return ref.getObjectId();
+    /**
+     * @return the tag with its version, or null if its name is not a version
+     */
+    private static TagAndVersion parseTag(String tagName, ObjectId commitId, int indexInCommit, String prefix) {
+        String tagVersion = GitRepos.stripVFromVersionString(tagName);
+        SemanticVersion version;
+        if (prefix == null) {
+            version = SemanticVersions.tryParse(tagVersion);
         } else {
-            return ref.getPeeledObjectId();
+            version = SemanticVersions.tryParse(prefix, tagVersion);
         }
+        return version == null ? null : new TagAndVersion(tagName, version, commitId, indexInCommit);
+    }
+
+    /**
+     * @return the tags a version with the given prefix can come from, which for a null prefix is every tag
+     */
+    private static Map<ObjectId, Set<String>> getAllTags(Repository repo, String prefix) {
+        return TagIndex.read(repo, prefix).getTagsByCommit();
     }
 
     private static class TagAndVersion implements Comparable<TagAndVersion> {
 
         final String tag;
         final SemanticVersion version;
+        // The commit the tag points at and the tag's position among that commit's tags
+        final ObjectId commitId;
+        final int indexInCommit;
 
-        TagAndVersion(String tag, SemanticVersion version) {
+        TagAndVersion(String tag, SemanticVersion version, ObjectId commitId, int indexInCommit) {
             this.tag = tag;
             this.version = version;
+            this.commitId = commitId;
+            this.indexInCommit = indexInCommit;
         }
 
         @Override
@@ -254,4 +713,176 @@ public class Tags {
         }
     }
 
+    /**
+     * Keeps the highest of the tags offered to it, in one pass and without holding on to the others. Of tags with
+     * equal versions the one offered last ranks higher, which is where a stable sort of all of them would have put
+     * it, so the highest tag is the last one such a sort would give.
+     */
+    private static class HighestTags {
+
+        private final int limit;
+        // The kept tags when more than one is kept, lowest first so that the one to drop is at the head
+        private final PriorityQueue<RankedTag> kept;
+        private TagAndVersion highest;
+        private long offered;
+
+        HighestTags(int limit) {
+            this.limit = limit;
+            this.kept = limit > 1 ? new PriorityQueue<RankedTag>(limit + 1) : null;
+        }
+
+        void offer(TagAndVersion tag) {
+            if (highest == null || tag.compareTo(highest) >= 0) {
+                highest = tag;
+            }
+            if (kept != null) {
+                kept.add(new RankedTag(tag, offered));
+                if (kept.size() > limit) {
+                    kept.poll();
+                }
+            }
+            offered++;
+        }
+
+        /**
+         * @return the highest tag offered, or null if none were
+         */
+        TagAndVersion highest() {
+            return highest;
+        }
+
+        /**
+         * @return the kept tags, highest first
+         */
+        List<TagAndVersion> highestFirst() {
+            if (kept == null) {
+                return highest == null
+                        ? Collections.<TagAndVersion>emptyList()
+                        : Collections.singletonList(highest);
+            }
+            List<RankedTag> ranked = new ArrayList<RankedTag>(kept);
+            Collections.sort(ranked, Collections.reverseOrder());
+            List<TagAndVersion> tags = new ArrayList<TagAndVersion>(ranked.size());
+            for (RankedTag rankedTag : ranked) {
+                tags.add(rankedTag.tag);
+            }
+            return tags;
+        }
+    }
+
+    private static class RankedTag implements Comparable<RankedTag> {
+
+        final TagAndVersion tag;
+        final long order;
+
+        RankedTag(TagAndVersion tag, long order) {
+            this.tag = tag;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(RankedTag other) {
+            int comparison = tag.compareTo(other.tag);
+            if (comparison != 0) {
+                return comparison;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+    /**
+     * Walks the history reachable from the walk's start commits only as far as needed to answer whether a
+     * tagged commit is reachable, remembering where each tagged commit was encountered along the way. When the
+     * repository has pack bitmaps or a commit-graph, commits that cannot be reached are ruled out from those
+     * first, so the walk is only advanced for commits it will actually find.
+     */
+    private static class ReachableTaggedCommits {
+
+        private final RevWalk walk;
+        private final RevCommit start;
+        private final Map<ObjectId, Set<String>> tags;
+        private final BitmapReachability bitmaps;
+        private final CommitGraph graph;
+        private final Map<ObjectId, Integer> positions = new HashMap<ObjectId, Integer>();
+        private int visited = 0;
+        private boolean exhausted = false;
+        // Commits reachable from the start that the graph does not cover, and where the graph takes over
+        private Set<ObjectId> outsideGraph = null;
+        private List<Integer> graphStarts = null;
+
+        ReachableTaggedCommits(RevWalk walk, RevCommit start, Map<ObjectId, Set<String>> tags,
+                               BitmapReachability bitmaps) {
+            this.walk = walk;
+            this.start = start;
+            this.tags = tags;
+            this.bitmaps = bitmaps;
+            this.graph = CommitGraph.of(walk.getObjectReader());
+        }
+
+        /**
+         * @return the position of the commit in the walk, or -1 if it is not reachable
+         */
+        int positionOf(ObjectId commitId)
+                throws MissingObjectException, IncorrectObjectTypeException, IOException {
+            Integer position = positions.get(commitId);
+            if (position == null && !exhausted && !mayReach(commitId)) {
+                return -1;
+            }
+            while (position == null && !exhausted) {
+                RevCommit commit = walk.next();
+                if (commit == null) {
+                    exhausted = true;
+                } else {
+                    if (tags.containsKey(commit)) {
+                        positions.put(commit.copy(), visited);
+                    }
+                    visited++;
+                    position = positions.get(commitId);
+                }
+            }
+            return position == null ? -1 : position;
+        }
+
+        /**
+         * @return false if the pack bitmaps or the commit-graph show that the commit is not reachable, true otherwise
+         */
+        private boolean mayReach(ObjectId commitId) throws IOException {
+            if (bitmaps != null) {
+                return bitmaps.isReachable(start, commitId);
+            }
+            if (graph == null) {
+                return true;
+            }
+            if (outsideGraph == null) {
+                findGraphStarts();
+            }
+            if (outsideGraph.contains(commitId)) {
+                return true;
+            }
+            int position = graph.findCommit(commitId);
+            // The graph is closed under reachability, so a commit it does not cover can only be reached
+            // through commits it does not cover either
+            return position >= 0 && graph.isReachable(graphStarts, position);
+        }
+
+        private void findGraphStarts() throws IOException {
+            outsideGraph = new HashSet<ObjectId>();
+            graphStarts = new ArrayList<Integer>();
+            Deque<RevCommit> pending = new ArrayDeque<RevCommit>();
+            pending.push(start);
+            while (!pending.isEmpty()) {
+                RevCommit commit = pending.pop();
+                int position = graph.findCommit(commit);
+                if (position >= 0) {
+                    graphStarts.add(position);
+                } else if (outsideGraph.add(commit.copy())) {
+                    walk.parseHeaders(commit);
+                    for (RevCommit parent : commit.getParents()) {
+                        pending.push(parent);
+                    }
+                }
+            }
+        }
+    }
+
 }
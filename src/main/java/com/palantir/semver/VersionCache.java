@@ -0,0 +1,457 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.errors.NoWorkTreeException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Shares resolved versions between all projects that a Gradle daemon configures, so that the subprojects of a
+ * build that live in the same repository resolve its version once rather than once each.
+ * <p>
+ * The tag and commit count are cached for the lifetime of the daemon, keyed by the git directory, the HEAD
+ * commit, a fingerprint of the tag refs, the prefix and the mode, so that committing, checking out or tagging
+ * resolves again. Modes that give the same answers share their entries. Whether the working tree is dirty cannot
+ * be fingerprinted without running a status, so it is only shared between the projects of one build. The tag
+ * refs are fingerprinted once per build too, rather than once per project, so a tag created while a build runs
+ * is only seen by the next build. Each distinct answer is computed by the first thread that asks for it while
+ * any other thread asking for it at the same time waits for that result.
+ */
+class VersionCache {
+
+    /**
+     * How the tag that a version is based on is searched for.
+     */
+    enum Mode {
+        // The highest version reachable from HEAD, found by walking its history
+        LATEST(""),
+        // The tag closest to HEAD
+        TOPO(", topo"),
+        // The same tag as LATEST, found by trying the tags from the highest version down
+        HIGHEST_REACHABLE(", highest reachable");
+
+        private final String description;
+
+        private Mode(String description) {
+            this.description = description;
+        }
+
+        /**
+         * @return the mode whose cached answers this one shares, since it gives the same answers
+         */
+        Mode getCachedAs() {
+            return this == HIGHEST_REACHABLE ? LATEST : this;
+        }
+
+        TagVersionAndCount resolve(Repository repo, String prefix, TagIndex tagIndex) throws IOException {
+            switch (this) {
+                case LATEST:
+                    return Tags.getLatestTagVersionAndCount(repo, prefix, tagIndex);
+                case TOPO:
+                    return Tags.getTopoTagVersionAndCount(repo, prefix, tagIndex);
+                case HIGHEST_REACHABLE:
+                    return Tags.getHighestReachableTagVersionAndCount(repo, prefix, tagIndex);
+                default:
+                    throw new IllegalStateException("Unknown mode " + this);
+            }
+        }
+    }
+
+    // Room for the versions of every prefix of a monorepo at a few heads
+    private static final int MAX_RESOLUTIONS = 512;
+
+    private static final ConcurrentMap<Key, FutureTask<TagVersionAndCount>> RESOLUTIONS =
+            new ConcurrentHashMap<Key, FutureTask<TagVersionAndCount>>();
+    private static final AtomicInteger RESOLUTION_COUNT = new AtomicInteger();
+
+    private static WeakReference<Object> currentBuild = new WeakReference<Object>(null);
+    private static ConcurrentMap<List<Object>, FutureTask<Boolean>> dirtyStates =
+            new ConcurrentHashMap<List<Object>, FutureTask<Boolean>>();
+    private static ConcurrentMap<List<Object>, FutureTask<TagIndex.Fingerprint>> refsFingerprints =
+            new ConcurrentHashMap<List<Object>, FutureTask<TagIndex.Fingerprint>>();
+
+    private VersionCache() {
+        // prevents instantiation
+    }
+
+    /**
+     * @param includeUntracked whether untracked files make the working tree dirty
+     * @param watchWorktree whether to watch the working tree for changes rather than scan it for every build
+     * @param build identifies the build that asks, so that dirty states and ref fingerprints are shared within
+     *              it; or null to not share them at all
+     */
+    static SemverVersion getVersion(String repoLocation, Integer buildNumber, String prefix, boolean topo,
+                                    boolean includeUntracked, boolean watchWorktree, Object build)
+            throws NoWorkTreeException, IOException, GitAPIException {
+        return getVersion(repoLocation, buildNumber, prefix, topo, includeUntracked, watchWorktree, build, null);
+    }
+
+    /**
+     * @param profileReport the file to append the profile of the resolution to, or null to only log it
+     */
+    static SemverVersion getVersion(String repoLocation, Integer buildNumber, String prefix, boolean topo,
+                                    boolean includeUntracked, boolean watchWorktree, Object build,
+                                    File profileReport)
+            throws NoWorkTreeException, IOException, GitAPIException {
+        return getVersion(repoLocation, buildNumber, prefix, topo ? Mode.TOPO : Mode.LATEST, includeUntracked,
+                watchWorktree, build, profileReport);
+    }
+
+    static SemverVersion getVersion(String repoLocation, Integer buildNumber, String prefix, Mode mode,
+                                    boolean includeUntracked, boolean watchWorktree, Object build,
+                                    File profileReport)
+            throws NoWorkTreeException, IOException, GitAPIException {
+        ResolutionProfile profile = ResolutionProfile.start(repoLocation,
+                "prefix " + prefix + mode.description, profileReport, build);
+        try {
+            return resolveVersion(repoLocation, buildNumber, prefix, mode, includeUntracked, watchWorktree, build);
+        } finally {
+            ResolutionProfile.finish(profile);
+        }
+    }
+
+    private static SemverVersion resolveVersion(String repoLocation, Integer buildNumber, String prefix,
+                                                Mode mode, boolean includeUntracked, boolean watchWorktree,
+                                                Object build)
+            throws NoWorkTreeException, IOException, GitAPIException {
+        final Repository repo = acquire(repoLocation);
+        try {
+            TagBasedVersionFactory versionFactory = newVersionFactory(prefix);
+            WorktreeWatcher watcher = watchWorktree ? WorktreeWatcher.forRepository(repo) : null;
+            ResolutionProfile.Timer reading = ResolutionProfile.time(ResolutionProfile.Phase.READ_REFS);
+            ObjectId head = repo.resolve(Constants.HEAD);
+            reading.stop();
+            if (head == null || repo.isBare()) {
+                return versionFactory.createVersion(repo, buildNumber, mode == Mode.TOPO);
+            }
+            File gitDir = repo.getDirectory().getCanonicalFile();
+            reading = ResolutionProfile.time(ResolutionProfile.Phase.READ_REFS);
+            TagIndex.Fingerprint refsFingerprint = getRefsFingerprint(gitDir, prefix, build);
+            reading.stop();
+            TagVersionAndCount tagVersionAndCount = getTagVersionAndCount(
+                    new Key(gitDir, head, refsFingerprint.getValue(), prefix, mode.getCachedAs()), mode, repo,
+                    refsFingerprint);
+            ResolutionProfile.Timer status = ResolutionProfile.time(ResolutionProfile.Phase.STATUS);
+            boolean isDirty = isDirty(gitDir, repo, includeUntracked, watcher, build);
+            status.stop();
+            return versionFactory.generateVersion(tagVersionAndCount, head.abbreviate(7).name(), buildNumber,
+                    isDirty);
+        } finally {
+            RepositoryPool.release(repo);
+        }
+    }
+
+    /**
+     * Gives the same versions as calling {@link #getVersion} for each of the prefixes, but resolves all that
+     * are not cached yet from a single walk, and caches them so that projects asking for one of them later get
+     * it from the cache. HEAD is read and the working tree is checked once for all the prefixes.
+     *
+     * @return the version for each prefix, in the order given
+     */
+    static Map<String, SemverVersion> getVersions(String repoLocation, Integer buildNumber,
+                                                  Collection<String> prefixes, boolean includeUntracked,
+                                                  boolean watchWorktree, Object build)
+            throws NoWorkTreeException, IOException, GitAPIException {
+        return getVersions(repoLocation, buildNumber, prefixes, includeUntracked, watchWorktree, build, null);
+    }
+
+    /**
+     * @param profileReport the file to append the profile of the resolution to, or null to only log it; all
+     *                      the prefixes are profiled together
+     */
+    static Map<String, SemverVersion> getVersions(String repoLocation, Integer buildNumber,
+                                                  Collection<String> prefixes, boolean includeUntracked,
+                                                  boolean watchWorktree, Object build, File profileReport)
+            throws NoWorkTreeException, IOException, GitAPIException {
+        ResolutionProfile profile = ResolutionProfile.start(repoLocation, "prefixes " + prefixes, profileReport,
+                build);
+        try {
+            return resolveVersions(repoLocation, buildNumber, prefixes, includeUntracked, watchWorktree, build);
+        } finally {
+            ResolutionProfile.finish(profile);
+        }
+    }
+
+    private static Map<String, SemverVersion> resolveVersions(String repoLocation, Integer buildNumber,
+                                                              Collection<String> prefixes,
+                                                              boolean includeUntracked, boolean watchWorktree,
+                                                              Object build)
+            throws NoWorkTreeException, IOException, GitAPIException {
+        final Repository repo = acquire(repoLocation);
+        try {
+            Map<String, SemverVersion> versions = new LinkedHashMap<String, SemverVersion>();
+            WorktreeWatcher watcher = watchWorktree ? WorktreeWatcher.forRepository(repo) : null;
+            ResolutionProfile.Timer reading = ResolutionProfile.time(ResolutionProfile.Phase.READ_REFS);
+            ObjectId head = repo.resolve(Constants.HEAD);
+            reading.stop();
+            if (head == null || repo.isBare()) {
+                for (String prefix : prefixes) {
+                    versions.put(prefix, newVersionFactory(prefix).createVersion(repo, buildNumber, false));
+                }
+                return versions;
+            }
+            File gitDir = repo.getDirectory().getCanonicalFile();
+            Map<String, TagIndex.Fingerprint> refsFingerprints = new LinkedHashMap<String, TagIndex.Fingerprint>();
+            Map<String, Key> keys = new LinkedHashMap<String, Key>();
+            Map<String, Key> uncached = new LinkedHashMap<String, Key>();
+            reading = ResolutionProfile.time(ResolutionProfile.Phase.READ_REFS);
+            for (String prefix : prefixes) {
+                TagIndex.Fingerprint refsFingerprint = getRefsFingerprint(gitDir, prefix, build);
+                Key key = new Key(gitDir, head, refsFingerprint.getValue(), prefix, Mode.LATEST);
+                refsFingerprints.put(prefix, refsFingerprint);
+                keys.put(prefix, key);
+                if (!RESOLUTIONS.containsKey(key)) {
+                    uncached.put(prefix, key);
+                }
+            }
+            reading.stop();
+            if (!uncached.isEmpty()) {
+                cacheResolutions(uncached, repo, getRefsFingerprint(gitDir, null, build));
+            }
+            Map<String, TagVersionAndCount> tagVersionsAndCounts = new LinkedHashMap<String, TagVersionAndCount>();
+            for (String prefix : keys.keySet()) {
+                // Prefixes without a reachable tag were not cached, and report the failure here
+                tagVersionsAndCounts.put(prefix,
+                        getTagVersionAndCount(keys.get(prefix), Mode.LATEST, repo, refsFingerprints.get(prefix)));
+            }
+            ResolutionProfile.Timer status = ResolutionProfile.time(ResolutionProfile.Phase.STATUS);
+            boolean isDirty = isDirty(gitDir, repo, includeUntracked, watcher, build);
+            status.stop();
+            String abbreviatedHead = head.abbreviate(7).name();
+            for (Map.Entry<String, TagVersionAndCount> entry : tagVersionsAndCounts.entrySet()) {
+                versions.put(entry.getKey(), newVersionFactory(entry.getKey()).generateVersion(entry.getValue(),
+                        abbreviatedHead, buildNumber, isDirty));
+            }
+            return versions;
+        } finally {
+            RepositoryPool.release(repo);
+        }
+    }
+
+    private static TagBasedVersionFactory newVersionFactory(String prefix) {
+        if (prefix == null) {
+            return new TagBasedVersionFactory();
+        }
+        return new TagBasedVersionFactory(prefix);
+    }
+
+    private static Repository acquire(String repoLocation) throws IOException {
+        ResolutionProfile.Timer opening = ResolutionProfile.time(ResolutionProfile.Phase.OPEN);
+        try {
+            return RepositoryPool.acquire(repoLocation);
+        } finally {
+            opening.stop();
+        }
+    }
+
+    /**
+     * @return how many times a tag and commit count has been resolved rather than read from the cache
+     */
+    static int getResolutionCount() {
+        return RESOLUTION_COUNT.get();
+    }
+
+    static void clear() {
+        RESOLUTIONS.clear();
+        synchronized (VersionCache.class) {
+            currentBuild = new WeakReference<Object>(null);
+            dirtyStates = new ConcurrentHashMap<List<Object>, FutureTask<Boolean>>();
+            refsFingerprints = new ConcurrentHashMap<List<Object>, FutureTask<TagIndex.Fingerprint>>();
+        }
+    }
+
+    /**
+     * @param mode how to resolve the tag and count if they are not cached, which the key's mode is cached as
+     */
+    private static TagVersionAndCount getTagVersionAndCount(final Key key, final Mode mode, final Repository repo,
+                                                            final TagIndex.Fingerprint refsFingerprint)
+            throws IOException, GitAPIException {
+        if (RESOLUTIONS.size() >= MAX_RESOLUTIONS && !RESOLUTIONS.containsKey(key)) {
+            // Entries for heads that have since moved on are never asked for again
+            RESOLUTIONS.clear();
+        }
+        return computeOnce(RESOLUTIONS, key, new Callable<TagVersionAndCount>() {
+            @Override
+            public TagVersionAndCount call() throws IOException {
+                RESOLUTION_COUNT.incrementAndGet();
+                return mode.resolve(repo, key.prefix, TagIndex.read(repo, key.prefix, refsFingerprint));
+            }
+        });
+    }
+
+    /**
+     * Resolves the prefixes together and caches each result as if it had been resolved on its own. Prefixes
+     * without a reachable tag are not cached, so that resolving them on their own reports the failure.
+     */
+    private static void cacheResolutions(Map<String, Key> keys, Repository repo,
+                                         TagIndex.Fingerprint refsFingerprint) throws IOException {
+        if (RESOLUTIONS.size() + keys.size() > MAX_RESOLUTIONS) {
+            RESOLUTIONS.clear();
+        }
+        RESOLUTION_COUNT.incrementAndGet();
+        Map<String, TagVersionAndCount> resolved =
+                Tags.getLatestTagVersionsAndCountsByPrefix(repo, new ArrayList<String>(keys.keySet()),
+                        TagIndex.read(repo, null, refsFingerprint));
+        for (Map.Entry<String, TagVersionAndCount> entry : resolved.entrySet()) {
+            final TagVersionAndCount tagVersionAndCount = entry.getValue();
+            FutureTask<TagVersionAndCount> task = new FutureTask<TagVersionAndCount>(
+                    new Callable<TagVersionAndCount>() {
+                        @Override
+                        public TagVersionAndCount call() {
+                            return tagVersionAndCount;
+                        }
+                    });
+            task.run();
+            RESOLUTIONS.putIfAbsent(keys.get(entry.getKey()), task);
+        }
+    }
+
+    private static boolean isDirty(File gitDir, final Repository repo, final boolean includeUntracked,
+                                   final WorktreeWatcher watcher, Object build) throws IOException, GitAPIException {
+        if (build == null) {
+            return watcher == null ? GitRepos.isDirty(repo, includeUntracked)
+                    : watcher.isDirty(repo, includeUntracked);
+        }
+        return computeOnce(getDirtyStates(build), Arrays.<Object>asList(gitDir, includeUntracked),
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        if (watcher != null) {
+                            return watcher.isDirty(repo, includeUntracked);
+                        }
+                        return GitRepos.isDirty(repo, includeUntracked);
+                    }
+                });
+    }
+
+    /**
+     * @param build identifies the build that asks, so that the fingerprint is shared within it; or null to not
+     *              share it at all
+     */
+    private static TagIndex.Fingerprint getRefsFingerprint(final File gitDir, String prefix, Object build)
+            throws IOException, GitAPIException {
+        final String[] namePrefixes = TagIndex.getNamePrefixes(prefix);
+        if (build == null) {
+            return TagIndex.fingerprint(gitDir, namePrefixes);
+        }
+        List<Object> key = Arrays.<Object>asList(gitDir,
+                namePrefixes == null ? null : Arrays.asList(namePrefixes));
+        return computeOnce(getRefsFingerprints(build), key, new Callable<TagIndex.Fingerprint>() {
+            @Override
+            public TagIndex.Fingerprint call() throws IOException {
+                return TagIndex.fingerprint(gitDir, namePrefixes);
+            }
+        });
+    }
+
+    private static synchronized ConcurrentMap<List<Object>, FutureTask<Boolean>> getDirtyStates(Object build) {
+        startBuild(build);
+        return dirtyStates;
+    }
+
+    private static synchronized ConcurrentMap<List<Object>, FutureTask<TagIndex.Fingerprint>> getRefsFingerprints(
+            Object build) {
+        startBuild(build);
+        return refsFingerprints;
+    }
+
+    /**
+     * Forgets the dirty states and fingerprints of the previous build once another one asks.
+     */
+    private static synchronized void startBuild(Object build) {
+        if (currentBuild.get() != build) {
+            currentBuild = new WeakReference<Object>(build);
+            dirtyStates = new ConcurrentHashMap<List<Object>, FutureTask<Boolean>>();
+            refsFingerprints = new ConcurrentHashMap<List<Object>, FutureTask<TagIndex.Fingerprint>>();
+        }
+    }
+
+    private static <K, V> V computeOnce(ConcurrentMap<K, FutureTask<V>> cache, K key, Callable<V> computation)
+            throws IOException, GitAPIException {
+        FutureTask<V> task = cache.get(key);
+        if (task == null) {
+            FutureTask<V> newTask = new FutureTask<V>(computation);
+            task = cache.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SemverGitflowPlugin.VersionApplicationException(e);
+        } catch (ExecutionException e) {
+            // Failures are not cached so that the next project tries again
+            cache.remove(key, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof GitAPIException) {
+                throw (GitAPIException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SemverGitflowPlugin.VersionApplicationException(cause);
+        }
+    }
+
+    private static class Key {
+        private final File gitDir;
+        private final ObjectId head;
+        private final String refsFingerprint;
+        private final String prefix;
+        private final Mode mode;
+
+        Key(File gitDir, ObjectId head, String refsFingerprint, String prefix, Mode mode) {
+            this.gitDir = gitDir;
+            this.head = head.copy();
+            this.refsFingerprint = refsFingerprint;
+            this.prefix = prefix;
+            this.mode = mode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return gitDir.equals(other.gitDir)
+                    && head.equals(other.head)
+                    && refsFingerprint.equals(other.refsFingerprint)
+                    && (prefix == null ? other.prefix == null : prefix.equals(other.prefix))
+                    && mode == other.mode;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = gitDir.hashCode();
+            hash = 31 * hash + head.hashCode();
+            hash = 31 * hash + refsFingerprint.hashCode();
+            hash = 31 * hash + (prefix == null ? 0 : prefix.hashCode());
+            return 31 * hash + mode.ordinal();
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.palantir.semver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Matches version prefixes against tag names. Prefixes are regular expressions, but almost all of them only
+ * contain characters that match themselves; those are matched as plain text. The patterns built from the
+ * others are compiled once and cached.
+ */
+final class VersionPrefixes {
+
+    private static final int MAX_PATTERNS = 64;
+    private static final ConcurrentMap<String, Pattern> PATTERNS = new ConcurrentHashMap<String, Pattern>();
+
+    private VersionPrefixes() {
+        // prevents instantiation
+    }
+
+    /**
+     * @return whether the prefix only contains characters that match themselves in a regular expression
+     */
+    static boolean isLiteral(String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '-' && c != '_' && c != '/') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Matches a literal prefix the way the pattern {@code ^prefix-?} does, as the start of a longer match. The
+     * dash is taken whenever it is there, as nothing that can follow it in a version prefix pattern can start
+     * with a dash.
+     *
+     * @return the position after the prefix and its dash, or -1 if the text does not start with the prefix
+     */
+    static int endOfPrefix(String text, String prefix) {
+        if (!text.startsWith(prefix)) {
+            return -1;
+        }
+        int end = prefix.length();
+        if (end < text.length() && text.charAt(end) == '-') {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * @return the compiled pattern, from the cache if it was compiled before
+     */
+    static Pattern compile(String regex) {
+        Pattern pattern = PATTERNS.get(regex);
+        if (pattern == null) {
+            if (PATTERNS.size() >= MAX_PATTERNS) {
+                PATTERNS.clear();
+            }
+            pattern = Pattern.compile(regex);
+            PATTERNS.putIfAbsent(regex, pattern);
+        }
+        return pattern;
+    }
+
+}
@@ -0,0 +1,442 @@
+package com.palantir.semver;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a working tree and its git directory for the lifetime of the Gradle daemon, so that whether the
+ * working tree is dirty only has to be read again once something it depends on has changed.
+ * <p>
+ * Every event counts as a change except for those on paths that the last scan found to be ignored, and on
+ * files in the git directory other than the index, HEAD, packed-refs and refs. The answers are remembered
+ * together with the number of changes seen before they were computed, so an event that arrives during a
+ * scan makes the next question scan again. If events were lost, because the queue overflowed or because an
+ * ignore file changed which directories need watching, the watcher registers its directories again and
+ * the next question scans again.
+ * <p>
+ * Events reach the watcher some time after the change they report, so before answering from memory, a
+ * question creates a cookie file in the git directory and waits for its event. Every change made before the
+ * question has then been counted. If the cookie's event does not arrive in time, the question scans.
+ * <p>
+ * Only platforms where the watch service is notified by the operating system are watched. Elsewhere, such
+ * as on JDKs that poll for changes every few seconds, {@link #forRepository} returns null.
+ */
+class WorktreeWatcher implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorktreeWatcher.class);
+    private static final Map<File, WorktreeWatcher> WATCHERS = new HashMap<File, WorktreeWatcher>();
+    private static final String INFO_EXCLUDE = "info/exclude";
+    private static final String COOKIE_PREFIX = "gitsemver-cookie-";
+    private static final long COOKIE_TIMEOUT_MILLIS = 5000;
+
+    private final Path workTree;
+    private final Path gitDir;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<WatchKey, Path>();
+    private final Set<String> ignoredPaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong worktreeChanges = new AtomicLong();
+    private final AtomicBoolean registrationLost = new AtomicBoolean();
+    private final AtomicInteger scanCount = new AtomicInteger();
+    // Tells this watcher's cookies apart from those of other daemons watching the same git directory
+    private final String cookiePrefix = COOKIE_PREFIX + Long.toHexString(System.nanoTime()) + "-";
+    private final AtomicLong cookiesCreated = new AtomicLong();
+    private final Object cookieLock = new Object();
+    // Guarded by cookieLock
+    private long cookiesSeen;
+
+    private volatile Snapshot<Boolean> dirtyWithUntracked;
+    private volatile Snapshot<Boolean> dirtyWithoutUntracked;
+
+    private WorktreeWatcher(Path workTree, Path gitDir, WatchService watchService) {
+        this.workTree = workTree;
+        this.gitDir = gitDir;
+        this.watchService = watchService;
+    }
+
+    /**
+     * @return the watcher of the repository's working tree, started by the first call for it; or null if it
+     *         cannot be watched
+     */
+    static WorktreeWatcher forRepository(Repository repo) throws IOException {
+        if (repo.isBare()) {
+            return null;
+        }
+        File gitDir = repo.getDirectory().getCanonicalFile();
+        synchronized (WATCHERS) {
+            if (WATCHERS.containsKey(gitDir)) {
+                return WATCHERS.get(gitDir);
+            }
+            WorktreeWatcher watcher = start(repo, gitDir);
+            WATCHERS.put(gitDir, watcher);
+            return watcher;
+        }
+    }
+
+    /**
+     * Stops every watcher.
+     */
+    static void closeAll() {
+        List<WorktreeWatcher> watchers;
+        synchronized (WATCHERS) {
+            watchers = new ArrayList<WorktreeWatcher>(WATCHERS.values());
+            WATCHERS.clear();
+        }
+        for (WorktreeWatcher watcher : watchers) {
+            if (watcher != null) {
+                watcher.close();
+            }
+        }
+    }
+
+    private static WorktreeWatcher start(Repository repo, File gitDir) {
+        Path workTree = repo.getWorkTree().toPath().toAbsolutePath().normalize();
+        WatchService watchService = null;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            if (watchService.getClass().getSimpleName().startsWith("Polling")) {
+                LOGGER.info("Not watching {} since this platform can only poll it for changes", workTree);
+                watchService.close();
+                return null;
+            }
+            WorktreeWatcher watcher = new WorktreeWatcher(workTree, gitDir.toPath(), watchService);
+            watcher.registerGitDir();
+            watcher.registerWorkTree(repo);
+            Thread thread = new Thread(watcher, "gitsemver watcher for " + workTree);
+            thread.setDaemon(true);
+            thread.start();
+            return watcher;
+        } catch (IOException e) {
+            // Typically too many directories for the operating system's limit on watches
+            LOGGER.info("Not watching {}: {}", workTree, e.toString());
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException closeFailure) {
+                    LOGGER.debug("Could not close watch service", closeFailure);
+                }
+            }
+            return null;
+        }
+    }
+
+    boolean isDirty(Repository repo, boolean includeUntracked) throws IOException {
+        if (registrationLost.getAndSet(false)) {
+            registerGitDir();
+            registerWorkTree(repo);
+        }
+        if (!awaitEarlierEvents()) {
+            // Changes may not have been counted, so the answer can neither come from memory nor be remembered
+            loseRegistration();
+            scanCount.incrementAndGet();
+            return !DirtyCheck.scan(repo, includeUntracked, true).isClean();
+        }
+        long changes = worktreeChanges.get();
+        Snapshot<Boolean> snapshot = includeUntracked ? dirtyWithUntracked : dirtyWithoutUntracked;
+        if (snapshot != null && snapshot.changes == changes) {
+            return snapshot.value;
+        }
+        scanCount.incrementAndGet();
+        DirtyCheck status = DirtyCheck.scan(repo, includeUntracked, true);
+        addIgnoredPaths(status.getIgnoredNotInIndex());
+        snapshot = new Snapshot<Boolean>(changes, !status.isClean());
+        if (includeUntracked) {
+            dirtyWithUntracked = snapshot;
+        } else {
+            dirtyWithoutUntracked = snapshot;
+        }
+        return snapshot.value;
+    }
+
+    /**
+     * @return how many times the working tree has been scanned rather than answered from memory
+     */
+    int getScanCount() {
+        return scanCount.get();
+    }
+
+    /**
+     * Creates a cookie file and waits until the watcher has seen it, by which time it has also seen the events
+     * of every change made before it.
+     *
+     * @return whether the cookie was seen in time
+     */
+    private boolean awaitEarlierEvents() {
+        long cookie = cookiesCreated.incrementAndGet();
+        Path file = gitDir.resolve(cookiePrefix + cookie);
+        try {
+            Files.createFile(file);
+        } catch (IOException e) {
+            LOGGER.debug("Could not create {}", file, e);
+            return false;
+        }
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COOKIE_TIMEOUT_MILLIS);
+            synchronized (cookieLock) {
+                while (cookiesSeen < cookie) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        LOGGER.debug("Did not see {} in time", file);
+                        return false;
+                    }
+                    cookieLock.wait(remaining);
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOGGER.debug("Could not delete {}", file, e);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            long cookie = processEvents(key);
+            if (cookie > 0) {
+                // Earlier events can be queued on a key that was put back after this one, so handle everything
+                // queued so far before answering the questions that wait for the cookie
+                try {
+                    while ((key = watchService.poll()) != null) {
+                        cookie = Math.max(cookie, processEvents(key));
+                    }
+                } catch (ClosedWatchServiceException e) {
+                    return;
+                }
+                synchronized (cookieLock) {
+                    cookiesSeen = Math.max(cookiesSeen, cookie);
+                    cookieLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the newest of this watcher's cookies among the events, or 0 if there was none
+     */
+    private long processEvents(WatchKey key) {
+        long cookie = 0;
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                loseRegistration();
+            } else if (directory != null) {
+                Path path = directory.resolve((Path) event.context());
+                cookie = Math.max(cookie, getCookie(directory, path));
+                onEvent(directory, path, event.kind());
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+        return cookie;
+    }
+
+    private long getCookie(Path directory, Path path) {
+        String name = path.getFileName().toString();
+        if (!directory.equals(gitDir) || !name.startsWith(cookiePrefix)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(name.substring(cookiePrefix.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close watch service", e);
+        }
+    }
+
+    private void onEvent(Path directory, Path path, WatchEvent.Kind<?> kind) {
+        if (directory.equals(gitDir)) {
+            String name = path.getFileName().toString();
+            if (name.equals(Constants.HEAD) || name.equals(Constants.PACKED_REFS) || name.equals("index")) {
+                worktreeChanges.incrementAndGet();
+            }
+        } else if (path.startsWith(gitDir)) {
+            if (path.startsWith(gitDir.resolve(Constants.R_REFS))) {
+                worktreeChanges.incrementAndGet();
+                if (kind == ENTRY_CREATE) {
+                    registerTree(path);
+                }
+            } else if (path.equals(gitDir.resolve(INFO_EXCLUDE))) {
+                loseRegistration();
+            }
+        } else if (!isIgnored(getRelativePath(path))) {
+            worktreeChanges.incrementAndGet();
+            if (path.getFileName().toString().equals(Constants.DOT_GIT_IGNORE)) {
+                loseRegistration();
+            } else if (kind == ENTRY_CREATE) {
+                registerTree(path);
+            }
+        }
+    }
+
+    /**
+     * Forgets which paths are ignored and has the next question register every directory again.
+     */
+    private void loseRegistration() {
+        ignoredPaths.clear();
+        registrationLost.set(true);
+        worktreeChanges.incrementAndGet();
+    }
+
+    private void registerGitDir() throws IOException {
+        register(gitDir);
+        if (Files.isDirectory(gitDir.resolve("info"))) {
+            register(gitDir.resolve("info"));
+        }
+        registerTree(gitDir.resolve(Constants.R_REFS));
+    }
+
+    /**
+     * Registers every directory of the working tree that is tracked or not ignored.
+     */
+    private void registerWorkTree(Repository repo) throws IOException {
+        register(workTree);
+        TreeWalk walk = new TreeWalk(repo);
+        try {
+            walk.addTree(new DirCacheIterator(repo.readDirCache()));
+            FileTreeIterator workingTree = new FileTreeIterator(repo);
+            walk.addTree(workingTree);
+            workingTree.setDirCacheIterator(walk, 0);
+            while (walk.next()) {
+                WorkingTreeIterator entry = walk.getTree(1, WorkingTreeIterator.class);
+                if (entry != null && FileMode.TREE.equals(walk.getRawMode(1))
+                        && (walk.getRawMode(0) != 0 || !entry.isEntryIgnored())) {
+                    register(workTree.resolve(walk.getPathString()));
+                    walk.enterSubtree();
+                }
+            }
+        } finally {
+            walk.close();
+        }
+    }
+
+    /**
+     * Registers a directory that was created after the watcher started, along with everything below it.
+     */
+    private void registerTree(Path root) {
+        if (!Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes)
+                        throws IOException {
+                    if (directory.getFileName().toString().equals(Constants.DOT_GIT)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    register(directory);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.debug("Could not watch {}", root, e);
+            loseRegistration();
+        }
+    }
+
+    private void register(Path directory) throws IOException {
+        directories.put(directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), directory);
+    }
+
+    /**
+     * Stops watching directories that a scan found to be ignored, and ignores events for ignored files.
+     */
+    private void addIgnoredPaths(Collection<String> paths) {
+        if (!ignoredPaths.addAll(paths)) {
+            return;
+        }
+        for (Map.Entry<WatchKey, Path> watched : directories.entrySet()) {
+            Path directory = watched.getValue();
+            if (directory.startsWith(workTree) && !directory.startsWith(gitDir)
+                    && isIgnored(getRelativePath(directory))) {
+                watched.getKey().cancel();
+                directories.remove(watched.getKey());
+            }
+        }
+    }
+
+    private boolean isIgnored(String path) {
+        for (String ancestor = path; !ancestor.isEmpty();
+             ancestor = ancestor.substring(0, Math.max(0, ancestor.lastIndexOf('/')))) {
+            if (ignoredPaths.contains(ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getRelativePath(Path path) {
+        return workTree.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private static class Snapshot<T> {
+        private final long changes;
+        private final T value;
+
+        Snapshot(long changes, T value) {
+            this.changes = changes;
+            this.value = value;
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class BitmapReachabilityTest {
+
+    private File gitDir;
+    private Repository repo;
+    private TestHistories history;
+
+    @Before
+    public void createRepository() throws IOException {
+        gitDir = new File(Files.createTempDir(), ".git");
+        repo = new FileRepository(gitDir);
+        repo.create();
+        history = new TestHistories(repo);
+    }
+
+    @Test
+    public void testNoBitmapsWithoutRepacking() throws IOException {
+        history.commit(1000);
+        RevWalk walk = new RevWalk(repo);
+        Assert.assertNull(BitmapReachability.open(walk));
+        walk.close();
+    }
+
+    @Test
+    public void testLinearHistoryIsCountedFromBitmaps() throws IOException {
+        ObjectId commit = history.commit(1000);
+        history.tag("v1.0.0", commit);
+        ObjectId tagged = commit;
+        for (int i = 0; i < 300; i++) {
+            commit = history.commit(1001 + i, commit);
+            if (i == 150) {
+                tagged = commit;
+                history.tag("v1.1.0", tagged);
+            }
+        }
+        history.checkout(commit);
+        repack();
+        // Commits made after the repack are not in the bitmapped pack
+        for (int i = 0; i < 5; i++) {
+            commit = history.commit(2000 + i, commit);
+        }
+        history.checkout(commit);
+
+        RevWalk walk = new RevWalk(repo);
+        BitmapReachability bitmaps = BitmapReachability.open(walk);
+        Assert.assertNotNull(bitmaps);
+        RevCommit head = walk.parseCommit(commit);
+        Assert.assertEquals(154, bitmaps.countCommitsSince(head, walk.parseCommit(tagged)));
+        Assert.assertTrue(bitmaps.isReachable(head, tagged));
+        Assert.assertFalse(bitmaps.isReachable(walk.parseCommit(tagged), commit));
+        walk.close();
+        Assert.assertEquals("1.1.0 154", describe(Tags.getHighestReachableTagVersionAndCount(repo, null)));
+    }
+
+    @Test
+    public void testParityWithWalkOnMergeHeavyHistories() throws IOException, ParseException {
+        for (int seed = 0; seed < 10; seed++) {
+            createRepository();
+            Random random = new Random(seed);
+            List<ObjectId> commits = generateHistory(random, 200);
+            repack();
+            for (int i = 0; i < 5; i++) {
+                commits.add(history.commit(5000 + i, commits.get(commits.size() - 1 - random.nextInt(3))));
+            }
+
+            RevWalk walk = new RevWalk(repo);
+            BitmapReachability bitmaps = BitmapReachability.open(walk);
+            Assert.assertNotNull(bitmaps);
+            for (int i = 0; i < 100; i++) {
+                RevCommit head = walk.parseCommit(commits.get(commits.size() - 1 - random.nextInt(40)));
+                RevCommit other = walk.parseCommit(commits.get(random.nextInt(commits.size())));
+                boolean reachable = walk.isMergedInto(other, head);
+                walk.reset();
+                Assert.assertEquals(reachable, bitmaps.isReachable(head, other));
+                int count = bitmaps.countCommitsSince(head, other);
+                if (count >= 0) {
+                    Assert.assertEquals(countWithTopoWalk(head, other), count);
+                }
+            }
+            walk.close();
+
+            String withBitmaps = resolveAll(commits);
+            repo.close();
+            for (File pack : new File(gitDir, "objects/pack").listFiles()) {
+                if (pack.getName().endsWith(".bitmap")) {
+                    Assert.assertTrue(pack.delete());
+                }
+            }
+            repo = new FileRepository(gitDir);
+            Assert.assertEquals(resolveAll(commits), withBitmaps);
+        }
+    }
+
+    private String resolveAll(List<ObjectId> commits) throws IOException {
+        StringBuilder resolved = new StringBuilder();
+        for (int i = 1; i <= 30; i++) {
+            history.checkout(commits.get(commits.size() - i));
+            resolved.append(describe(Tags.getTopoTagVersionAndCount(repo, "p"))).append(", ")
+                    .append(describe(Tags.getHighestReachableTagVersionAndCount(repo, null))).append("; ");
+        }
+        return resolved.toString();
+    }
+
+    private int countWithTopoWalk(ObjectId head, ObjectId end) throws IOException {
+        RevWalk walk = new RevWalk(repo);
+        walk.markStart(walk.parseCommit(head));
+        walk.sort(RevSort.TOPO);
+        int count = 0;
+        for (RevCommit c = walk.next(); c != null && !c.equals(end); c = walk.next()) {
+            count++;
+        }
+        walk.close();
+        return count;
+    }
+
+    private static String describe(TagVersionAndCount tagVersionAndCount) {
+        return tagVersionAndCount.getVersion() + " " + tagVersionAndCount.getCount();
+    }
+
+    private void repack() throws IOException {
+        try {
+            new GC((FileRepository) repo).gc();
+        } catch (ParseException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Generates a mostly linear history with occasional feature branches merged back in, some of which fork
+     * before the latest tag.
+     */
+    private List<ObjectId> generateHistory(Random random, int size) throws IOException {
+        List<ObjectId> commits = new ArrayList<ObjectId>();
+        ObjectId mainline = history.commit(1000);
+        commits.add(mainline);
+        history.tag("v0.0.1", mainline);
+        history.tag("p-0.0.1", mainline);
+        for (int i = 1; i < size; i++) {
+            if (random.nextInt(8) == 0) {
+                ObjectId feature = commits.get(commits.size() - 1 - random.nextInt(Math.min(15, commits.size())));
+                for (int j = random.nextInt(3); j >= 0; j--) {
+                    feature = history.commit(1000 + i, feature);
+                    commits.add(feature);
+                }
+                mainline = history.commit(1000 + i, mainline, feature);
+            } else {
+                mainline = history.commit(1000 + i, mainline);
+            }
+            commits.add(mainline);
+            if (random.nextInt(10) == 0) {
+                history.tag("v0." + i + ".0", mainline);
+                history.tag("p-0." + i + ".0", mainline);
+            }
+        }
+        history.checkout(mainline);
+        return commits;
+    }
+
+}
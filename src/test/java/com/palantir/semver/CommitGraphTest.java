@@ -0,0 +1,209 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.MessageRevFilter;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class CommitGraphTest {
+
+    private Repository repo;
+    private TestHistories history;
+    private File graphFile;
+
+    @Before
+    public void createRepository() throws IOException {
+        File repoDir = Files.createTempDir();
+        repo = new FileRepository(new File(repoDir, ".git"));
+        repo.create();
+        history = new TestHistories(repo);
+        graphFile = new File(repo.getDirectory(), "objects/info/commit-graph");
+    }
+
+    @Test
+    public void testMissingOrUnreadableGraphIsIgnored() throws IOException {
+        Assert.assertNull(CommitGraph.open(repo));
+        graphFile.getParentFile().mkdirs();
+        Files.write("not a commit-graph", graphFile, Charsets.UTF_8);
+        Assert.assertNull(CommitGraph.open(repo));
+    }
+
+    @Test
+    public void testGraphMatchesCommitObjects() throws IOException {
+        List<ObjectId> commits = generateHistory(new Random(0), 200);
+        writeCommitGraph(commits);
+        CommitGraph graph = CommitGraph.open(repo);
+        Assert.assertNotNull(graph);
+        Assert.assertEquals(commits.size(), graph.getCommitCount());
+
+        RevWalk walk = new RevWalk(repo);
+        for (ObjectId id : commits) {
+            RevCommit commit = walk.parseCommit(id);
+            int position = graph.findCommit(id);
+            Assert.assertEquals(id, graph.getCommitId(position));
+            Assert.assertEquals(commit.getTree().getId(), graph.getTreeId(position));
+            Assert.assertEquals(commit.getCommitTime(), graph.getCommitTime(position));
+            int[] parents = graph.getParents(position);
+            Assert.assertEquals(commit.getParentCount(), parents.length);
+            for (int i = 0; i < parents.length; i++) {
+                Assert.assertEquals(commit.getParent(i).getId(), graph.getCommitId(parents[i]));
+                Assert.assertTrue(graph.getGeneration(parents[i]) < graph.getGeneration(position));
+            }
+        }
+        walk.close();
+        Assert.assertEquals(-1, graph.findCommit(history.getEmptyTree()));
+    }
+
+    @Test
+    public void testGraphIsSharedUntilItsFileIsReplaced() throws IOException {
+        List<ObjectId> commits = generateHistory(new Random(3), 20);
+        writeCommitGraph(commits.subList(0, 10));
+        CommitGraph graph = CommitGraph.open(repo);
+        Assert.assertSame(graph, CommitGraph.open(repo));
+        RevWalk walk = CommitGraph.newRevWalk(repo);
+        Assert.assertSame(graph, CommitGraph.of(walk.getObjectReader()));
+        walk.close();
+
+        writeCommitGraph(commits);
+        CommitGraph replaced = CommitGraph.open(repo);
+        Assert.assertNotSame(graph, replaced);
+        Assert.assertEquals(commits.size(), replaced.getCommitCount());
+    }
+
+    @Test
+    public void testGraphWalkNeverReadsCommitBodies() throws IOException {
+        writeCommitGraph(generateHistory(new Random(4), 5));
+        RevWalk walk = CommitGraph.newRevWalk(repo);
+        try {
+            Assert.assertFalse(walk.isRetainBody());
+            walk.setRetainBody(true);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Commit bodies are not read by this walk", e.getMessage());
+        }
+        try {
+            walk.setRevFilter(MessageRevFilter.create("commit"));
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Commit bodies are not read by this walk", e.getMessage());
+        } finally {
+            walk.close();
+        }
+    }
+
+    @Test
+    public void testReachabilityMatchesWalk() throws IOException {
+        Random random = new Random(1);
+        List<ObjectId> commits = generateHistory(random, 200);
+        writeCommitGraph(commits);
+        CommitGraph graph = CommitGraph.open(repo);
+        RevWalk walk = new RevWalk(repo);
+        for (int i = 0; i < 500; i++) {
+            RevCommit from = walk.parseCommit(commits.get(random.nextInt(commits.size())));
+            RevCommit to = walk.parseCommit(commits.get(random.nextInt(commits.size())));
+            Assert.assertEquals(walk.isMergedInto(to, from), graph.isReachable(
+                    Collections.singletonList(graph.findCommit(from)), graph.findCommit(to)));
+            walk.reset();
+        }
+        walk.close();
+    }
+
+    @Test
+    public void testResolutionMatchesWithoutGraph() throws IOException {
+        Random random = new Random(2);
+        List<ObjectId> commits = generateHistory(random, 150);
+        writeCommitGraph(commits);
+        // Commits made after the graph was written are read from the object database
+        for (int i = 0; i < 10; i++) {
+            commits.add(history.commit(2000 + i, commits.get(commits.size() - 1 - random.nextInt(5))));
+        }
+        history.tag("v3.0.0", commits.get(commits.size() - 2));
+        for (int i = 0; i < 20; i++) {
+            history.checkout(commits.get(commits.size() - 1 - random.nextInt(commits.size() / 2)));
+            String withGraph = resolveAll();
+            File disabled = new File(graphFile.getPath() + ".disabled");
+            Assert.assertTrue(graphFile.renameTo(disabled));
+            Assert.assertEquals(resolveAll(), withGraph);
+            Assert.assertTrue(disabled.renameTo(graphFile));
+        }
+    }
+
+    private String resolveAll() throws IOException {
+        return describe(Tags.getLatestTagVersionAndCount(repo, null))
+                + " " + describe(Tags.getTopoTagVersionAndCount(repo, "p"))
+                + " " + describe(Tags.getHighestReachableTagVersionAndCount(repo, null));
+    }
+
+    private static String describe(TagVersionAndCount tagVersionAndCount) {
+        return tagVersionAndCount.getVersion() + "+" + tagVersionAndCount.getCount();
+    }
+
+    private void writeCommitGraph(List<ObjectId> commits) throws IOException {
+        int exitCode;
+        try {
+            Process git = new ProcessBuilder("git", "commit-graph", "write", "--stdin-commits")
+                    .directory(repo.getDirectory())
+                    .redirectErrorStream(true)
+                    .start();
+            StringBuilder input = new StringBuilder();
+            for (ObjectId commit : commits) {
+                input.append(commit.name()).append('\n');
+            }
+            git.getOutputStream().write(input.toString().getBytes(Charsets.UTF_8));
+            git.getOutputStream().close();
+            git.getInputStream().close();
+            exitCode = git.waitFor();
+        } catch (IOException e) {
+            exitCode = -1;
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        Assume.assumeTrue("git commit-graph is not available", exitCode == 0 && graphFile.isFile());
+    }
+
+    /**
+     * Generates a history with merges of up to four parents, tagging some of the commits.
+     */
+    private List<ObjectId> generateHistory(Random random, int size) throws IOException {
+        List<ObjectId> commits = new ArrayList<ObjectId>();
+        commits.add(history.commit(1000));
+        history.tag("v0.0.1", commits.get(0));
+        history.tag("p-0.0.1", commits.get(0));
+        for (int i = 1; i < size; i++) {
+            int parentCount = random.nextInt(6) == 0 ? 2 + random.nextInt(3) : 1;
+            List<ObjectId> parents = new ArrayList<ObjectId>();
+            for (int j = 0; j < parentCount; j++) {
+                ObjectId parent = commits.get(commits.size() - 1 - random.nextInt(Math.min(10, commits.size())));
+                if (!parents.contains(parent)) {
+                    parents.add(parent);
+                }
+            }
+            ObjectId commit = history.commit(1000 + i - random.nextInt(20),
+                    parents.toArray(new ObjectId[parents.size()]));
+            commits.add(commit);
+            if (random.nextInt(8) == 0) {
+                history.tag((random.nextBoolean() ? "v" : "p-") + random.nextInt(3) + "." + random.nextInt(3) + "." + i,
+                        commit);
+            }
+        }
+        history.checkout(commits.get(commits.size() - 1));
+        return commits;
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.palantir.semver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeferredSemverVersionTest {
+
+    private static final SemverVersion VERSION = new SemverVersion("1.2.3-4-gabcdef0", "1.2.3", "abcdef0", 4, null, false);
+
+    @Test
+    public void testResolvesOnlyWhenRead() {
+        final AtomicInteger resolutions = new AtomicInteger();
+        DeferredSemverVersion version = new DeferredSemverVersion(new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() {
+                resolutions.incrementAndGet();
+                return VERSION;
+            }
+        });
+        Assert.assertFalse(version.isResolved());
+        Assert.assertEquals(0, resolutions.get());
+
+        Assert.assertEquals("1.2.3-4-gabcdef0", version.toString());
+        Assert.assertEquals("1.2.3", version.getTagName());
+        Assert.assertEquals(Integer.valueOf(4), version.getCommitCount());
+        Assert.assertSame(VERSION, version.get());
+        Assert.assertTrue(version.isResolved());
+        Assert.assertEquals(1, resolutions.get());
+    }
+
+    @Test
+    public void testConcurrentReadersShareOneResolution() throws Exception {
+        final AtomicInteger resolutions = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final DeferredSemverVersion version = new DeferredSemverVersion(new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() throws InterruptedException {
+                resolutions.incrementAndGet();
+                Thread.sleep(50);
+                return VERSION;
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws InterruptedException {
+                        start.await();
+                        return version.toString();
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<String> result : results) {
+                Assert.assertEquals("1.2.3-4-gabcdef0", result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(1, resolutions.get());
+    }
+
+    @Test
+    public void testStartedResolutionRunsInBackground() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Thread> resolvingThread = new AtomicReference<Thread>();
+        DeferredSemverVersion version = new DeferredSemverVersion(new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() throws InterruptedException {
+                resolvingThread.set(Thread.currentThread());
+                started.countDown();
+                release.await();
+                return VERSION;
+            }
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertSame(version, version.start(executor));
+            started.await();
+            Assert.assertFalse(version.isResolved());
+            release.countDown();
+            Assert.assertEquals("1.2.3-4-gabcdef0", version.toString());
+            Assert.assertNotSame(Thread.currentThread(), resolvingThread.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReaderResolvesIfExecutorHasNotStarted() {
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        final AtomicInteger resolutions = new AtomicInteger();
+        DeferredSemverVersion version = new DeferredSemverVersion(new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() {
+                resolutions.incrementAndGet();
+                return VERSION;
+            }
+        }).start(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+        Assert.assertEquals("1.2.3-4-gabcdef0", version.toString());
+        for (Runnable command : queued) {
+            command.run();
+        }
+        Assert.assertEquals(1, resolutions.get());
+    }
+
+    @Test
+    public void testFailuresAreRethrown() {
+        final SemverGitflowPlugin.VersionApplicationException failure =
+                new SemverGitflowPlugin.VersionApplicationException("not a git repository");
+        DeferredSemverVersion version = new DeferredSemverVersion(new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() {
+                throw failure;
+            }
+        });
+        try {
+            version.toString();
+            Assert.fail();
+        } catch (SemverGitflowPlugin.VersionApplicationException e) {
+            Assert.assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void testResolutionThatHasNotStartedIsCancelled() {
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        final AtomicInteger resolutions = new AtomicInteger();
+        DeferredSemverVersion version = new DeferredSemverVersion(new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() {
+                resolutions.incrementAndGet();
+                return VERSION;
+            }
+        }).start(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+        version.cancelOrAwait();
+        for (Runnable command : queued) {
+            command.run();
+        }
+        Assert.assertEquals(0, resolutions.get());
+        try {
+            version.toString();
+            Assert.fail();
+        } catch (SemverGitflowPlugin.VersionApplicationException e) {
+            Assert.assertEquals(0, resolutions.get());
+        }
+    }
+
+    @Test
+    public void testStartedResolutionIsAwaited() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger resolutions = new AtomicInteger();
+        DeferredSemverVersion version = new DeferredSemverVersion(new Callable<SemverVersion>() {
+            @Override
+            public SemverVersion call() throws InterruptedException {
+                started.countDown();
+                Thread.sleep(50);
+                resolutions.incrementAndGet();
+                return VERSION;
+            }
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            version.start(executor);
+            started.await();
+            version.cancelOrAwait();
+            Assert.assertEquals(1, resolutions.get());
+            Assert.assertTrue(version.isResolved());
+            Assert.assertEquals("1.2.3-4-gabcdef0", version.toString());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
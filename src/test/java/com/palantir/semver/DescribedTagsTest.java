@@ -0,0 +1,272 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class DescribedTagsTest {
+
+    private Repository repo;
+    private TestHistories history;
+    private int tagNumber;
+
+    @Before
+    public void createRepository() throws IOException {
+        File repoDir = Files.createTempDir();
+        repo = new FileRepository(new File(repoDir, ".git"));
+        repo.create();
+        history = new TestHistories(repo);
+        tagNumber = 0;
+    }
+
+    @Test
+    public void testSemanticVersionTagIsDescribed() throws IOException, GitAPIException {
+        ObjectId base = history.commit(1000);
+        tag("v1.0.0", base);
+        history.checkout(history.commit(1002, history.commit(1001, base)));
+        TagVersionAndCount resolved = DescribedTags.getLatestTagVersionAndCount(repo);
+        Assert.assertEquals("v1.0.0", resolved.getVersion());
+        Assert.assertEquals(2, resolved.getCount());
+    }
+
+    @Test
+    public void testFirstParentLeadingToVersionWins() throws IOException, GitAPIException {
+        ObjectId base = history.commit(1000);
+        tag("v1.0.0", base);
+        ObjectId left = history.commit(1001, base);
+        tag("build-left", left);
+        ObjectId right = history.commit(1002, base);
+        tag("v2.0.0", right);
+        ObjectId merge = history.commit(1003, left, right);
+        tag("build-merge", merge);
+        history.checkout(merge);
+        TagVersionAndCount resolved = resolve();
+        Assert.assertEquals("v1.0.0", resolved.getVersion());
+        Assert.assertEquals(-1, resolved.getCount());
+        assertParity();
+    }
+
+    @Test
+    public void testCommitsSinceVersionFoundThroughParentsAreCounted() throws IOException, GitAPIException {
+        ObjectId base = history.commit(1000, history.commit(1000, history.commit(1000)));
+        ObjectId release = history.commit(1001, base);
+        tag("v1.0.0", release);
+        ObjectId tip = history.commit(1003, history.commit(1002, release));
+        tag("build-tip", tip);
+        history.checkout(tip);
+        TagVersionAndCount resolved = DescribedTags.getLatestTagVersionAndCount(repo);
+        Assert.assertEquals("v1.0.0", resolved.getVersion());
+        // Only the commits since the release, not those before it
+        Assert.assertEquals(2, resolved.getCount());
+    }
+
+    @Test
+    public void testCommitsSinceVersionOnMergedBranchAreCounted() throws IOException, GitAPIException {
+        ObjectId base = history.commit(1000);
+        ObjectId left = history.commit(1001, history.commit(1001, base));
+        tag("v1.0.0", left);
+        ObjectId right = history.commit(1003, history.commit(1002, history.commit(1002, base)));
+        ObjectId merge = history.commit(1004, left, right);
+        tag("build-merge", merge);
+        history.checkout(history.commit(1005, merge));
+        TagVersionAndCount resolved = DescribedTags.getLatestTagVersionAndCount(repo);
+        Assert.assertEquals("v1.0.0", resolved.getVersion());
+        // The commits of the other branch, the merge and the commit after it
+        Assert.assertEquals(5, resolved.getCount());
+    }
+
+    @Test
+    public void testCountsMatchDescribeOnMergeHeavyHistories() throws IOException, GitAPIException {
+        for (int seed = 0; seed < 30; seed++) {
+            createRepository();
+            Random random = new Random(seed);
+            List<ObjectId> commits = generateHistory(random, 30);
+            for (int i = 0; i < 4; i++) {
+                ObjectId head = commits.get(commits.size() - 1 - random.nextInt(commits.size() / 2));
+                history.checkout(head);
+                TagVersionAndCount resolved = resolve();
+                if (resolved == null) {
+                    continue;
+                }
+                Assert.assertEquals(countSince(head, resolved.getVersion()),
+                        DescribedTags.getLatestTagVersionAndCount(repo).getCount());
+            }
+        }
+    }
+
+    @Test
+    public void testNoVersionThroughAnyParent() throws IOException, GitAPIException {
+        ObjectId base = history.commit(1000);
+        tag("build-base", base);
+        ObjectId merge = history.commit(1003, history.commit(1001, base), history.commit(1002, base));
+        tag("build-merge", merge);
+        history.checkout(merge);
+        Assert.assertNull(resolve());
+        assertParity();
+    }
+
+    @Test
+    public void testParityOnMergeHeavyHistories() throws IOException, GitAPIException {
+        for (int seed = 0; seed < 30; seed++) {
+            createRepository();
+            Random random = new Random(seed);
+            List<ObjectId> commits = generateHistory(random, 30);
+            for (int i = 0; i < 4; i++) {
+                history.checkout(commits.get(commits.size() - 1 - random.nextInt(commits.size() / 2)));
+                assertParity();
+            }
+        }
+    }
+
+    @Test
+    public void testDeepChainOfMergedBranchesIsResolvedOnce() throws IOException, GitAPIException {
+        // Searching every path through these would take 2^150 describes
+        ObjectId merge = history.commit(1000);
+        tag("v1.0.0", merge);
+        for (int i = 0; i < 150; i++) {
+            ObjectId left = history.commit(1001 + i, merge);
+            ObjectId right = history.commit(1001 + i, merge);
+            merge = history.commit(1001 + i, left, right);
+            tag("build-" + i, merge);
+        }
+        history.checkout(merge);
+        Assert.assertEquals("v1.0.0", resolve().getVersion());
+    }
+
+    private TagVersionAndCount resolve() throws IOException, GitAPIException {
+        return DescribedTags.resolveLatestTagVersionAndCount(repo, new TagVersionAndCount("HEAD", 0), 0);
+    }
+
+    /**
+     * @return the number of commits reachable from head but not from the tag, as git rev-list --count gives
+     */
+    private int countSince(ObjectId head, String tag) throws IOException {
+        RevWalk walk = new RevWalk(repo);
+        try {
+            walk.markStart(walk.parseCommit(head));
+            walk.markUninteresting(walk.parseCommit(repo.resolve(tag)));
+            int count = 0;
+            for (RevCommit commit = walk.next(); commit != null; commit = walk.next()) {
+                count++;
+            }
+            return count;
+        } finally {
+            walk.close();
+        }
+    }
+
+    private void assertParity() throws IOException, GitAPIException {
+        TagVersionAndCount expected = resolveRecursively(repo, new TagVersionAndCount("HEAD", 0), 0);
+        TagVersionAndCount actual = resolve();
+        if (expected == null) {
+            Assert.assertNull(actual);
+        } else {
+            Assert.assertEquals(expected.getVersion(), actual.getVersion());
+            Assert.assertEquals(expected.getCount(), actual.getCount());
+        }
+    }
+
+    /**
+     * The resolution as it was before it was made iterative, describing every path through the parents.
+     */
+    private static TagVersionAndCount resolveRecursively(Repository repo, TagVersionAndCount curTag, int recur)
+            throws IOException, GitAPIException {
+        Git git = new Git(repo);
+        String described;
+        try {
+            described = git.describe().setTarget(curTag.getVersion()).call();
+        } finally {
+            git.close();
+        }
+        if (described == null) {
+            return null;
+        }
+        TagVersionAndCount describedTag = parseDescribeOutput(described);
+        if (!SemanticVersions.isValid(GitRepos.stripVFromVersionString(describedTag.getVersion()))) {
+            RevWalk revWalk = new RevWalk(repo);
+            RevCommit describedRev;
+            try {
+                describedRev = revWalk.parseCommit(repo.resolve(describedTag.getVersion()));
+            } finally {
+                revWalk.close();
+            }
+            TagVersionAndCount mostRecentParentTag = new TagVersionAndCount("", Integer.MAX_VALUE);
+            for (RevCommit parent : describedRev.getParents()) {
+                TagVersionAndCount resolvedParentTag =
+                        resolveRecursively(repo, new TagVersionAndCount(parent.name(), -1), recur + 1);
+                if (resolvedParentTag != null && resolvedParentTag.getCount() < mostRecentParentTag.getCount()) {
+                    mostRecentParentTag = resolvedParentTag;
+                }
+            }
+            return mostRecentParentTag.getCount() == Integer.MAX_VALUE ? null : mostRecentParentTag;
+        } else if (recur != 0) {
+            return new TagVersionAndCount(describedTag.getVersion(), -1);
+        }
+        return describedTag;
+    }
+
+    private static TagVersionAndCount parseDescribeOutput(String described) {
+        Matcher matcher = Pattern.compile("^(.+)-([0-9]*)-g[0-9a-f]+$").matcher(described);
+        if (matcher.matches()) {
+            return new TagVersionAndCount(matcher.group(1), Integer.parseInt(matcher.group(2)));
+        }
+        return new TagVersionAndCount(described, 0);
+    }
+
+    /**
+     * Generates a history with frequent merges, where most tags are not versions.
+     */
+    private List<ObjectId> generateHistory(Random random, int size) throws IOException {
+        List<ObjectId> commits = new ArrayList<ObjectId>();
+        for (int i = 0; i < size; i++) {
+            ObjectId commit;
+            if (commits.isEmpty()) {
+                commit = history.commit(1000 + i);
+            } else if (commits.size() > 2 && random.nextInt(2) == 0) {
+                ObjectId first = pickRecent(random, commits);
+                ObjectId second = pickRecent(random, commits);
+                commit = first.equals(second) ? history.commit(1000 + i, first)
+                        : history.commit(1000 + i, first, second);
+            } else {
+                commit = history.commit(1000 + i, pickRecent(random, commits));
+            }
+            commits.add(commit);
+            int kind = random.nextInt(6);
+            if (kind < 3) {
+                tag("build-" + tagNumber++, commit);
+            } else if (kind == 3) {
+                tag("v" + random.nextInt(3) + "." + random.nextInt(3) + "." + tagNumber++, commit);
+            }
+        }
+        return commits;
+    }
+
+    private static ObjectId pickRecent(Random random, List<ObjectId> commits) {
+        return commits.get(commits.size() - 1 - random.nextInt(Math.min(6, commits.size())));
+    }
+
+    /**
+     * Tags are annotated, since git describe only looks at annotated tags.
+     */
+    private void tag(String name, ObjectId commit) throws IOException {
+        history.tag(name, commit, true);
+    }
+
+}
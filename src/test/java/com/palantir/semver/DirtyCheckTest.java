@@ -0,0 +1,223 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class DirtyCheckTest {
+
+    private static final PersonIdent COMMITTER = new PersonIdent("a", "a@b");
+    private static final int CHANGES = 14;
+
+    private File repoDir;
+    private Git git;
+
+    @Test
+    public void testEmptyRepository() throws IOException, GitAPIException {
+        repoDir = Files.createTempDir();
+        git = Git.init().setDirectory(repoDir).call();
+        assertParity();
+        write("a.txt", "a");
+        assertParity();
+        git.add().addFilepattern("a.txt").call();
+        assertParity();
+    }
+
+    @Test
+    public void testParityWithStatus() throws IOException, GitAPIException {
+        for (int change = 0; change < CHANGES; change++) {
+            createRepository();
+            makeChange(change);
+            assertParity();
+        }
+    }
+
+    @Test
+    public void testParityWithStatusForCombinedChanges() throws IOException, GitAPIException {
+        for (int first = 0; first < CHANGES; first++) {
+            for (int second = first + 1; second < CHANGES; second++) {
+                createRepository();
+                makeChange(first);
+                makeChange(second);
+                assertParity();
+            }
+        }
+    }
+
+    @Test
+    public void testParityWithStatusForConflicts() throws IOException, GitAPIException {
+        createRepository();
+        git.branchCreate().setName("other").call();
+        write("dir/b.txt", "ours");
+        git.commit().setAll(true).setCommitter(COMMITTER).setMessage("ours").call();
+        git.checkout().setName("other").call();
+        write("dir/b.txt", "theirs");
+        git.commit().setAll(true).setCommitter(COMMITTER).setMessage("theirs").call();
+        git.merge().include(git.getRepository().resolve("master")).call();
+        Assert.assertFalse(git.status().call().getConflicting().isEmpty());
+        assertParity();
+    }
+
+    @Test
+    public void testParityWithStatusOnLargerTrees() throws IOException, GitAPIException {
+        Random random = new Random(0);
+        for (int round = 0; round < 5; round++) {
+            repoDir = Files.createTempDir();
+            git = Git.init().setDirectory(repoDir).call();
+            write(".gitignore", "*.log\n");
+            for (int i = 0; i < 300; i++) {
+                write(randomPath(random), "content " + i);
+            }
+            git.add().addFilepattern(".").call();
+            git.commit().setCommitter(COMMITTER).setMessage("initial commit").call();
+            for (int i = 0; i < 10; i++) {
+                String path = randomPath(random);
+                File file = new File(repoDir, path);
+                if (file.isFile() && random.nextBoolean()) {
+                    Assert.assertTrue(file.delete());
+                } else {
+                    write(path + (random.nextInt(4) == 0 ? ".log" : ""), "changed " + i);
+                }
+            }
+            assertParity();
+        }
+    }
+
+    @Test
+    public void testUntrackedFilesCanBeIgnored() throws IOException, GitAPIException {
+        createRepository();
+        write("newdir/deeper/x.txt", "x");
+        Assert.assertTrue(DirtyCheck.isDirty(git.getRepository(), true));
+        Assert.assertFalse(DirtyCheck.isDirty(git.getRepository(), false));
+        write("dir/b.txt", "changed");
+        Assert.assertTrue(DirtyCheck.isDirty(git.getRepository(), false));
+    }
+
+    private void assertParity() throws IOException, GitAPIException {
+        Repository repo = git.getRepository();
+        Status status = git.status().call();
+        int filesStated = DirtyCheck.scan(repo, repo.readDirCache(), true, false, 1).getFilesStated();
+        for (int taskCount : new int[] {1, 2, 16}) {
+            DirtyCheck check = DirtyCheck.scan(repo, repo.readDirCache(), true, false, taskCount);
+            Assert.assertEquals(sorted(status.getAdded()), check.getAdded());
+            Assert.assertEquals(sorted(status.getChanged()), check.getChanged());
+            Assert.assertEquals(sorted(status.getRemoved()), check.getRemoved());
+            Assert.assertEquals(sorted(status.getMissing()), check.getMissing());
+            Assert.assertEquals(sorted(status.getModified()), check.getModified());
+            Assert.assertEquals(sorted(status.getUntracked()), check.getUntracked());
+            Assert.assertEquals(sorted(status.getConflicting()), check.getConflicting());
+            Assert.assertEquals(sorted(status.getIgnoredNotInIndex()), check.getIgnoredNotInIndex());
+            Assert.assertEquals(status.isClean(), check.isClean());
+            Assert.assertEquals(filesStated, check.getFilesStated());
+
+            Assert.assertEquals(!status.isClean(),
+                    !DirtyCheck.scan(repo, repo.readDirCache(), true, true, taskCount).isClean());
+            Assert.assertEquals(status.hasUncommittedChanges(),
+                    !DirtyCheck.scan(repo, repo.readDirCache(), false, true, taskCount).isClean());
+        }
+    }
+
+    private static Set<String> sorted(Set<String> paths) {
+        return new TreeSet<String>(paths);
+    }
+
+    private void createRepository() throws IOException, GitAPIException {
+        repoDir = Files.createTempDir();
+        git = Git.init().setDirectory(repoDir).call();
+        write(".gitignore", "*.log\nbuild/\n");
+        write("a.txt", "aaaa");
+        write("dir/b.txt", "bbbb");
+        write("dir/sub/c.txt", "cccc");
+        write("dir/sub/d.txt", "dddd");
+        write("other/e.txt", "eeee");
+        write("other/deep/er/f.txt", "ffff");
+        git.add().addFilepattern(".").call();
+        git.commit().setCommitter(COMMITTER).setMessage("initial commit").call();
+    }
+
+    private void makeChange(int change) throws IOException, GitAPIException {
+        File a = new File(repoDir, "a.txt");
+        switch (change) {
+            case 0:
+                break;
+            case 1:
+                write("a.txt", "a longer line");
+                break;
+            case 2:
+                long lastModified = a.lastModified();
+                write("a.txt", "abcd");
+                a.setLastModified(lastModified);
+                break;
+            case 3:
+                Assert.assertTrue(new File(repoDir, "dir/b.txt").delete());
+                break;
+            case 4:
+                write("new.txt", "new");
+                break;
+            case 5:
+                write("newdir/deeper/x.txt", "x");
+                break;
+            case 6:
+                write("x.log", "log");
+                write("build/out.txt", "out");
+                write("dir/sub/y.log", "log");
+                break;
+            case 7:
+                write("other/deep/added.txt", "added");
+                git.add().addFilepattern("other/deep/added.txt").call();
+                break;
+            case 8:
+                git.rm().setCached(true).addFilepattern("dir/sub/c.txt").call();
+                break;
+            case 9:
+                a.setExecutable(!a.canExecute());
+                break;
+            case 10:
+                write("dir/b.txt", "staged");
+                git.add().addFilepattern("dir/b.txt").call();
+                break;
+            case 11:
+                write("a.txt", "aaaa");
+                a.setLastModified(a.lastModified() + 5000);
+                break;
+            case 12:
+                Assert.assertTrue(new File(repoDir, "emptydir/deeper").mkdirs());
+                break;
+            case 13:
+                write("other/deep/er/f.txt", "staged");
+                git.add().addFilepattern("other/deep/er/f.txt").call();
+                write("other/deep/er/f.txt", "ffff");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown change " + change);
+        }
+    }
+
+    private static String randomPath(Random random) {
+        StringBuilder path = new StringBuilder();
+        for (int depth = random.nextInt(4); depth > 0; depth--) {
+            path.append("d").append(random.nextInt(4)).append('/');
+        }
+        return path.append("f").append(random.nextInt(20)).toString();
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(repoDir, path);
+        file.getParentFile().mkdirs();
+        Files.write(content, file, Charsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class RepositoryPoolTest {
+
+    private static final PersonIdent COMMITTER = new PersonIdent("a", "a@b");
+
+    private File repoDir;
+    private String repoLocation;
+
+    @Before
+    public void createRepository() throws GitAPIException, IOException, ParseException {
+        repoDir = Files.createTempDir();
+        repoLocation = new File(repoDir, ".git").getAbsolutePath();
+        Git git = Git.init().setDirectory(repoDir).call();
+        for (int i = 0; i < 20; i++) {
+            git.commit().setCommitter(COMMITTER).setMessage("commit " + i).call();
+            if (i % 5 == 0) {
+                git.tag().setName("v1." + i + ".0").call();
+            }
+        }
+        // Reading from a pack keeps a file open for as long as the repository is
+        new GC((FileRepository) git.getRepository()).gc();
+        git.getRepository().close();
+        new File(repoDir, "subproject").mkdir();
+    }
+
+    @After
+    public void closeRepositories() {
+        RepositoryPool.closeAll();
+        VersionCache.clear();
+    }
+
+    @Test
+    public void testProjectsShareRepositoryUntilClosed() throws IOException {
+        Repository repo = RepositoryPool.acquire(repoLocation);
+        Repository subprojectRepo = RepositoryPool.acquire(new File(repoDir, "subproject/.git").getAbsolutePath());
+        Assert.assertSame(repo, subprojectRepo);
+        RepositoryPool.release(subprojectRepo);
+        RepositoryPool.release(repo);
+
+        RepositoryPool.closeAll();
+        Repository reopened = RepositoryPool.acquire(repoLocation);
+        Assert.assertNotSame(repo, reopened);
+        RepositoryPool.release(reopened);
+    }
+
+    @Test(expected = SemverGitflowPlugin.VersionApplicationException.class)
+    public void testNoRepository() throws IOException {
+        RepositoryPool.acquire(new File(Files.createTempDir(), ".git").getAbsolutePath());
+    }
+
+    @Test
+    public void testFileDescriptorsAreStableOverManyResolutions() throws IOException, GitAPIException {
+        File fileDescriptors = new File("/proc/self/fd");
+        Assume.assumeTrue(fileDescriptors.isDirectory());
+        resolve(0);
+        RepositoryPool.closeAll();
+        int openFiles = fileDescriptors.list().length;
+
+        for (int i = 0; i < 1000; i++) {
+            resolve(i);
+            if (i % 50 == 49) {
+                // A build finishing
+                RepositoryPool.closeAll();
+            }
+        }
+        RepositoryPool.closeAll();
+        Assert.assertTrue(fileDescriptors.list().length <= openFiles + 2);
+    }
+
+    private void resolve(int i) throws IOException, GitAPIException {
+        if (i % 2 == 0) {
+            Assert.assertEquals("1.15.0-4+g", RepoSemanticVersions.getRepoVersion(repoLocation, null)
+                    .toString().substring(0, 10));
+        } else {
+            VersionCache.clear();
+            Assert.assertEquals("1.15.0-4+g", VersionCache.getVersion(repoLocation, null, null, false, true, false,
+                    this).toString().substring(0, 10));
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class ResolutionModesTest {
+
+    private static final PersonIdent COMMITTER = new PersonIdent("a", "a@b");
+
+    private Git git;
+    private Repository repo;
+
+    @Before
+    public void createRepository() throws GitAPIException {
+        File repoDir = Files.createTempDir();
+        git = Git.init().setDirectory(repoDir).call();
+        repo = git.getRepository();
+        git.commit().setCommitter(COMMITTER).setMessage("initial commit").call();
+        git.tag().setName("v1.0.0").setTagger(COMMITTER).setAnnotated(true).call();
+        git.tag().setName("p-2.0.0").setTagger(COMMITTER).setAnnotated(true).call();
+        git.commit().setCommitter(COMMITTER).setMessage("second commit").call();
+        git.commit().setCommitter(COMMITTER).setMessage("third commit").call();
+    }
+
+    @After
+    public void closeRepository() {
+        repo.close();
+    }
+
+    @Test
+    public void testModesWithoutPrefixAreMeasured() throws IOException {
+        List<ResolutionModes.Measurement> measurements = ResolutionModes.measure(repo, null);
+        Assert.assertEquals(4, measurements.size());
+        Assert.assertEquals(ResolutionModes.Mode.DEFAULT, measurements.get(0).getMode());
+        Assert.assertEquals(ResolutionModes.Mode.TOPO, measurements.get(1).getMode());
+        Assert.assertEquals(ResolutionModes.Mode.DESCRIBE, measurements.get(2).getMode());
+        Assert.assertEquals(ResolutionModes.Mode.HIGHEST, measurements.get(3).getMode());
+        ResolutionModes.Measurement latest = measurements.get(0);
+        Assert.assertEquals("1.0.0", latest.getAnswer().getVersion());
+        Assert.assertEquals(2, latest.getAnswer().getCount());
+        Assert.assertEquals(3, latest.getCommitsVisited());
+        // Both tags of the tagged commit are looked at, though only one is a version
+        Assert.assertEquals(2, latest.getTagsConsidered());
+        Assert.assertTrue(measurements.get(2).agreesWith(latest));
+        Assert.assertEquals("v1.0.0", measurements.get(2).getAnswer().getVersion());
+        Assert.assertFalse(measurements.get(1).agreesWith(latest));
+        Assert.assertTrue(measurements.get(3).agreesWith(latest));
+        Assert.assertNotEquals(ResolutionModes.Mode.TOPO,
+                ResolutionModes.recommend(measurements, ResolutionModes.Mode.DEFAULT).getMode());
+        Assert.assertNull(ResolutionModes.recommend(measurements, ResolutionModes.Mode.PREFIX));
+    }
+
+    @Test
+    public void testPrefixModesAreMeasuredAndRecommendedSeparately() throws IOException {
+        List<ResolutionModes.Measurement> measurements = ResolutionModes.measure(repo, "p");
+        Assert.assertEquals(7, measurements.size());
+        Assert.assertEquals(ResolutionModes.Mode.PREFIX, measurements.get(4).getMode());
+        Assert.assertEquals("p-2.0.0", measurements.get(4).getAnswer().getVersion());
+        Assert.assertTrue(measurements.get(5).agreesWith(measurements.get(4)));
+        Assert.assertEquals(1, measurements.get(5).getTagsConsidered());
+        Assert.assertEquals(ResolutionModes.Mode.HIGHEST_PREFIX, measurements.get(6).getMode());
+        Assert.assertTrue(measurements.get(6).agreesWith(measurements.get(4)));
+        ResolutionModes.Measurement cheapest = ResolutionModes.recommend(measurements, ResolutionModes.Mode.PREFIX);
+        Assert.assertTrue(cheapest.getMode().getName(), cheapest.getMode() == ResolutionModes.Mode.PREFIX
+                || cheapest.getMode() == ResolutionModes.Mode.TOPO_PREFIX
+                || cheapest.getMode() == ResolutionModes.Mode.HIGHEST_PREFIX);
+
+        String table = ResolutionModes.format(measurements);
+        Assert.assertTrue(table, table.startsWith("Mode "));
+        Assert.assertTrue(table, table.contains("topo prefix "));
+        Assert.assertTrue(table, table.contains("highest prefix "));
+        Assert.assertTrue(table, table.contains("Cheapest mode that gives the default version: "));
+        Assert.assertTrue(table, table.contains("Cheapest mode that gives the prefix version: "));
+    }
+
+    @Test
+    public void testOnlyModesThatAgreeAreRecommended() {
+        List<ResolutionModes.Measurement> measurements = Arrays.asList(
+                measurement(ResolutionModes.Mode.DEFAULT, "1.0.0", 2, 300000000, 0),
+                measurement(ResolutionModes.Mode.TOPO, "1.0.0", 3, 100000000, 0),
+                measurement(ResolutionModes.Mode.DESCRIBE, "v1.0.0", 2, 200000000, 0),
+                measurement(ResolutionModes.Mode.PREFIX, "1.0.0", 2, 50000000, 0));
+        Assert.assertEquals(ResolutionModes.Mode.DESCRIBE,
+                ResolutionModes.recommend(measurements, ResolutionModes.Mode.DEFAULT).getMode());
+    }
+
+    @Test
+    public void testTimesWithinNoiseAreDecidedByCommitsVisited() {
+        List<ResolutionModes.Measurement> measurements = Arrays.asList(
+                measurement(ResolutionModes.Mode.DEFAULT, "1.0.0", 2, 1000000, 100),
+                measurement(ResolutionModes.Mode.TOPO, "1.0.0", 2, 1200000, 50),
+                measurement(ResolutionModes.Mode.HIGHEST, "1.0.0", 2, 900000, 200));
+        Assert.assertEquals(ResolutionModes.Mode.TOPO,
+                ResolutionModes.recommend(measurements, ResolutionModes.Mode.DEFAULT).getMode());
+
+        measurements = Arrays.asList(
+                measurement(ResolutionModes.Mode.DEFAULT, "1.0.0", 2, 30000000, 100),
+                measurement(ResolutionModes.Mode.TOPO, "1.0.0", 2, 20000000, 200));
+        Assert.assertEquals(ResolutionModes.Mode.TOPO,
+                ResolutionModes.recommend(measurements, ResolutionModes.Mode.DEFAULT).getMode());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMeasuringWhileAVersionIsResolvedFails() {
+        ResolutionProfile profile = ResolutionProfile.start("repo", "outer", null, null);
+        try {
+            ResolutionModes.measure(repo, null);
+        } finally {
+            ResolutionProfile.finish(profile);
+        }
+    }
+
+    @Test
+    public void testFailuresAreReported() throws IOException {
+        List<ResolutionModes.Measurement> measurements = ResolutionModes.measure(repo, "q");
+        Assert.assertNull(measurements.get(4).getAnswer());
+        Assert.assertNull(ResolutionModes.recommend(measurements, ResolutionModes.Mode.PREFIX));
+        Assert.assertTrue(ResolutionModes.format(measurements).contains("failed: Cannot find any matching tags"));
+    }
+
+    private static ResolutionModes.Measurement measurement(ResolutionModes.Mode mode, String version, int count,
+                                                           long nanos, long commitsVisited) {
+        return new ResolutionModes.Measurement(mode, new TagVersionAndCount(version, count), null, nanos,
+                commitsVisited, 0, 0);
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class ResolutionProfileTest {
+
+    private static final PersonIdent COMMITTER = new PersonIdent("a", "a@b");
+
+    private File repoDir;
+    private String repoLocation;
+    private File report;
+    private Git git;
+
+    @Before
+    public void createRepository() throws IOException, GitAPIException {
+        VersionCache.clear();
+        repoDir = Files.createTempDir();
+        repoLocation = new File(repoDir, ".git").getAbsolutePath();
+        report = new File(Files.createTempDir(), "gitsemver/resolution-profile.jsonl");
+        git = Git.init().setDirectory(repoDir).call();
+        Files.write("tracked", new File(repoDir, "tracked"), Charsets.UTF_8);
+        git.add().addFilepattern("tracked").call();
+        git.commit().setCommitter(COMMITTER).setMessage("initial commit").call();
+        git.tag().setName("v1.0.0").setTagger(COMMITTER).setAnnotated(true).call();
+        git.commit().setCommitter(COMMITTER).setMessage("second commit").call();
+        git.commit().setCommitter(COMMITTER).setMessage("third commit").call();
+        Files.write("untracked", new File(repoDir, "untracked"), Charsets.UTF_8);
+    }
+
+    @Test
+    public void testResolutionReportsEachPhaseAndCounter() throws IOException, GitAPIException {
+        Assert.assertTrue(VersionCache.getVersion(repoLocation, null, null, false, true, false, new Object(), report)
+                .toString().startsWith("1.0.0-2+g"));
+        List<String> lines = Files.readLines(report, Charsets.UTF_8);
+        Assert.assertEquals(1, lines.size());
+        String json = lines.get(0);
+        Assert.assertTrue(json, json.startsWith("{\"repository\":\"" + repoLocation.replace("\\", "\\\\") + "\""));
+        for (ResolutionProfile.Phase phase : ResolutionProfile.Phase.values()) {
+            Assert.assertTrue(json, json.contains("\"" + phase.getKey() + "\":"));
+        }
+        Assert.assertEquals(1, counter(json, ResolutionProfile.Counter.REFS_READ));
+        Assert.assertEquals(1, counter(json, ResolutionProfile.Counter.TAGS_PEELED));
+        Assert.assertEquals(3, counter(json, ResolutionProfile.Counter.COMMITS_VISITED));
+        Assert.assertEquals(2, counter(json, ResolutionProfile.Counter.FILES_STATED));
+        Assert.assertTrue(json, counter(json, ResolutionProfile.Counter.BYTES_INFLATED) > 0);
+    }
+
+    @Test
+    public void testCachedResolutionOnlyChecksTheWorkingTree() throws IOException, GitAPIException {
+        VersionCache.getVersion(repoLocation, null, null, false, true, false, new Object(), report);
+        VersionCache.getVersion(repoLocation, null, null, false, false, false, new Object(), report);
+        List<String> lines = Files.readLines(report, Charsets.UTF_8);
+        Assert.assertEquals(1, lines.size());
+        String json = lines.get(0);
+        Assert.assertEquals(0, counter(json, ResolutionProfile.Counter.TAGS_PEELED));
+        Assert.assertEquals(0, counter(json, ResolutionProfile.Counter.COMMITS_VISITED));
+        // The untracked file is still listed with the root directory
+        Assert.assertEquals(2, counter(json, ResolutionProfile.Counter.FILES_STATED));
+    }
+
+    @Test
+    public void testReportIsStartedOverByEachBuild() throws IOException, GitAPIException {
+        git.tag().setName("p-1.0.0").setAnnotated(false).call();
+        Object build = new Object();
+        VersionCache.getVersion(repoLocation, null, null, false, true, false, build, report);
+        VersionCache.getVersion(repoLocation, null, "p", false, true, false, build, report);
+        Assert.assertEquals(2, Files.readLines(report, Charsets.UTF_8).size());
+
+        VersionCache.getVersion(repoLocation, null, null, false, true, false, new Object(), report);
+        Assert.assertEquals(1, Files.readLines(report, Charsets.UTF_8).size());
+    }
+
+    @Test
+    public void testPrefixesResolvedTogetherAreProfiledTogether() throws IOException, GitAPIException {
+        git.tag().setName("p-1.0.0").setAnnotated(false).call();
+        git.tag().setName("q-1.0.0").setAnnotated(false).call();
+        VersionCache.getVersions(repoLocation, null, Arrays.asList("p", "q"), true, false, new Object(), report);
+        List<String> lines = Files.readLines(report, Charsets.UTF_8);
+        Assert.assertEquals(1, lines.size());
+        Assert.assertTrue(lines.get(0), lines.get(0).contains("\"request\":\"prefixes [p, q]\""));
+        // One walk for both, after which each prefix is read from the cache
+        Assert.assertEquals(3, counter(lines.get(0), ResolutionProfile.Counter.TAGS_PEELED));
+        Assert.assertEquals(3, counter(lines.get(0), ResolutionProfile.Counter.COMMITS_VISITED));
+    }
+
+    @Test
+    public void testPrefixesResolvedTogetherCheckTheWorkingTreeOnce() throws IOException, GitAPIException {
+        git.tag().setName("p-1.0.0").setAnnotated(false).call();
+        git.tag().setName("q-1.0.0").setAnnotated(false).call();
+        VersionCache.getVersions(repoLocation, null, Arrays.asList("p", "q"), true, false, null, report);
+        String json = Files.readLines(report, Charsets.UTF_8).get(0);
+        Assert.assertEquals(2, counter(json, ResolutionProfile.Counter.FILES_STATED));
+    }
+
+    @Test
+    public void testOnlyTheOutermostResolutionIsProfiled() {
+        ResolutionProfile profile = ResolutionProfile.start("repo", "outer", null, null);
+        try {
+            Assert.assertSame(profile, ResolutionProfile.current());
+            Assert.assertNull(ResolutionProfile.start("repo", "inner", null, null));
+            ResolutionProfile.count(ResolutionProfile.Counter.COMMITS_VISITED, 5);
+            ResolutionProfile.time(ResolutionProfile.Phase.WALK).stop();
+            Assert.assertEquals(5, profile.getCount(ResolutionProfile.Counter.COMMITS_VISITED));
+            Assert.assertTrue(profile.getNanos(ResolutionProfile.Phase.WALK) >= 0);
+        } finally {
+            ResolutionProfile.finish(profile);
+        }
+        Assert.assertNull(ResolutionProfile.current());
+        Assert.assertTrue(profile.getTotalNanos() >= 0);
+        // Without a profile, work goes uncounted
+        ResolutionProfile.count(ResolutionProfile.Counter.COMMITS_VISITED, 5);
+        ResolutionProfile.time(ResolutionProfile.Phase.WALK).stop();
+        Assert.assertEquals(5, profile.getCount(ResolutionProfile.Counter.COMMITS_VISITED));
+    }
+
+    @Test
+    public void testJsonEscapesTheRepository() {
+        ResolutionProfile profile = ResolutionProfile.start("C:\\repo \"x\"\n", "prefix null", null, null);
+        ResolutionProfile.finish(profile);
+        Assert.assertTrue(profile.toJson(), profile.toJson().startsWith(
+                "{\"repository\":\"C:\\\\repo \\\"x\\\"\\u000a\",\"request\":\"prefix null\",\"totalMillis\":"));
+    }
+
+    @Test
+    public void testFlightRecorderEventsAreDefinedWhenTheJvmHasThem() {
+        boolean hasFlightRecorder;
+        try {
+            Class.forName("jdk.jfr.EventFactory");
+            hasFlightRecorder = true;
+        } catch (ClassNotFoundException e) {
+            hasFlightRecorder = false;
+        }
+        Assert.assertEquals(hasFlightRecorder, FlightRecorderEvents.isAvailable());
+    }
+
+    private static long counter(String json, ResolutionProfile.Counter counter) {
+        Matcher matcher = Pattern.compile("\"" + counter.getKey() + "\":(\\d+)").matcher(json);
+        Assert.assertTrue(json, matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+
+}
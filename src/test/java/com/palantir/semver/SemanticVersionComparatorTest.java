@@ -0,0 +1,270 @@
+package com.palantir.semver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks comparing precomputed keys against the comparison that split and matched the release candidates on
+ * every call, on every pair of a set of versions built from the identifiers that take different paths through
+ * the rules.
+ */
+public class SemanticVersionComparatorTest {
+
+    private static final String[] IDENTIFIERS = {
+        "dev", "alpha", "beta", "rc", "RC", "0", "1", "2", "10", "01", "2147483647", "2147483648", "a", "b", "-",
+        "1a", "",
+    };
+    private static final String[] ODD_RELEASE_CANDIDATES = {".", "...", "a.", ".a", "a..b", "rc..", "1.\u0663"};
+    private static final int[][] CORES = {{0, 0, 0}, {0, 0, 1}, {0, 1, 0}, {1, 0, 0}};
+    private static final int RANDOM_PAIRS = 200000;
+
+    private final SemanticVersionComparator comparator = new SemanticVersionComparator();
+
+    @Test
+    public void testAllPairsOfReleaseCandidatesCompareLikeReference() {
+        List<String> releaseCandidates = releaseCandidates();
+        List<SemanticVersion> versions = new ArrayList<SemanticVersion>();
+        for (String releaseCandidate : releaseCandidates) {
+            versions.add(new DefaultSemanticVersion(null, 1, 2, 3, releaseCandidate, null));
+        }
+        for (SemanticVersion one : versions) {
+            for (SemanticVersion two : versions) {
+                assertSameAsReference(one, two);
+            }
+        }
+    }
+
+    @Test
+    public void testAllPairsOfVersionsCompareLikeReference() {
+        List<SemanticVersion> versions = new ArrayList<SemanticVersion>();
+        String[] releaseCandidates = {null, "dev", "rc", "rc.1", "rc.2", "1", "a", "a.1", "2147483648", "a..b"};
+        String[] metadatas = {null, "build.1"};
+        for (int[] core : CORES) {
+            for (String releaseCandidate : releaseCandidates) {
+                for (String metadata : metadatas) {
+                    versions.add(new DefaultSemanticVersion(null, core[0], core[1], core[2], releaseCandidate,
+                            metadata));
+                    versions.add(new PrefixSemanticVersion(null, core[0], core[1], core[2], releaseCandidate,
+                            metadata));
+                    versions.add(new PlainSemanticVersion(core[0], core[1], core[2], releaseCandidate, metadata));
+                }
+            }
+        }
+        for (SemanticVersion one : versions) {
+            for (SemanticVersion two : versions) {
+                assertSameAsReference(one, two);
+            }
+        }
+    }
+
+    @Test
+    public void testRandomLongReleaseCandidatesCompareLikeReference() {
+        Random random = new Random(0);
+        for (int i = 0; i < RANDOM_PAIRS; i++) {
+            String one = randomReleaseCandidate(random);
+            // Share a start often enough to reach the later identifiers
+            String two = random.nextBoolean() ? one + "." + randomReleaseCandidate(random)
+                    : randomReleaseCandidate(random);
+            assertSameAsReference(
+                    new DefaultSemanticVersion(null, 0, 0, 0, one, null),
+                    new PrefixSemanticVersion(null, 0, 0, 0, two, null));
+        }
+    }
+
+    @Test
+    public void testParsedVersionsSortLikeReference() {
+        String[] tags = {
+            "1.0.0", "1.0.0-rc.1", "1.0.0-rc.2", "1.0.0-rc.10", "1.0.0-beta", "1.0.0-alpha.beta", "1.0.0-dev.3",
+            "1.0.0-1", "1.0.0-x.7.z.92", "1.0.0+build", "1.0.1-0", "0.9.9",
+        };
+        for (String one : tags) {
+            for (String two : tags) {
+                assertSameAsReference(SemanticVersions.parse(one), SemanticVersions.parse(two));
+                assertSameAsReference(SemanticVersions.parse("p", "p-" + one), SemanticVersions.parse(two));
+            }
+        }
+    }
+
+    private static List<String> releaseCandidates() {
+        List<String> releaseCandidates = new ArrayList<String>();
+        releaseCandidates.add(null);
+        for (String first : IDENTIFIERS) {
+            releaseCandidates.add(first);
+            for (String second : IDENTIFIERS) {
+                releaseCandidates.add(first + "." + second);
+            }
+        }
+        for (String odd : ODD_RELEASE_CANDIDATES) {
+            releaseCandidates.add(odd);
+        }
+        return releaseCandidates;
+    }
+
+    private static String randomReleaseCandidate(Random random) {
+        StringBuilder releaseCandidate = new StringBuilder(IDENTIFIERS[random.nextInt(IDENTIFIERS.length)]);
+        for (int identifiers = random.nextInt(4); identifiers > 0; identifiers--) {
+            releaseCandidate.append('.').append(IDENTIFIERS[random.nextInt(IDENTIFIERS.length)]);
+        }
+        return releaseCandidate.toString();
+    }
+
+    private void assertSameAsReference(SemanticVersion one, SemanticVersion two) {
+        String description = one + " vs " + two;
+        Integer expected;
+        try {
+            expected = ReferenceComparator.compare(one, two);
+        } catch (NumberFormatException e) {
+            expected = null;
+        }
+        try {
+            int actual = comparator.compare(one, two);
+            Assert.assertEquals(description, expected, Integer.valueOf(actual));
+            Assert.assertEquals(description, expected, Integer.valueOf(one.compareTo(two)));
+        } catch (NumberFormatException e) {
+            Assert.assertNull(description + " threw " + e, expected);
+        }
+    }
+
+    /**
+     * A version that is neither of the plugin's own kinds, and so has no precomputed key.
+     */
+    private static final class PlainSemanticVersion implements SemanticVersion {
+
+        private final int major;
+        private final int minor;
+        private final int patch;
+        private final String releaseCandidate;
+        private final String metadata;
+
+        PlainSemanticVersion(int major, int minor, int patch, String releaseCandidate, String metadata) {
+            this.major = major;
+            this.minor = minor;
+            this.patch = patch;
+            this.releaseCandidate = releaseCandidate;
+            this.metadata = metadata;
+        }
+
+        @Override
+        public String getOriginalVersion() {
+            return null;
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return major;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return minor;
+        }
+
+        @Override
+        public int getPatchVersion() {
+            return patch;
+        }
+
+        @Override
+        public String getReleaseCandidate() {
+            return releaseCandidate;
+        }
+
+        @Override
+        public String getMetadata() {
+            return metadata;
+        }
+
+        @Override
+        public int compareTo(SemanticVersion other) {
+            return new SemanticVersionComparator().compare(this, other);
+        }
+
+        @Override
+        public String toString() {
+            return "Plain [" + major + "." + minor + "." + patch + "-" + releaseCandidate + "+" + metadata + "]";
+        }
+    }
+
+    /**
+     * The comparison as it was before the keys were precomputed.
+     */
+    private static final class ReferenceComparator {
+
+        private static final String[] KEYWORDS = {"dev", "alpha", "beta", "rc"};
+
+        static int compare(SemanticVersion first, SemanticVersion other) {
+            if (first.getMajorVersion() != other.getMajorVersion()) {
+                return compareInts(first.getMajorVersion(), other.getMajorVersion());
+            } else if (first.getMinorVersion() != other.getMinorVersion()) {
+                return compareInts(first.getMinorVersion(), other.getMinorVersion());
+            } else if (first.getPatchVersion() != other.getPatchVersion()) {
+                return compareInts(first.getPatchVersion(), other.getPatchVersion());
+            }
+            String one = first.getReleaseCandidate();
+            String two = other.getReleaseCandidate();
+            if (one == null ? two == null : one.equals(two)) {
+                return 0;
+            } else if (two == null) {
+                return -1;
+            } else if (one == null) {
+                return 1;
+            }
+            String[] oneIdentifiers = one.split("\\.");
+            String[] twoIdentifiers = two.split("\\.");
+            int minLength = Math.min(oneIdentifiers.length, twoIdentifiers.length);
+            for (int i = 0; i < minLength; i++) {
+                if (!oneIdentifiers[i].equals(twoIdentifiers[i])) {
+                    int result = i == 0
+                            ? compareCheckingForKeywords(oneIdentifiers[0], twoIdentifiers[0])
+                            : compareIdentifiers(oneIdentifiers[i], twoIdentifiers[i]);
+                    // Identifiers such as 1 and 01 differ but compare equal, leaving it to the lengths
+                    if (result != 0) {
+                        return result;
+                    }
+                    break;
+                }
+            }
+            return compareInts(twoIdentifiers.length, oneIdentifiers.length);
+        }
+
+        private static int compareCheckingForKeywords(String one, String two) {
+            int oneKeyword = keywordPrecedence(one);
+            int twoKeyword = keywordPrecedence(two);
+            if (oneKeyword >= 0 && twoKeyword >= 0) {
+                return compareInts(oneKeyword, twoKeyword);
+            } else if (oneKeyword < 0 && twoKeyword < 0) {
+                return compareIdentifiers(one, two);
+            }
+            return oneKeyword >= 0 ? 1 : -1;
+        }
+
+        private static int keywordPrecedence(String identifier) {
+            for (int i = 0; i < KEYWORDS.length; i++) {
+                if (KEYWORDS[i].equals(identifier)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static int compareIdentifiers(String one, String two) {
+            boolean oneNumeric = one.matches("\\d+");
+            boolean twoNumeric = two.matches("\\d+");
+            if (oneNumeric && twoNumeric) {
+                return compareInts(Integer.parseInt(one), Integer.parseInt(two));
+            } else if (!oneNumeric && !twoNumeric) {
+                return one.compareTo(two);
+            }
+            return oneNumeric ? -1 : 1;
+        }
+
+        private static int compareInts(int a, int b) {
+            return Integer.valueOf(a).compareTo(Integer.valueOf(b));
+        }
+    }
+
+}
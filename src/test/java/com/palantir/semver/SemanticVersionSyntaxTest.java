@@ -0,0 +1,177 @@
+package com.palantir.semver;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the hand-written parser against the regular expression it replaced, on random strings built to
+ * land close to the edges of the grammar.
+ */
+public class SemanticVersionSyntaxTest {
+
+    private static final Pattern REFERENCE = Pattern.compile("^(\\d+)(\\.(\\d+))(\\.(\\d+))"
+            + "(-(([0-9A-Za-z-]+)(\\.[0-9A-Za-z-]+)*))?"
+            + "(\\+(([0-9A-Za-z-]+)(\\.[0-9A-Za-z-]+)*))?$");
+    private static final String[] PIECES = {
+        "0", "1", "7", "00", "12", "2147483647", "2147483648", "99999999999", "0000000000001",
+        ".", ".", ".", "-", "-", "+", "+", "..", "--",
+        "a", "Z", "v", "rc", "alpha", "build", "x-y",
+        " ", "\n", "_", "/", "\u0663", "\u00e9", "*",
+    };
+    private static final String[] PREFIXES = {"p", "p-", "pv", "a/b", "x_1", "proj", "p.", "(p)"};
+    private static final int ITERATIONS = 200000;
+
+    @Test
+    public void testKnownEdgeCases() {
+        assertSameAsReference("1.2.3");
+        assertSameAsReference("1.2.3-");
+        assertSameAsReference("1.2.3--");
+        assertSameAsReference("1.2.3-.a");
+        assertSameAsReference("1.2.3-a.");
+        assertSameAsReference("1.2.3-a..b");
+        assertSameAsReference("1.2.3+");
+        assertSameAsReference("1.2.3-+a");
+        assertSameAsReference("1.2.3+a-b.c");
+        assertSameAsReference("1.2.3+a+b");
+        assertSameAsReference("1.2.3-a+b-c");
+        assertSameAsReference("1.2.3\n");
+        assertSameAsReference("01.002.0003");
+        assertSameAsReference("1.2");
+        assertSameAsReference("1..2.3");
+        assertSameAsReference(".1.2.3");
+        assertSameAsReference("v1.2.3");
+        assertSameAsReference("1.2.\u0663");
+        assertSameAsReference("2147483648.0.0");
+        assertSameAsReference("");
+    }
+
+    @Test
+    public void testRandomStringsParseLikeReference() {
+        Random random = new Random(0);
+        for (int i = 0; i < ITERATIONS; i++) {
+            StringBuilder version = new StringBuilder();
+            for (int pieces = random.nextInt(12); pieces > 0; pieces--) {
+                version.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            assertSameAsReference(version.toString());
+        }
+    }
+
+    @Test
+    public void testMutatedVersionsParseLikeReference() {
+        Random random = new Random(1);
+        for (int i = 0; i < ITERATIONS; i++) {
+            StringBuilder version = new StringBuilder()
+                    .append(random.nextInt(20)).append('.').append(random.nextInt(20)).append('.')
+                    .append(random.nextInt(20));
+            if (random.nextBoolean()) {
+                version.append('-').append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            if (random.nextBoolean()) {
+                version.append('+').append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            for (int mutations = random.nextInt(3); mutations > 0; mutations--) {
+                int position = random.nextInt(version.length() + 1);
+                String piece = PIECES[random.nextInt(PIECES.length)];
+                switch (random.nextInt(3)) {
+                    case 0:
+                        version.insert(position, piece);
+                        break;
+                    case 1:
+                        if (position < version.length()) {
+                            version.deleteCharAt(position);
+                        }
+                        break;
+                    default:
+                        version.replace(position, Math.min(version.length(), position + 1), piece);
+                        break;
+                }
+            }
+            assertSameAsReference(version.toString());
+        }
+    }
+
+    @Test
+    public void testPrefixedVersionsParseLikeReference() {
+        Random random = new Random(2);
+        for (int i = 0; i < ITERATIONS; i++) {
+            String prefix = PREFIXES[random.nextInt(PREFIXES.length)];
+            StringBuilder version = new StringBuilder();
+            if (random.nextInt(4) != 0) {
+                version.append(random.nextBoolean() ? prefix : PREFIXES[random.nextInt(PREFIXES.length)]);
+            }
+            for (int pieces = random.nextInt(10); pieces > 0; pieces--) {
+                version.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            assertPrefixedSameAsReference(prefix, version.toString());
+        }
+    }
+
+    private static void assertPrefixedSameAsReference(String prefix, String version) {
+        Matcher matcher = Pattern.compile("^" + prefix + "-?v?(\\d+)(\\.(\\d+))(\\.(\\d+))"
+                + "(-(([0-9A-Za-z-]+)(\\.[0-9A-Za-z-]+)*))?"
+                + "(\\+(([0-9A-Za-z-]+)(\\.[0-9A-Za-z-]+)*))?$").matcher(version);
+        boolean valid = matcher.matches();
+        String description = prefix + " " + version;
+        Assert.assertEquals(description, valid, SemanticVersions.isValid(prefix, version));
+        Matcher tagMatcher = Pattern.compile("^" + prefix + "-?v?(.*)$").matcher(version);
+        String versionInTag = new TagBasedVersionFactory(prefix)
+                .generateVersion(new TagVersionAndCount(version, 0), "abcdef0", null, false).getTagName();
+        Assert.assertEquals(description, tagMatcher.matches() ? tagMatcher.group(1) : "0.0.0", versionInTag);
+        if (!valid) {
+            Assert.assertNull(description, SemanticVersions.tryParse(prefix, version));
+            return;
+        }
+        SemanticVersion parsed;
+        try {
+            parsed = SemanticVersions.tryParse(prefix, version);
+        } catch (NumberFormatException e) {
+            assertNumberOverflows(matcher);
+            return;
+        }
+        Assert.assertEquals(description, Integer.parseInt(matcher.group(1)), parsed.getMajorVersion());
+        Assert.assertEquals(description, Integer.parseInt(matcher.group(3)), parsed.getMinorVersion());
+        Assert.assertEquals(description, Integer.parseInt(matcher.group(5)), parsed.getPatchVersion());
+        Assert.assertEquals(description, matcher.group(7), parsed.getReleaseCandidate());
+        Assert.assertEquals(description, matcher.group(11), parsed.getMetadata());
+    }
+
+    private static void assertSameAsReference(String version) {
+        Matcher matcher = REFERENCE.matcher(version);
+        boolean valid = matcher.matches();
+        Assert.assertEquals(version, valid, SemanticVersions.isValid(version));
+        if (!valid) {
+            Assert.assertNull(version, SemanticVersions.tryParse(version));
+            return;
+        }
+        SemanticVersion parsed;
+        try {
+            parsed = SemanticVersions.tryParse(version);
+        } catch (NumberFormatException e) {
+            assertNumberOverflows(matcher);
+            return;
+        }
+        Assert.assertEquals(version, Integer.parseInt(matcher.group(1)), parsed.getMajorVersion());
+        Assert.assertEquals(version, Integer.parseInt(matcher.group(3)), parsed.getMinorVersion());
+        Assert.assertEquals(version, Integer.parseInt(matcher.group(5)), parsed.getPatchVersion());
+        Assert.assertEquals(version, matcher.group(7), parsed.getReleaseCandidate());
+        Assert.assertEquals(version, matcher.group(11), parsed.getMetadata());
+        Assert.assertEquals(version, parsed.getOriginalVersion());
+    }
+
+    private static void assertNumberOverflows(Matcher matcher) {
+        try {
+            Integer.parseInt(matcher.group(1));
+            Integer.parseInt(matcher.group(3));
+            Integer.parseInt(matcher.group(5));
+            Assert.fail("Parser rejected numbers that fit in an int: " + matcher.group());
+        } catch (NumberFormatException expected) {
+            // Both reject the version the same way
+        }
+    }
+
+}
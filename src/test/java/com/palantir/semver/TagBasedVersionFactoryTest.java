@@ -2,6 +2,9 @@ package com.palantir.semver;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.ConcurrentRefUpdateException;
@@ -201,6 +204,35 @@ public class TagBasedVersionFactoryTest {
         validateStableTag("1.0.0");
     }
 
+    @Test
+    public void testVersionsOfManyCommits() throws NoWorkTreeException,
+            IOException, GitAPIException {
+        RevCommit first = makeCommit();
+        tag("v0.1.0");
+        RevCommit second = makeCommit();
+        makeCommit();
+        tag("0.2.0-rc");
+        RevCommit head = makeCommit();
+        dirtyRepo();
+        Map<String, SemverVersion> versions = versionFactory.createVersions(repo,
+                Arrays.asList("HEAD", second.name(), "v0.1.0", first.name()), 123, false);
+        Assert.assertEquals(Arrays.asList("HEAD", second.name(), "v0.1.0", first.name()),
+                new ArrayList<String>(versions.keySet()));
+        Assert.assertEquals("0.2.0-rc.1+g" + head.abbreviate(7).name() + ".b123", versions.get("HEAD").toString());
+        Assert.assertEquals("0.1.0.1+g" + second.abbreviate(7).name() + ".b123",
+                versions.get(second.name()).toString());
+        Assert.assertEquals("0.1.0", versions.get("v0.1.0").toString());
+        Assert.assertEquals("0.1.0", versions.get(first.name()).toString());
+        Assert.assertFalse(versions.get("HEAD").getDirty());
+    }
+
+    @Test(expected = SemverGitflowPlugin.VersionApplicationException.class)
+    public void testVersionsOfUnknownRevision() throws NoWorkTreeException,
+            IOException, GitAPIException {
+        tag("0.1.0");
+        versionFactory.createVersions(repo, Arrays.asList("HEAD", "no-such-branch"), null, false);
+    }
+
     private void validateStableTag(String expectedVersion)
             throws NoWorkTreeException, MissingObjectException,
             IncorrectObjectTypeException, IOException, GitAPIException {
@@ -0,0 +1,211 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+public class TagIndexTest {
+
+    private static final PersonIdent COMMITTER = new PersonIdent("a", "a@b");
+
+    private Repository repo;
+    private Git git;
+    private File indexFile;
+
+    @Before
+    public void createRepository() throws IOException {
+        File repoDir = Files.createTempDir();
+        repo = new FileRepository(new File(repoDir, ".git"));
+        repo.create();
+        git = new Git(repo);
+        indexFile = new File(repo.getDirectory(), TagIndex.FILE_NAME);
+    }
+
+    @Test
+    public void testIndexIsWrittenAndReused() throws IOException, GitAPIException {
+        RevCommit commit = makeCommit();
+        tag("v1.0.0", true);
+        tag("v1.0.1", false);
+        Map<ObjectId, Set<String>> expected = Collections.<ObjectId, Set<String>>singletonMap(
+                commit.getId(), Sets.newHashSet("v1.0.0", "v1.0.1"));
+        Assert.assertEquals(expected, TagIndex.read(repo).getTagsByCommit());
+        Assert.assertTrue(indexFile.isFile());
+        String written = Files.toString(indexFile, Charsets.UTF_8);
+        Assert.assertEquals(expected, TagIndex.read(repo).getTagsByCommit());
+        Assert.assertEquals(written, Files.toString(indexFile, Charsets.UTF_8));
+    }
+
+    @Test
+    public void testAddedAndDeletedTagsAreNoticed() throws IOException, GitAPIException {
+        RevCommit first = makeCommit();
+        tag("v1.0.0", true);
+        TagIndex.read(repo);
+        RevCommit second = makeCommit();
+        tag("v1.1.0", true);
+        Assert.assertEquals(Collections.singleton("v1.1.0"), TagIndex.read(repo).getTagsByCommit().get(second));
+        git.tagDelete().setTags("v1.0.0").call();
+        Assert.assertNull(TagIndex.read(repo).getTagsByCommit().get(first));
+    }
+
+    @Test
+    public void testMovedTagIsPeeledAgain() throws IOException, GitAPIException {
+        makeCommit();
+        tag("v1.0.0", true);
+        TagIndex.read(repo);
+        RevCommit second = makeCommit();
+        git.tag().setName("v1.0.0").setMessage("moved").setForceUpdate(true).call();
+        Assert.assertEquals(Collections.singleton("v1.0.0"), TagIndex.read(repo).getTagsByCommit().get(second));
+    }
+
+    @Test
+    public void testTagMovedWithinTheSameTickIsNoticed() throws IOException, GitAPIException {
+        makeCommit();
+        tag("v1.0.0", false);
+        File ref = new File(repo.getDirectory(), "refs/tags/v1.0.0");
+        long modified = ref.lastModified();
+        Assert.assertTrue(ref.setLastModified(modified));
+        TagIndex.read(repo);
+        Assert.assertTrue(indexFile.setLastModified(modified + 10000));
+        RevCommit second = makeCommit();
+        git.tag().setName("v1.0.0").setForceUpdate(true).call();
+        // Same size, and as far as the file system can tell, the same modification time
+        Assert.assertTrue(ref.setLastModified(modified));
+        Assert.assertEquals(Collections.singleton("v1.0.0"), TagIndex.read(repo).getTagsByCommit().get(second));
+    }
+
+    @Test
+    public void testRefsModifiedWhenTheIndexWasWrittenAreReadAgain() throws IOException, GitAPIException {
+        RevCommit first = makeCommit();
+        RevCommit second = makeCommit();
+        git.tag().setName("v1.0.0").setObjectId(first).setAnnotated(false).call();
+        new GC((FileRepository) repo).packRefs();
+        File packedRefs = new File(repo.getDirectory(), "packed-refs");
+        long tick = packedRefs.lastModified();
+        Assert.assertTrue(packedRefs.setLastModified(tick));
+        TagIndex.read(repo);
+        Assert.assertTrue(indexFile.setLastModified(tick));
+        // Rewrite packed-refs in place within the tick the index was written in, keeping its size
+        String moved = Files.toString(packedRefs, Charsets.UTF_8).replace(first.name(), second.name());
+        Files.write(moved, packedRefs, Charsets.UTF_8);
+        Assert.assertTrue(packedRefs.setLastModified(tick));
+        Assert.assertEquals(Collections.singleton("v1.0.0"), TagIndex.read(repo).getTagsByCommit().get(second));
+    }
+
+    @Test
+    public void testUnchangedTagsAreNotPeeledAgain() throws IOException, GitAPIException {
+        RevCommit first = makeCommit();
+        tag("v1.0.0", true);
+        TagIndex.read(repo);
+        // Point the indexed tag somewhere else without touching the refs; only the index can know about it
+        RevCommit second = makeCommit();
+        String doctored = Files.toString(indexFile, Charsets.UTF_8).replace(first.name(), second.name());
+        Files.write(doctored, indexFile, Charsets.UTF_8);
+        Assert.assertEquals(Collections.singleton("v1.0.0"), TagIndex.read(repo).getTagsByCommit().get(second));
+
+        tag("v1.1.0", false);
+        Map<ObjectId, Set<String>> tags = TagIndex.read(repo).getTagsByCommit();
+        Assert.assertEquals(Sets.newHashSet("v1.0.0", "v1.1.0"), tags.get(second));
+        Assert.assertNull(tags.get(first));
+    }
+
+    @Test
+    public void testCorruptIndexIsIgnored() throws IOException, GitAPIException {
+        RevCommit commit = makeCommit();
+        tag("v1.0.0", true);
+        TagIndex.read(repo);
+        Files.write("gitsemver-tags 1\nnonsense\nnot an entry\n", indexFile, Charsets.UTF_8);
+        Assert.assertEquals(Collections.singleton("v1.0.0"), TagIndex.read(repo).getTagsByCommit().get(commit));
+    }
+
+    @Test
+    public void testPackedTagsArePeeledWithoutReadingObjects() throws IOException, GitAPIException {
+        RevCommit first = makeCommit();
+        tag("v1.0.0", true);
+        tag("v1.0.1", false);
+        new GC((FileRepository) repo).packRefs();
+        RevCommit second = makeCommit();
+        tag("v1.1.0", true);
+        tag("v1.1.1", false);
+
+        TagIndex index = TagIndex.read(repo);
+        Assert.assertEquals(Sets.newHashSet("v1.0.0", "v1.0.1"), index.getTagsByCommit().get(first));
+        Assert.assertEquals(Sets.newHashSet("v1.1.0", "v1.1.1"), index.getTagsByCommit().get(second));
+        Assert.assertEquals(2, index.getTagsPeeledByRefs());
+        Assert.assertEquals(2, index.getTagsReadFromObjects());
+        Assert.assertEquals(0, index.getUnchangedTags());
+
+        tag("v1.2.0", true);
+        index = TagIndex.read(repo);
+        Assert.assertEquals(4, index.getUnchangedTags());
+        Assert.assertEquals(1, index.getTagsReadFromObjects());
+    }
+
+    @Test
+    public void testPrefixScopedIndexOnlyReadsMatchingTags() throws IOException, GitAPIException {
+        RevCommit first = makeCommit();
+        tag("projecta-1.0.0", true);
+        tag("vprojecta-1.1.0", false);
+        tag("projectb-1.0.0", true);
+        tag("v1.0.0", false);
+        new GC((FileRepository) repo).packRefs();
+        RevCommit second = makeCommit();
+        tag("projecta-1.2.0", true);
+        tag("projectb-1.2.0", true);
+
+        Map<ObjectId, Set<String>> tags = TagIndex.read(repo, "projecta").getTagsByCommit();
+        Assert.assertEquals(Sets.newHashSet("projecta-1.0.0", "vprojecta-1.1.0"), tags.get(first));
+        Assert.assertEquals(Collections.singleton("projecta-1.2.0"), tags.get(second));
+        Assert.assertFalse(indexFile.exists());
+        File[] scopedIndexFiles = repo.getDirectory().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(TagIndex.FILE_NAME + "-");
+            }
+        });
+        Assert.assertEquals(1, scopedIndexFiles.length);
+        Assert.assertFalse(Files.toString(scopedIndexFiles[0], Charsets.UTF_8).contains("projectb"));
+
+        git.tagDelete().setTags("projecta-1.0.0").call();
+        Assert.assertEquals(Collections.singleton("vprojecta-1.1.0"),
+                TagIndex.read(repo, "projecta").getTagsByCommit().get(first));
+        Assert.assertEquals(Sets.newHashSet("projectb-1.0.0", "vprojecta-1.1.0", "v1.0.0"),
+                TagIndex.read(repo).getTagsByCommit().get(first));
+    }
+
+    @Test
+    public void testRegularExpressionPrefixReadsEveryTag() throws IOException, GitAPIException {
+        RevCommit commit = makeCommit();
+        tag("projecta-1.0.0", true);
+        tag("projectb-1.0.0", false);
+        Assert.assertEquals(Sets.newHashSet("projecta-1.0.0", "projectb-1.0.0"),
+                TagIndex.read(repo, "project.").getTagsByCommit().get(commit));
+    }
+
+    private void tag(String tagName, boolean annotated) throws GitAPIException {
+        git.tag().setName(tagName).setAnnotated(annotated).setMessage(annotated ? "blah" : null).call();
+    }
+
+    private RevCommit makeCommit() throws GitAPIException {
+        return git.commit().setCommitter(COMMITTER).setMessage("some commit").call();
+    }
+
+}
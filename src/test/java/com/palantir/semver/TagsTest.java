@@ -0,0 +1,377 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class TagsTest {
+
+    private static final String NO_MATCHING_TAGS =
+            "Cannot find any matching tags in history. You must have tags of form v0.1.2 in order to use semver";
+    private static final String[] PRERELEASES = {null, "dev", "alpha.1", "alpha.01", "beta", "rc", "rc.2", "abc"};
+
+    private Repository repo;
+    private TestHistories history;
+
+    @Before
+    public void createRepository() throws IOException {
+        File repoDir = Files.createTempDir();
+        repo = new FileRepository(new File(repoDir, ".git"));
+        repo.create();
+        history = new TestHistories(repo);
+    }
+
+    @Test
+    public void testHighestTagOnUnmergedBranchIsSkipped() throws IOException {
+        ObjectId base = history.commit(1000);
+        history.tag("v1.0.0", base, false);
+        ObjectId release = history.commit(1001, base);
+        history.tag("v2.0.0", release, true);
+        ObjectId head = history.commit(1002, base);
+        ObjectId tip = history.commit(1003, head);
+        history.checkout(tip);
+        assertResolution("1.0.0", 2, Tags.getHighestReachableTagVersionAndCount(repo, null));
+        assertParity(null);
+    }
+
+    @Test
+    public void testEqualVersionsResolveLikeFullWalk() throws IOException {
+        ObjectId base = history.commit(1000);
+        history.tag("1.0.0", base, false);
+        ObjectId left = history.commit(1001, base);
+        history.tag("v1.0.0", left, true);
+        ObjectId right = history.commit(1001, base);
+        history.tag("1.0.0+build.2", right, false);
+        history.checkout(history.commit(1002, left, right));
+        assertParity(null);
+    }
+
+    @Test
+    public void testNoReachableTags() throws IOException {
+        ObjectId base = history.commit(1000);
+        history.tag("v1.0.0", history.commit(1001, base), false);
+        history.checkout(history.commit(1002, base));
+        assertParity(null);
+    }
+
+    @Test
+    public void testParityOnMergeHeavyHistories() throws IOException {
+        for (int seed = 0; seed < 40; seed++) {
+            createRepository();
+            Random random = new Random(seed);
+            List<ObjectId> commits = generateHistory(random, 80);
+            for (int i = 0; i < 6; i++) {
+                history.checkout(commits.get(commits.size() - 1 - random.nextInt(commits.size() / 2)));
+                assertParity(null);
+                assertParity("p");
+            }
+        }
+    }
+
+    @Test
+    public void testBatchParityOnMergeHeavyHistories() throws IOException {
+        for (int seed = 0; seed < 20; seed++) {
+            createRepository();
+            Random random = new Random(seed);
+            List<ObjectId> commits = generateHistory(random, 80);
+            List<ObjectId> targets = new ArrayList<ObjectId>(commits);
+            Collections.shuffle(targets, random);
+            targets.add(targets.get(0));
+            for (String prefix : new String[] {null, "p"}) {
+                Map<ObjectId, TagVersionAndCount> latest = Tags.getLatestTagVersionsAndCounts(repo, prefix, targets);
+                Map<ObjectId, TagVersionAndCount> topo = Tags.getTopoTagVersionsAndCounts(repo, prefix, targets);
+                for (ObjectId commit : commits) {
+                    history.checkout(commit);
+                    Assert.assertEquals(describe(resolveByWalk(prefix)), describeBatch(latest.get(commit)));
+                    Assert.assertEquals(describe(resolveTopo(prefix)), describeBatch(topo.get(commit)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPrefixParityOnMergeHeavyHistories() throws IOException {
+        List<String> prefixes = Arrays.asList("p", "p-", "pv", "v", "hello", "q");
+        for (int seed = 0; seed < 20; seed++) {
+            createRepository();
+            Random random = new Random(seed);
+            List<ObjectId> commits = generateHistory(random, 80);
+            for (int i = 0; i < 4; i++) {
+                history.checkout(commits.get(commits.size() - 1 - random.nextInt(commits.size() / 2)));
+                Map<String, TagVersionAndCount> resolved = Tags.getLatestTagVersionsAndCountsByPrefix(repo, prefixes);
+                for (String prefix : prefixes) {
+                    Assert.assertEquals(describe(resolveByWalk(prefix)), describeBatch(resolved.get(prefix)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTopTagsHighestFirst() throws IOException {
+        ObjectId first = history.commit(1000);
+        history.tag("v1.0.0", first, false);
+        ObjectId second = history.commit(1001, first);
+        history.tag("v1.1.0", second, true);
+        ObjectId third = history.commit(1002, second);
+        history.tag("v2.0.0-rc.1", third, false);
+        ObjectId fourth = history.commit(1003, third);
+        history.tag("v2.0.0", fourth, true);
+        history.checkout(history.commit(1004, fourth));
+        List<TagVersionAndCount> top = Tags.getTopTagVersionsAndCounts(repo, null, 3);
+        Assert.assertEquals(3, top.size());
+        assertResolution("2.0.0", 1, top.get(0));
+        assertResolution("2.0.0-rc.1", 2, top.get(1));
+        assertResolution("1.1.0", 3, top.get(2));
+        Assert.assertEquals(4, Tags.getTopTagVersionsAndCounts(repo, null, 10).size());
+    }
+
+    @Test
+    public void testTopTagsParityOnMergeHeavyHistories() throws IOException {
+        for (int seed = 0; seed < 20; seed++) {
+            createRepository();
+            Random random = new Random(seed);
+            List<ObjectId> commits = generateHistory(random, 80);
+            for (int i = 0; i < 4; i++) {
+                history.checkout(commits.get(commits.size() - 1 - random.nextInt(commits.size() / 2)));
+                for (String prefix : new String[] {null, "p"}) {
+                    List<String> expected = resolveTopWithSeparateWalks(prefix, 5);
+                    Assert.assertEquals(expected, resolveTop(prefix, 5));
+                    Assert.assertEquals(describe(resolveByWalk(prefix)), resolveTop(prefix, 1).get(0));
+                }
+            }
+        }
+    }
+
+    private void assertParity(String prefix) throws IOException {
+        String expected = resolveWithSeparateWalks(prefix);
+        Assert.assertEquals(expected, describe(resolveByWalk(prefix)));
+        Assert.assertEquals(expected, describe(resolveHighestReachable(prefix)));
+    }
+
+    /**
+     * Reference resolution that walks the history once to pick the latest tag and then runs a second,
+     * topologically sorted walk to count the commits since that tag.
+     */
+    private String resolveWithSeparateWalks(String prefix) throws IOException {
+        Map<ObjectId, Set<String>> tags = TagIndex.read(repo).getTagsByCommit();
+        ObjectId head = repo.resolve(Constants.HEAD);
+        RevWalk walk = new RevWalk(repo);
+        walk.markStart(walk.parseCommit(head));
+        List<SemanticVersion> versions = new ArrayList<SemanticVersion>();
+        List<ObjectId> taggedCommits = new ArrayList<ObjectId>();
+        for (RevCommit commit : walk) {
+            if (tags.containsKey(commit)) {
+                for (String tagName : tags.get(commit)) {
+                    String tagVersion = GitRepos.stripVFromVersionString(tagName);
+                    if (prefix == null ? SemanticVersions.isValid(tagVersion)
+                            : SemanticVersions.isValid(prefix, tagVersion)) {
+                        versions.add(prefix == null ? SemanticVersions.parse(tagVersion)
+                                : SemanticVersions.parse(prefix, tagVersion));
+                        taggedCommits.add(commit.copy());
+                    }
+                }
+            }
+        }
+        if (versions.isEmpty()) {
+            return NO_MATCHING_TAGS;
+        }
+        int latest = 0;
+        for (int i = 1; i < versions.size(); i++) {
+            if (versions.get(i).compareTo(versions.get(latest)) >= 0) {
+                latest = i;
+            }
+        }
+        RevWalk countWalk = new RevWalk(repo);
+        countWalk.markStart(countWalk.parseCommit(head));
+        countWalk.sort(RevSort.TOPO);
+        int count = 0;
+        for (RevCommit c = countWalk.next(); c != null && !c.equals(taggedCommits.get(latest)); c = countWalk.next()) {
+            count++;
+        }
+        return versions.get(latest).getOriginalVersion() + " " + count;
+    }
+
+    /**
+     * Reference for the highest tags: every matching tag in the order a default walk finds them, stably sorted
+     * by version, with the commits since each counted by a topologically sorted walk.
+     */
+    private List<String> resolveTopWithSeparateWalks(String prefix, int limit) throws IOException {
+        Map<ObjectId, Set<String>> tags = TagIndex.read(repo).getTagsByCommit();
+        ObjectId head = repo.resolve(Constants.HEAD);
+        RevWalk walk = new RevWalk(repo);
+        walk.markStart(walk.parseCommit(head));
+        final List<SemanticVersion> versions = new ArrayList<SemanticVersion>();
+        List<ObjectId> taggedCommits = new ArrayList<ObjectId>();
+        for (RevCommit commit : walk) {
+            if (tags.containsKey(commit)) {
+                for (String tagName : tags.get(commit)) {
+                    String tagVersion = GitRepos.stripVFromVersionString(tagName);
+                    if (prefix == null ? SemanticVersions.isValid(tagVersion)
+                            : SemanticVersions.isValid(prefix, tagVersion)) {
+                        versions.add(prefix == null ? SemanticVersions.parse(tagVersion)
+                                : SemanticVersions.parse(prefix, tagVersion));
+                        taggedCommits.add(commit.copy());
+                    }
+                }
+            }
+        }
+        if (versions.isEmpty()) {
+            return Collections.singletonList(NO_MATCHING_TAGS);
+        }
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < versions.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer one, Integer two) {
+                return versions.get(one).compareTo(versions.get(two));
+            }
+        });
+        List<String> top = new ArrayList<String>();
+        for (int i = order.size() - 1; i >= 0 && top.size() < limit; i--) {
+            RevWalk countWalk = new RevWalk(repo);
+            countWalk.markStart(countWalk.parseCommit(head));
+            countWalk.sort(RevSort.TOPO);
+            int count = 0;
+            ObjectId tagged = taggedCommits.get(order.get(i));
+            for (RevCommit c = countWalk.next(); c != null && !c.equals(tagged); c = countWalk.next()) {
+                count++;
+            }
+            top.add(versions.get(order.get(i)).getOriginalVersion() + " " + count);
+        }
+        return top;
+    }
+
+    private List<String> resolveTop(String prefix, int limit) throws IOException {
+        List<String> top = new ArrayList<String>();
+        try {
+            for (TagVersionAndCount resolved : Tags.getTopTagVersionsAndCounts(repo, prefix, limit)) {
+                top.add(describe(resolved));
+            }
+        } catch (SemverGitflowPlugin.VersionApplicationException e) {
+            top.add(e.getMessage());
+        }
+        return top;
+    }
+
+    private Object resolveByWalk(String prefix) throws IOException {
+        try {
+            return Tags.getLatestTagVersionAndCount(repo, prefix);
+        } catch (SemverGitflowPlugin.VersionApplicationException e) {
+            return e;
+        }
+    }
+
+    private Object resolveHighestReachable(String prefix) throws IOException {
+        try {
+            return Tags.getHighestReachableTagVersionAndCount(repo, prefix);
+        } catch (SemverGitflowPlugin.VersionApplicationException e) {
+            return e;
+        }
+    }
+
+    private Object resolveTopo(String prefix) throws IOException {
+        try {
+            return Tags.getTopoTagVersionAndCount(repo, prefix);
+        } catch (SemverGitflowPlugin.VersionApplicationException e) {
+            return e;
+        }
+    }
+
+    private static String describeBatch(TagVersionAndCount resolved) {
+        return resolved == null ? NO_MATCHING_TAGS : describe(resolved);
+    }
+
+    private static String describe(Object resolved) {
+        if (resolved instanceof TagVersionAndCount) {
+            TagVersionAndCount tagVersionAndCount = (TagVersionAndCount) resolved;
+            return tagVersionAndCount.getVersion() + " " + tagVersionAndCount.getCount();
+        }
+        return ((Exception) resolved).getMessage();
+    }
+
+    private static void assertResolution(String version, int count, TagVersionAndCount resolved) {
+        Assert.assertEquals(version, resolved.getVersion());
+        Assert.assertEquals(count, resolved.getCount());
+    }
+
+    /**
+     * Generates a history with frequent merges, equal commit times and clock skew, tagged with versions that
+     * often compare as equal.
+     */
+    private List<ObjectId> generateHistory(Random random, int size) throws IOException {
+        List<ObjectId> commits = new ArrayList<ObjectId>();
+        Set<String> tagNames = new HashSet<String>();
+        int time = 100000;
+        for (int i = 0; i < size; i++) {
+            time += random.nextInt(5) == 0 ? -random.nextInt(30) : random.nextInt(3);
+            ObjectId commit;
+            if (commits.isEmpty()) {
+                commit = history.commit(time);
+            } else if (commits.size() > 2 && random.nextInt(3) == 0) {
+                ObjectId first = pickRecent(random, commits);
+                ObjectId second = pickRecent(random, commits);
+                commit = first.equals(second) ? history.commit(time, first) : history.commit(time, first, second);
+            } else {
+                commit = history.commit(time, pickRecent(random, commits));
+            }
+            commits.add(commit);
+            while (random.nextInt(3) == 0) {
+                String tagName = randomTagName(random);
+                if (tagNames.add(tagName)) {
+                    history.tag(tagName, commit, random.nextBoolean());
+                }
+            }
+        }
+        return commits;
+    }
+
+    private static ObjectId pickRecent(Random random, List<ObjectId> commits) {
+        return commits.get(commits.size() - 1 - random.nextInt(Math.min(8, commits.size())));
+    }
+
+    private static String randomTagName(Random random) {
+        if (random.nextInt(10) == 0) {
+            return "hello" + random.nextInt(100);
+        }
+        StringBuilder name = new StringBuilder();
+        if (random.nextInt(3) == 0) {
+            name.append(random.nextBoolean() ? "p-" : "p");
+        }
+        if (random.nextBoolean()) {
+            name.append("v");
+        }
+        name.append(random.nextInt(3)).append('.').append(random.nextInt(2)).append('.').append(random.nextInt(2));
+        String prerelease = PRERELEASES[random.nextInt(PRERELEASES.length)];
+        if (prerelease != null) {
+            name.append('-').append(prerelease);
+        }
+        if (random.nextInt(4) == 0) {
+            name.append("+build.").append(random.nextInt(3));
+        }
+        return name.toString();
+    }
+
+}
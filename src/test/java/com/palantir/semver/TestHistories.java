@@ -0,0 +1,81 @@
+package com.palantir.semver;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TagBuilder;
+import org.eclipse.jgit.lib.TreeFormatter;
+
+/**
+ * Writes commits of the empty tree, tags and a detached HEAD straight into a repository, which lets tests
+ * build histories of any shape and commit time without a working tree.
+ */
+class TestHistories {
+
+    static final PersonIdent COMMITTER = new PersonIdent("a", "a@b");
+
+    private final Repository repo;
+    private final ObjectInserter inserter;
+    private final ObjectId emptyTree;
+    private int commitNumber = 0;
+
+    TestHistories(Repository repo) throws IOException {
+        this.repo = repo;
+        this.inserter = repo.newObjectInserter();
+        this.emptyTree = inserter.insert(new TreeFormatter());
+        inserter.flush();
+    }
+
+    ObjectId getEmptyTree() {
+        return emptyTree;
+    }
+
+    /**
+     * @param time the commit time in seconds
+     */
+    ObjectId commit(int time, ObjectId... parents) throws IOException {
+        PersonIdent ident = new PersonIdent(COMMITTER, time * 1000L, 0);
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(emptyTree);
+        builder.setParentIds(parents);
+        builder.setAuthor(ident);
+        builder.setCommitter(ident);
+        builder.setMessage("commit " + commitNumber++);
+        ObjectId id = inserter.insert(builder);
+        inserter.flush();
+        return id;
+    }
+
+    void tag(String name, ObjectId commit) throws IOException {
+        tag(name, commit, false);
+    }
+
+    void tag(String name, ObjectId commit, boolean annotated) throws IOException {
+        ObjectId target = commit;
+        if (annotated) {
+            TagBuilder builder = new TagBuilder();
+            builder.setObjectId(commit, Constants.OBJ_COMMIT);
+            builder.setTag(name);
+            builder.setTagger(COMMITTER);
+            builder.setMessage("blah");
+            target = inserter.insert(builder);
+            inserter.flush();
+        }
+        RefUpdate update = repo.updateRef(Constants.R_TAGS + name);
+        update.setNewObjectId(target);
+        update.forceUpdate();
+    }
+
+    void checkout(ObjectId commit) throws IOException {
+        RefUpdate update = repo.updateRef(Constants.HEAD, true);
+        update.setNewObjectId(commit);
+        update.forceUpdate();
+    }
+
+}
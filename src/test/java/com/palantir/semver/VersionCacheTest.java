@@ -0,0 +1,164 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class VersionCacheTest {
+
+    private static final PersonIdent COMMITTER = new PersonIdent("a", "a@b");
+
+    private File repoDir;
+    private String repoLocation;
+    private Git git;
+
+    @Before
+    public void createRepository() throws GitAPIException {
+        VersionCache.clear();
+        repoDir = Files.createTempDir();
+        repoLocation = new File(repoDir, ".git").getAbsolutePath();
+        git = Git.init().setDirectory(repoDir).call();
+        git.commit().setCommitter(COMMITTER).setMessage("initial commit").call();
+        git.tag().setName("v1.0.0").call();
+        git.commit().setCommitter(COMMITTER).setMessage("second commit").call();
+    }
+
+    @Test
+    public void testProjectsOfOneBuildResolveOnce() throws IOException, GitAPIException {
+        git.tag().setName("p-1.0.0").call();
+        Object build = new Object();
+        int resolutions = VersionCache.getResolutionCount();
+        String version = resolve(null, false, build);
+        Assert.assertTrue(version.startsWith("1.0.0.1+g"));
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(version, resolve(null, false, build));
+        }
+        Assert.assertEquals(resolutions + 1, VersionCache.getResolutionCount());
+
+        Assert.assertEquals("1.0.0", resolve("p", true, build));
+        Assert.assertEquals("1.0.0", resolve("p", true, new Object()));
+        Assert.assertEquals(version, resolve(null, false, build));
+        Assert.assertEquals(resolutions + 2, VersionCache.getResolutionCount());
+    }
+
+    @Test
+    public void testCommitsAndTagsAreResolvedAgain() throws IOException, GitAPIException {
+        Assert.assertTrue(resolve().startsWith("1.0.0.1+g"));
+        git.commit().setCommitter(COMMITTER).setMessage("third commit").call();
+        Assert.assertTrue(resolve().startsWith("1.0.0-2+g"));
+        git.tag().setName("v1.1.0").call();
+        Assert.assertEquals("1.1.0", resolve());
+    }
+
+    @Test
+    public void testDirtyStateIsOnlySharedWithinOneBuild() throws IOException, GitAPIException {
+        git.tag().setName("v1.1.0").call();
+        Object build = new Object();
+        Assert.assertEquals("1.1.0", resolve(null, false, build));
+        Files.write("untracked", new File(repoDir, "file"), Charsets.UTF_8);
+        Assert.assertEquals("1.1.0", resolve(null, false, build));
+        Assert.assertEquals("1.1.0+dirty", resolve());
+    }
+
+    @Test
+    public void testTagRefsAreOnlyFingerprintedOncePerBuild() throws IOException, GitAPIException {
+        Object build = new Object();
+        Assert.assertTrue(resolve(null, false, build).startsWith("1.0.0.1+g"));
+        git.tag().setName("v1.1.0").call();
+        Assert.assertTrue(resolve(null, false, build).startsWith("1.0.0.1+g"));
+        Assert.assertEquals("1.1.0", resolve());
+    }
+
+    @Test
+    public void testConcurrentProjectsShareOneResolution() throws Exception {
+        final Object build = new Object();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        int resolutions = VersionCache.getResolutionCount();
+        try {
+            List<Future<String>> versions = new ArrayList<Future<String>>();
+            for (int i = 0; i < 32; i++) {
+                versions.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        start.await();
+                        return resolve(null, false, build);
+                    }
+                }));
+            }
+            start.countDown();
+            String expected = versions.get(0).get();
+            for (Future<String> version : versions) {
+                Assert.assertEquals(expected, version.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(resolutions + 1, VersionCache.getResolutionCount());
+    }
+
+    @Test
+    public void testPrefixesResolvedTogetherAreCachedForEachProject() throws IOException, GitAPIException {
+        git.tag().setName("a-2.0.0").call();
+        git.tag().setName("b-3.0.0").call();
+        git.commit().setCommitter(COMMITTER).setMessage("third commit").call();
+        Object build = new Object();
+        int resolutions = VersionCache.getResolutionCount();
+        Map<String, SemverVersion> versions = VersionCache.getVersions(repoLocation, null,
+                Arrays.asList("b", "a"), true, false, build);
+        Assert.assertEquals(Arrays.asList("b", "a"), new ArrayList<String>(versions.keySet()));
+        Assert.assertTrue(versions.get("b").toString().startsWith("3.0.0.1+g"));
+        Assert.assertTrue(versions.get("a").toString().startsWith("2.0.0.1+g"));
+        Assert.assertEquals(resolutions + 1, VersionCache.getResolutionCount());
+
+        Assert.assertEquals(versions.get("a").toString(), resolve("a", false, build));
+        Assert.assertEquals(versions.get("b").toString(), resolve("b", false, build));
+        Assert.assertEquals(resolutions + 1, VersionCache.getResolutionCount());
+    }
+
+    @Test
+    public void testHighestReachableModeSharesTheDefaultVersion() throws IOException, GitAPIException {
+        git.checkout().setCreateBranch(true).setName("unmerged").call();
+        git.commit().setCommitter(COMMITTER).setMessage("unmerged commit").call();
+        git.tag().setName("v9.0.0").call();
+        git.checkout().setName("master").call();
+        git.tag().setName("v1.1.0").call();
+        git.commit().setCommitter(COMMITTER).setMessage("third commit").call();
+        Object build = new Object();
+        int resolutions = VersionCache.getResolutionCount();
+        String highest = VersionCache.getVersion(repoLocation, null, null, VersionCache.Mode.HIGHEST_REACHABLE,
+                true, false, build, null).toString();
+        Assert.assertTrue(highest, highest.startsWith("1.1.0.1+g"));
+        Assert.assertEquals(highest, resolve(null, false, build));
+        Assert.assertEquals(highest, VersionCache.getVersion(repoLocation, null, null,
+                VersionCache.Mode.HIGHEST_REACHABLE, true, false, build, null).toString());
+        Assert.assertEquals(resolutions + 1, VersionCache.getResolutionCount());
+    }
+
+    private String resolve() throws IOException, GitAPIException {
+        return resolve(null, false, new Object());
+    }
+
+    private String resolve(String prefix, boolean topo, Object build) throws IOException, GitAPIException {
+        return VersionCache.getVersion(repoLocation, null, prefix, topo, true, false, build).toString();
+    }
+
+}
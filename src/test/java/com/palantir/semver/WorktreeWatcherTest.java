@@ -0,0 +1,127 @@
+package com.palantir.semver;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class WorktreeWatcherTest {
+
+    private static final PersonIdent COMMITTER = new PersonIdent("a", "a@b");
+
+    private File repoDir;
+    private Git git;
+    private Repository repo;
+    private WorktreeWatcher watcher;
+
+    @Before
+    public void createRepository() throws IOException, GitAPIException {
+        repoDir = Files.createTempDir();
+        git = Git.init().setDirectory(repoDir).call();
+        repo = git.getRepository();
+        write(".gitignore", "*.log\nbuild/\n");
+        write("a.txt", "aaaa");
+        write("dir/b.txt", "bbbb");
+        git.add().addFilepattern(".").call();
+        git.commit().setCommitter(COMMITTER).setMessage("initial commit").call();
+        write("x.log", "log");
+        write("build/classes/A.class", "class");
+        watcher = WorktreeWatcher.forRepository(repo);
+        Assume.assumeNotNull(watcher);
+    }
+
+    @After
+    public void closeWatchers() {
+        WorktreeWatcher.closeAll();
+        repo.close();
+    }
+
+    @Test
+    public void testAnswersFromMemoryUntilSomethingChanges() throws IOException, GitAPIException {
+        Assert.assertFalse(watcher.isDirty(repo, true));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertFalse(watcher.isDirty(repo, true));
+        }
+        Assert.assertEquals(1, watcher.getScanCount());
+
+        write("dir/b.txt", "changed");
+        assertDirty(true);
+        write("dir/b.txt", "bbbb");
+        assertDirty(false);
+        Assert.assertEquals(3, watcher.getScanCount());
+    }
+
+    @Test
+    public void testChangesToIgnoredFilesAreNotScanned() throws IOException, GitAPIException {
+        Assert.assertFalse(watcher.isDirty(repo, true));
+        write("x.log", "more log");
+        write("build/classes/B.class", "class");
+        write("build/resources/c.txt", "resource");
+        Assert.assertFalse(watcher.isDirty(repo, true));
+        Assert.assertEquals(1, watcher.getScanCount());
+
+        write("new.txt", "untracked");
+        assertDirty(true);
+        Assert.assertFalse(watcher.isDirty(repo, false));
+    }
+
+    @Test
+    public void testNewDirectoriesAreWatched() throws IOException, GitAPIException {
+        write("newdir/sub/c.txt", "cccc");
+        assertDirty(true);
+        git.add().addFilepattern("newdir").call();
+        git.commit().setCommitter(COMMITTER).setMessage("second commit").call();
+        assertDirty(false);
+        write("newdir/sub/c.txt", "changed");
+        assertDirty(true);
+    }
+
+    @Test
+    public void testCheckoutIsSeenByTheNextQuestion() throws IOException, GitAPIException {
+        String initial = repo.resolve(Constants.HEAD).name();
+        write("a.txt", "changed");
+        assertDirty(true);
+        git.commit().setAll(true).setCommitter(COMMITTER).setMessage("second commit").call();
+        assertDirty(false);
+        git.checkout().setName(initial).call();
+        assertDirty(false);
+        write("a.txt", "changed");
+        assertDirty(true);
+    }
+
+    @Test
+    public void testEveryChangeBeforeAQuestionIsSeen() throws IOException, GitAPIException {
+        Assert.assertFalse(watcher.isDirty(repo, true));
+        for (int i = 0; i < 20; i++) {
+            write("dir/b.txt", i % 2 == 0 ? "changed" : "bbbb");
+            Assert.assertEquals(i % 2 == 0, watcher.isDirty(repo, true));
+        }
+    }
+
+    /**
+     * Asks right after the change, without waiting for its event.
+     */
+    private void assertDirty(boolean dirty) throws IOException, GitAPIException {
+        Assert.assertEquals(dirty, watcher.isDirty(repo, true));
+        Assert.assertEquals(!git.status().call().isClean(), dirty);
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(repoDir, path);
+        file.getParentFile().mkdirs();
+        Files.write(content, file, Charsets.UTF_8);
+    }
+
+}